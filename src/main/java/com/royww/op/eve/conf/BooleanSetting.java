@@ -0,0 +1,37 @@
+package com.royww.op.eve.conf;
+
+/**
+ * boolean 类型的配置项，支持 true/false、yes/no、on/off、1/0，不区分大小写
+ */
+public final class BooleanSetting extends Setting {
+
+    private final boolean defaultValue;
+    private volatile boolean value;
+
+    BooleanSetting(String key, boolean defaultValue) {
+        super(key);
+        this.defaultValue = defaultValue;
+        this.value = defaultValue;
+        init();
+    }
+
+    public boolean get() {
+        ensureFresh();
+        return value;
+    }
+
+    @Override
+    void update(String raw) {
+        if (raw == null) {
+            value = defaultValue;
+        } else if ("true".equalsIgnoreCase(raw) || "yes".equalsIgnoreCase(raw)
+                || "on".equalsIgnoreCase(raw) || "1".equals(raw)) {
+            value = true;
+        } else if ("false".equalsIgnoreCase(raw) || "no".equalsIgnoreCase(raw)
+                || "off".equalsIgnoreCase(raw) || "0".equals(raw)) {
+            value = false;
+        } else {
+            throw new IllegalArgumentException("Illegal boolean value.key=" + getKey() + " value=" + raw);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.royww.op.eve.conf;
+
+/**
+ * 字节数类型的配置项
+ * <p>
+ * 格式为数字加单位：b、k(kb)、m(mb)、g(gb)、t(tb)，按 1024 进位，不区分大小写，如 512k、64MB；没有单位时为字节。
+ * </p>
+ */
+public final class ByteSizeSetting extends Setting {
+
+    private final long defaultBytes;
+    private volatile long bytes;
+
+    ByteSizeSetting(String key, long defaultBytes) {
+        super(key);
+        if (defaultBytes < 0) {
+            throw new IllegalArgumentException("Byte size must not be negative.key=" + key);
+        }
+        this.defaultBytes = defaultBytes;
+        this.bytes = defaultBytes;
+        init();
+    }
+
+    public long get() {
+        ensureFresh();
+        return bytes;
+    }
+
+    @Override
+    void update(String raw) {
+        bytes = raw == null ? defaultBytes : parse(raw);
+    }
+
+    static long parse(String raw) {
+        int i = 0;
+        while (i < raw.length() && Character.isDigit(raw.charAt(i))) {
+            i++;
+        }
+        if (i == 0) {
+            throw new IllegalArgumentException("Illegal byte size.value=" + raw);
+        }
+        long amount = Long.parseLong(raw.substring(0, i));
+        String suffix = raw.substring(i).trim().toLowerCase();
+        if (suffix.endsWith("b") && suffix.length() == 2) {
+            suffix = suffix.substring(0, 1);
+        }
+        int shift;
+        if (suffix.isEmpty() || "b".equals(suffix)) {
+            shift = 0;
+        } else if ("k".equals(suffix)) {
+            shift = 10;
+        } else if ("m".equals(suffix)) {
+            shift = 20;
+        } else if ("g".equals(suffix)) {
+            shift = 30;
+        } else if ("t".equals(suffix)) {
+            shift = 40;
+        } else {
+            throw new IllegalArgumentException("Illegal byte size unit.value=" + raw);
+        }
+        if (amount > (Long.MAX_VALUE >> shift)) {
+            throw new IllegalArgumentException("Byte size overflow.value=" + raw);
+        }
+        return amount << shift;
+    }
+}
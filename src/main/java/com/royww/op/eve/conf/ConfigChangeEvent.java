@@ -0,0 +1,54 @@
+package com.royww.op.eve.conf;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * 配置变化事件，记录一次快照替换中新增、修改或删除的KEY
+ */
+public final class ConfigChangeEvent {
+
+    private final ConfigSnapshot oldSnapshot;
+    private final ConfigSnapshot newSnapshot;
+    private final Set<String> changedKeys;
+
+    ConfigChangeEvent(ConfigSnapshot oldSnapshot, ConfigSnapshot newSnapshot, Set<String> changedKeys) {
+        this.oldSnapshot = oldSnapshot;
+        this.newSnapshot = newSnapshot;
+        this.changedKeys = Collections.unmodifiableSet(changedKeys);
+    }
+
+    public Set<String> getChangedKeys() {
+        return changedKeys;
+    }
+
+    /**
+     * @return 变化前的值，新增的KEY返回 null
+     */
+    public String getOldValue(String key) {
+        return oldSnapshot.get(key);
+    }
+
+    /**
+     * @return 变化后的值，删除的KEY返回 null
+     */
+    public String getNewValue(String key) {
+        return newSnapshot.get(key);
+    }
+
+    public boolean isRemoved(String key) {
+        return changedKeys.contains(key) && !newSnapshot.contains(key);
+    }
+
+    /**
+     * @return 变化后的快照，后续的变化可能已经发布
+     */
+    public ConfigSnapshot getSnapshot() {
+        return newSnapshot;
+    }
+
+    @Override
+    public String toString() {
+        return "ConfigChangeEvent{version=" + newSnapshot.getVersion() + ", changedKeys=" + changedKeys + '}';
+    }
+}
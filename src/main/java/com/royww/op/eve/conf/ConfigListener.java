@@ -0,0 +1,17 @@
+package com.royww.op.eve.conf;
+
+/**
+ * 配置变化监听器
+ * <p>
+ * 通过 {@link PropertiesReader#addListener(String, ConfigListener)} 或
+ * {@link PropertiesReader#addKeyListener(String, ConfigListener)} 注册，
+ * 在专用的通知线程上按快照发布顺序回调，回调中不要长时间阻塞。
+ * </p>
+ */
+public interface ConfigListener {
+
+    /**
+     * @param event 只包含监听范围内发生变化的KEY
+     */
+    void configChanged(ConfigChangeEvent event);
+}
@@ -0,0 +1,281 @@
+package com.royww.op.eve.conf;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CodingErrorAction;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * 配置文件加载
+ * <p>
+ * 资源可以在文件系统中，也可以在 jar/zip 包中。资源为目录时包含其下所有 properties & ini 文件，
+ * 按资源的先后顺序、同一资源内按相对路径排序，后面的文件覆盖前面的，结果与文件系统遍历顺序无关。
+ * 文件较多时在共用的 {@link ForkJoinPool} 上并行读取和解析，见 {@link PropertiesParser}。
+ * </p>
+ * <p>
+ * 每次加载创建一个实例，用完后关闭以释放打开的 jar 包。
+ * </p>
+ */
+final class ConfigLoader implements Closeable {
+
+    static Logger logger = LoggerFactory.getLogger(ConfigLoader.class);
+
+    //每个并行任务至少处理的文件数，文件数不超过该值时在调用线程上解析
+    private static final int PARSE_BATCH = 8;
+
+    private static volatile ForkJoinPool parsePool;
+
+    private static final Comparator<ConfigFile> BY_PATH = new Comparator<ConfigFile>() {
+        @Override
+        public int compare(ConfigFile o1, ConfigFile o2) {
+            return o1.path.compareTo(o2.path);
+        }
+    };
+
+    //jar 包路径 -> 打开的 jar 包
+    private final Map<String, JarFile> jars = Maps.newHashMap();
+
+    /**
+     * 将资源展开为配置文件列表，按加载顺序排列
+     * @param resources 相对资源目录，如 conf/default.properties 或 conf
+     */
+    List<ConfigFile> resolve(List<String> resources) {
+        List<ConfigFile> files = Lists.newArrayList();
+        for (String resource : resources) {
+            URL url;
+            try {
+                url = Resources.getResource(resource);
+            } catch (IllegalArgumentException e) {
+                logger.error("config resource not found.resource={}", resource, e);
+                continue;
+            }
+            try {
+                List<ConfigFile> resourceFiles;
+                if ("file".equals(url.getProtocol())) {
+                    resourceFiles = resolveFile(toFile(url));
+                } else if ("jar".equals(url.getProtocol())) {
+                    resourceFiles = resolveJarEntries(url);
+                } else {
+                    logger.error("unsupported config resource.url={}", url);
+                    continue;
+                }
+                Collections.sort(resourceFiles, BY_PATH);
+                files.addAll(resourceFiles);
+            } catch (IOException e) {
+                logger.error("resolve config resource error.resource={}", resource, e);
+            }
+        }
+        return files;
+    }
+
+    private List<ConfigFile> resolveFile(File root) {
+        List<ConfigFile> files = Lists.newArrayList();
+        if (root.isDirectory()) {
+            for (File file : Files.fileTreeTraverser().preOrderTraversal(root)) {
+                if (file.isFile() && isConfigFile(file.getName())) {
+                    files.add(ConfigFile.of(file));
+                }
+            }
+        } else if (root.isFile() && isConfigFile(root.getName())) {
+            files.add(ConfigFile.of(root));
+        }
+        return files;
+    }
+
+    /**
+     * @param url 形如 jar:file:/path/app.jar!/conf/default.properties
+     */
+    private List<ConfigFile> resolveJarEntries(URL url) throws IOException {
+        String spec = url.getPath();
+        int separator = spec.indexOf("!/");
+        if (separator < 0 || !spec.startsWith("file:")) {
+            throw new IOException("unsupported jar url:" + url);
+        }
+        String jarPath = URLDecoder.decode(spec.substring("file:".length(), separator), Charsets.UTF_8.name());
+        String entryName = spec.substring(separator + 2);
+        JarFile jar = jars.get(jarPath);
+        if (jar == null) {
+            jar = new JarFile(jarPath);
+            jars.put(jarPath, jar);
+        }
+        String dirPrefix = entryName.endsWith("/") ? entryName : entryName + "/";
+        List<ConfigFile> files = Lists.newArrayList();
+        Enumeration<JarEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+            JarEntry entry = entries.nextElement();
+            if (entry.isDirectory() || !isConfigFile(entry.getName())) {
+                continue;
+            }
+            if (entry.getName().equals(entryName) || entry.getName().startsWith(dirPrefix)) {
+                files.add(new ConfigFile("jar:file:" + jarPath + "!/" + entry.getName(), entry.getTime(),
+                        null, jar, entry));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * 读取并解析配置文件，读取失败的文件记录错误日志后跳过
+     * @return 文件路径 -> K-V，顺序同参数
+     */
+    Map<String, Map<String, String>> parse(List<ConfigFile> files) {
+        AtomicReferenceArray<Map<String, String>> results = new AtomicReferenceArray<Map<String, String>>(files.size());
+        ParseTask task = new ParseTask(files, results, 0, files.size());
+        if (files.size() <= PARSE_BATCH) {
+            task.compute();
+        } else {
+            parsePool().invoke(task);
+        }
+        Map<String, Map<String, String>> fileValues = Maps.newLinkedHashMap();
+        for (int i = 0; i < results.length(); i++) {
+            Map<String, String> kvs = results.get(i);
+            if (kvs != null) {
+                fileValues.put(files.get(i).path, kvs);
+            }
+        }
+        return fileValues;
+    }
+
+    @Override
+    public void close() {
+        for (JarFile jar : jars.values()) {
+            try {
+                Closeables.close(jar, true);
+            } catch (IOException e) {
+                //swallowed
+            }
+        }
+        jars.clear();
+    }
+
+    static boolean isConfigFile(String name) {
+        return PropertiesReader.fileExtensions.contains(Files.getFileExtension(name));
+    }
+
+    static File toFile(URL url) throws UnsupportedEncodingException {
+        //fix by shuzhe.ssz change "%20" to " ",waiting for another good solution.，
+        return new File(URLDecoder.decode(url.getPath(), Charsets.UTF_8.name()));
+    }
+
+    private static ForkJoinPool parsePool() {
+        ForkJoinPool pool = parsePool;
+        if (pool == null) {
+            synchronized (ConfigLoader.class) {
+                pool = parsePool;
+                if (pool == null) {
+                    //工作线程为守护线程，空闲后自动回收
+                    pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+                    parsePool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * 二分文件列表并行解析，结果按下标写入数组
+     */
+    static final class ParseTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<ConfigFile> files;
+        private final AtomicReferenceArray<Map<String, String>> results;
+        private final int from;
+        private final int to;
+
+        ParseTask(List<ConfigFile> files, AtomicReferenceArray<Map<String, String>> results, int from, int to) {
+            this.files = files;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARSE_BATCH) {
+                for (int i = from; i < to; i++) {
+                    results.set(i, parseQuietly(files.get(i)));
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ParseTask(files, results, from, middle), new ParseTask(files, results, middle, to));
+        }
+
+        private static Map<String, String> parseQuietly(ConfigFile file) {
+            try {
+                CharBuffer chars = Charsets.UTF_8.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                        .decode(ByteBuffer.wrap(file.read()));
+                return PropertiesParser.parse(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining());
+            } catch (IOException e) {
+                logger.error("load properties file error.filePath={}", file.path, e);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * 一个配置文件，文件系统中的文件或 jar 包中的条目
+     */
+    static final class ConfigFile {
+        //快照中的文件标识：文件系统中为文件路径，jar 包中为 jar:file:...!/entry
+        final String path;
+        final long lastModified;
+        private final File file;
+        private final JarFile jar;
+        private final JarEntry entry;
+
+        ConfigFile(String path, long lastModified, File file, JarFile jar, JarEntry entry) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.file = file;
+            this.jar = jar;
+            this.entry = entry;
+        }
+
+        static ConfigFile of(File file) {
+            return new ConfigFile(file.getPath(), file.lastModified(), file, null, null);
+        }
+
+        byte[] read() throws IOException {
+            if (file != null) {
+                return Files.toByteArray(file);
+            }
+            InputStream in = jar.getInputStream(entry);
+            try {
+                return ByteStreams.toByteArray(in);
+            } finally {
+                Closeables.closeQuietly(in);
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.royww.op.eve.conf;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 配置变化通知
+ * <p>
+ * 快照发布后在专用的通知线程上比较上次通知的快照与当前快照，得到KEY级别的差异，再按监听范围分发。
+ * 连续发布的多个快照可能合并为一次通知，但通知顺序与发布顺序一致，发布线程不做比较和回调。
+ * </p>
+ */
+final class ConfigNotifier {
+
+    static Logger logger = LoggerFactory.getLogger(ConfigNotifier.class);
+
+    private static final List<Registration> listeners = new CopyOnWriteArrayList<Registration>();
+    //第一次注册监听器时创建
+    private static volatile ExecutorService notifier;
+    //只在通知线程中访问，创建 notifier 前初始化
+    private static ConfigSnapshot lastNotified;
+
+    private static final Runnable NOTIFY_TASK = new Runnable() {
+        @Override
+        public void run() {
+            notifyChanged();
+        }
+    };
+
+    private ConfigNotifier() {
+    }
+
+    static synchronized void register(String keyOrPrefix, boolean exactKey, ConfigListener listener) {
+        if (keyOrPrefix == null || listener == null) {
+            throw new NullPointerException("key and listener must not be null");
+        }
+        if (notifier == null) {
+            lastNotified = PropertiesReader.snapshot.get();
+            notifier = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("eve-config-notifier").setDaemon(true).build());
+        }
+        listeners.add(new Registration(keyOrPrefix, exactKey, listener));
+    }
+
+    static boolean unregister(ConfigListener listener) {
+        boolean removed = false;
+        for (Registration registration : listeners) {
+            if (registration.listener == listener) {
+                removed |= listeners.remove(registration);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * 新快照发布后调用
+     */
+    static void snapshotPublished() {
+        ExecutorService executor = notifier;
+        if (executor != null) {
+            executor.execute(NOTIFY_TASK);
+        }
+    }
+
+    private static void notifyChanged() {
+        ConfigSnapshot previous = lastNotified;
+        ConfigSnapshot current = PropertiesReader.snapshot.get();
+        if (current == previous) {
+            return;
+        }
+        lastNotified = current;
+        Set<String> changedKeys = diff(previous, current);
+        if (changedKeys.isEmpty()) {
+            return;
+        }
+        for (Registration registration : listeners) {
+            Set<String> matched = registration.match(changedKeys);
+            if (matched.isEmpty()) {
+                continue;
+            }
+            try {
+                registration.listener.configChanged(new ConfigChangeEvent(previous, current, matched));
+            } catch (Throwable e) {
+                logger.error("config listener error.key={}", registration.keyOrPrefix, e);
+            }
+        }
+    }
+
+    /**
+     * @return 新增、删除或值变化的KEY，有序
+     */
+    static Set<String> diff(ConfigSnapshot previous, ConfigSnapshot current) {
+        Set<String> changed = new TreeSet<String>();
+        for (String key : current.keySet()) {
+            if (!previous.contains(key) || !equal(previous.get(key), current.get(key))) {
+                changed.add(key);
+            }
+        }
+        for (String key : previous.keySet()) {
+            if (!current.contains(key)) {
+                changed.add(key);
+            }
+        }
+        return changed;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    static final class Registration {
+        final String keyOrPrefix;
+        final boolean exactKey;
+        final ConfigListener listener;
+
+        Registration(String keyOrPrefix, boolean exactKey, ConfigListener listener) {
+            this.keyOrPrefix = keyOrPrefix;
+            this.exactKey = exactKey;
+            this.listener = listener;
+        }
+
+        Set<String> match(Set<String> changedKeys) {
+            Set<String> matched = new TreeSet<String>();
+            if (exactKey) {
+                if (changedKeys.contains(keyOrPrefix)) {
+                    matched.add(keyOrPrefix);
+                }
+                return matched;
+            }
+            for (String key : changedKeys) {
+                if (key.startsWith(keyOrPrefix)) {
+                    matched.add(key);
+                }
+            }
+            return matched;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.royww.op.eve.conf;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * 配置快照
+ * <p>
+ * 创建后不再修改，可以被任意线程无锁读取。加载或重新加载配置时基于当前快照生成新的快照，
+ * 由 {@link PropertiesReader} 通过一次原子引用替换发布。值可以为 null(文件中没有 = 的 KEY)。
+ * </p>
+ * <p>
+ * 按文件保存解析结果，合并后的值由各文件按首次加载顺序叠加得到，后加载的覆盖先加载的。
+ * 某个文件重新加载时保持其原有顺序，文件中删除的KEY也随之从快照中删除。
+ * </p>
+ * <p>
+ * 配置分层，优先级从低到高：文件 &lt; 环境变量 &lt; 系统属性 &lt; 内存覆盖层。
+ * 环境变量和系统属性只覆盖文件中已有的KEY，环境变量名为KEY转大写并把 . 和 - 换成 _，
+ * 如 a.b-c 对应 A_B_C。环境变量和系统属性在生成快照时读取，任一层变化都会生成新快照。
+ * </p>
+ */
+public final class ConfigSnapshot {
+
+    static final ConfigSnapshot EMPTY = new ConfigSnapshot(0, Maps.<String, Map<String, String>>newLinkedHashMap(),
+            Maps.<String, Long>newHashMap(), Maps.<String, String>newHashMap());
+
+    private final long version;
+    //各层叠加后的值
+    private final Map<String, String> values;
+    //文件路径 -> 该文件解析出的 K-V，按首次加载顺序
+    private final Map<String, Map<String, String>> fileValues;
+    private final Map<String, Long> lastModifiedTimes;
+    private final Map<String, String> overrides;
+    //有序的KEY，第一次按前缀查询时生成
+    private volatile String[] sortedKeys;
+
+    /**
+     * 参数中的集合由快照独占，调用方之后不能再修改
+     */
+    private ConfigSnapshot(long version, Map<String, Map<String, String>> fileValues,
+                           Map<String, Long> lastModifiedTimes, Map<String, String> overrides) {
+        this.version = version;
+        this.fileValues = Collections.unmodifiableMap(fileValues);
+        this.lastModifiedTimes = Collections.unmodifiableMap(lastModifiedTimes);
+        this.overrides = Collections.unmodifiableMap(overrides);
+        this.values = Collections.unmodifiableMap(resolve(fileValues, overrides));
+    }
+
+    private static Map<String, String> resolve(Map<String, Map<String, String>> fileValues,
+                                               Map<String, String> overrides) {
+        int size = 0;
+        for (Map<String, String> kvs : fileValues.values()) {
+            size += kvs.size();
+        }
+        Map<String, String> values = Maps.newHashMapWithExpectedSize(size + overrides.size());
+        for (Map<String, String> kvs : fileValues.values()) {
+            values.putAll(kvs);
+        }
+        applyEnvironment(values);
+        applySystemProperties(values);
+        values.putAll(overrides);
+        return values;
+    }
+
+    private static void applyEnvironment(Map<String, String> values) {
+        Map<String, String> env = System.getenv();
+        if (env.isEmpty()) {
+            return;
+        }
+        //名称转换不改变长度，长度与所有环境变量都不同的KEY不需要转换
+        Set<Integer> envNameLengths = Sets.newHashSet();
+        for (String name : env.keySet()) {
+            envNameLengths.add(name.length());
+        }
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            if (!envNameLengths.contains(entry.getKey().length())) {
+                continue;
+            }
+            String value = env.get(envName(entry.getKey()));
+            if (value != null) {
+                entry.setValue(value);
+            }
+        }
+    }
+
+    private static void applySystemProperties(Map<String, String> values) {
+        Properties properties = System.getProperties();
+        for (String name : properties.stringPropertyNames()) {
+            if (values.containsKey(name)) {
+                values.put(name, properties.getProperty(name));
+            }
+        }
+    }
+
+    static String envName(String key) {
+        char[] chars = new char[key.length()];
+        for (int i = 0; i < chars.length; i++) {
+            char c = key.charAt(i);
+            chars[i] = c == '.' || c == '-' ? '_' : Character.toUpperCase(c);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * 在当前快照上合并新加载的文件
+     * @param fileValues 各文件解析出的 K-V，后面的文件覆盖前面的
+     * @param fileModifiedTimes 各文件的最后修改时间
+     */
+    ConfigSnapshot merge(Map<String, Map<String, String>> fileValues, Map<String, Long> fileModifiedTimes) {
+        return merge(fileValues, fileModifiedTimes, Collections.<String>emptySet());
+    }
+
+    /**
+     * @param removedFiles 已被删除的文件，其 K-V 从快照中去掉
+     */
+    ConfigSnapshot merge(Map<String, Map<String, String>> fileValues, Map<String, Long> fileModifiedTimes,
+                         Collection<String> removedFiles) {
+        Map<String, Map<String, String>> newFileValues = Maps.newLinkedHashMap(this.fileValues);
+        for (Map.Entry<String, Map<String, String>> entry : fileValues.entrySet()) {
+            newFileValues.put(entry.getKey(), Collections.unmodifiableMap(entry.getValue()));
+        }
+        Map<String, Long> newModifiedTimes = Maps.newHashMap(lastModifiedTimes);
+        newModifiedTimes.putAll(fileModifiedTimes);
+        for (String removed : removedFiles) {
+            newFileValues.remove(removed);
+            newModifiedTimes.remove(removed);
+        }
+        return new ConfigSnapshot(version + 1, newFileValues, newModifiedTimes, Maps.newHashMap(overrides));
+    }
+
+    /**
+     * @param newOverrides 新的内存覆盖层，替换原有的全部覆盖
+     */
+    ConfigSnapshot withOverrides(Map<String, String> newOverrides) {
+        return new ConfigSnapshot(version + 1, Maps.newLinkedHashMap(fileValues),
+                Maps.newHashMap(lastModifiedTimes), newOverrides);
+    }
+
+    /**
+     * 重新读取环境变量和系统属性
+     */
+    ConfigSnapshot refresh() {
+        return withOverrides(Maps.newHashMap(overrides));
+    }
+
+    /**
+     * @return 每次生成新快照加 1
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return KEY 不存在或值为 null 时返回 null
+     */
+    public String get(String key) {
+        return values.get(key);
+    }
+
+    public boolean contains(String key) {
+        return values.containsKey(key);
+    }
+
+    public Set<String> keySet() {
+        return values.keySet();
+    }
+
+    public Map<String, String> asMap() {
+        return values;
+    }
+
+    /**
+     * KEY 以 prefix 开头的配置
+     * <p>
+     * 在有序KEY上二分查找，复杂度 O(log n + k)。有序KEY在快照第一次按前缀查询时生成，快照被替换前一直复用。
+     * </p>
+     * @return 按KEY排序，不可修改
+     */
+    public Map<String, String> subset(String prefix) {
+        String[] keys = sortedKeys();
+        int from = Arrays.binarySearch(keys, prefix);
+        if (from < 0) {
+            from = -from - 1;
+        }
+        Map<String, String> subset = Maps.newLinkedHashMap();
+        for (int i = from; i < keys.length && keys[i].startsWith(prefix); i++) {
+            subset.put(keys[i], values.get(keys[i]));
+        }
+        return Collections.unmodifiableMap(subset);
+    }
+
+    private String[] sortedKeys() {
+        String[] keys = sortedKeys;
+        if (keys == null) {
+            //并发时可能重复生成，结果相同
+            keys = values.keySet().toArray(new String[values.size()]);
+            Arrays.sort(keys);
+            sortedKeys = keys;
+        }
+        return keys;
+    }
+
+    /**
+     * @return 内存覆盖层
+     */
+    Map<String, String> overrides() {
+        return overrides;
+    }
+
+    boolean isLoaded(String filePath) {
+        return fileValues.containsKey(filePath);
+    }
+
+    Long lastModified(String filePath) {
+        return lastModifiedTimes.get(filePath);
+    }
+
+    /**
+     * @return 已加载的文件路径
+     */
+    Set<String> loadedFiles() {
+        return fileValues.keySet();
+    }
+}
@@ -0,0 +1,208 @@
+package com.royww.op.eve.conf;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 配置文件监听
+ * <p>
+ * 基于 {@link WatchService} 监听配置文件所在目录，编辑器保存等操作产生的一连串事件在 debounce 时间内
+ * 没有新事件后合并为一次重新加载，只重新解析有变化的文件。资源为目录时监听整个目录树，新建的子目录自动加入；
+ * 事件丢失(OVERFLOW)时重新检查全部资源。
+ * </p>
+ * <p>
+ * 由 {@link PropertiesReader#watch(String, long, TimeUnit)} 创建，使用一个后台守护线程，不再需要时调用 {@link #close()}。
+ * </p>
+ */
+public final class ConfigWatcher implements Closeable {
+
+    static Logger logger = LoggerFactory.getLogger(ConfigWatcher.class);
+
+    //持续有事件时最多推迟的 debounce 倍数，防止一直不加载
+    private static final int MAX_DEBOUNCE_ROUNDS = 10;
+
+    private final PropertiesReader reader;
+    private final String resource;
+    private final long debounceNanos;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirs = Maps.newHashMap();
+    //资源为单个文件时只关心该文件，为目录时关心整个目录树
+    private final Path watchedFile;
+    private final Path watchedRoot;
+    private final Thread thread;
+    private volatile boolean closed;
+
+    ConfigWatcher(PropertiesReader reader, String resource, File resourceFile, long debounce, TimeUnit unit)
+            throws IOException {
+        this.reader = reader;
+        this.resource = resource;
+        this.debounceNanos = unit.toNanos(debounce);
+        this.watchService = FileSystems.getDefault().newWatchService();
+        Path path = resourceFile.toPath().toAbsolutePath().normalize();
+        try {
+            if (resourceFile.isDirectory()) {
+                watchedFile = null;
+                watchedRoot = path;
+                registerTree(path, null);
+            } else {
+                watchedFile = path;
+                watchedRoot = null;
+                registerDir(path.getParent());
+            }
+        } catch (IOException e) {
+            watchService.close();
+            throw e;
+        }
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watchLoop();
+            }
+        }, "eve-config-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void registerDir(Path dir) throws IOException {
+        WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        watchedDirs.put(key, dir);
+    }
+
+    /**
+     * 注册目录及其子目录
+     * @param existingFiles 不为 null 时收集目录中已存在的配置文件(新建目录时目录内的文件不会再产生事件)
+     */
+    private void registerTree(Path root, Set<String> existingFiles) throws IOException {
+        for (File file : Files.fileTreeTraverser().breadthFirstTraversal(root.toFile())) {
+            if (file.isDirectory()) {
+                registerDir(file.toPath());
+            } else if (existingFiles != null && isConfigFile(file.toPath())) {
+                existingFiles.add(file.getPath());
+            }
+        }
+    }
+
+    private boolean isConfigFile(Path path) {
+        if (watchedFile != null) {
+            return watchedFile.equals(path);
+        }
+        return path.startsWith(watchedRoot)
+                && ConfigLoader.isConfigFile(path.toString());
+    }
+
+    private void watchLoop() {
+        Set<String> changedFiles = Sets.newLinkedHashSet();
+        boolean overflow = false;
+        long firstEventNanos = 0;
+        long lastEventNanos = 0;
+        while (!closed) {
+            try {
+                WatchKey key;
+                boolean pending = overflow || !changedFiles.isEmpty();
+                if (!pending) {
+                    key = watchService.take();
+                } else {
+                    long now = System.nanoTime();
+                    long wait = Math.min(lastEventNanos + debounceNanos,
+                            firstEventNanos + debounceNanos * MAX_DEBOUNCE_ROUNDS) - now;
+                    key = wait > 0 ? watchService.poll(wait, TimeUnit.NANOSECONDS) : null;
+                }
+                if (key == null) {
+                    reload(changedFiles, overflow);
+                    changedFiles.clear();
+                    overflow = false;
+                    continue;
+                }
+                if (!overflow && changedFiles.isEmpty()) {
+                    firstEventNanos = System.nanoTime();
+                }
+                lastEventNanos = System.nanoTime();
+                overflow |= collect(key, changedFiles);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            } catch (Throwable e) {
+                logger.error("watch config error.resource={}", resource, e);
+            }
+        }
+    }
+
+    /**
+     * @return 是否有事件丢失
+     */
+    private boolean collect(WatchKey key, Set<String> changedFiles) {
+        boolean overflow = false;
+        Path dir = watchedDirs.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            if (dir == null) {
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if (watchedRoot != null && event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                    && path.toFile().isDirectory()) {
+                try {
+                    registerTree(path, changedFiles);
+                } catch (IOException e) {
+                    logger.error("watch config directory error.dir={}", path, e);
+                }
+            } else if (isConfigFile(path)) {
+                changedFiles.add(path.toString());
+            }
+        }
+        if (!key.reset()) {
+            watchedDirs.remove(key);
+        }
+        return overflow;
+    }
+
+    private void reload(Set<String> changedFiles, boolean overflow) {
+        if (overflow) {
+            logger.warn("config watch events overflow, reload all.resource={}", resource);
+            reader.reloadIfModified(resource);
+        }
+        if (!changedFiles.isEmpty()) {
+            reader.reloadFiles(changedFiles);
+        }
+    }
+
+    /**
+     * 停止监听，等待后台线程退出
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        watchService.close();
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
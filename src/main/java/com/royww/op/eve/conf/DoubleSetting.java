@@ -0,0 +1,37 @@
+package com.royww.op.eve.conf;
+
+/**
+ * double 类型的配置项
+ */
+public final class DoubleSetting extends Setting {
+
+    private final double defaultValue;
+    private final double min;
+    private final double max;
+    private volatile double value;
+
+    DoubleSetting(String key, double defaultValue, double min, double max) {
+        super(key);
+        checkRange(key, defaultValue, min, max);
+        this.defaultValue = defaultValue;
+        this.min = min;
+        this.max = max;
+        this.value = defaultValue;
+        init();
+    }
+
+    public double get() {
+        ensureFresh();
+        return value;
+    }
+
+    @Override
+    void update(String raw) {
+        double v = raw == null ? defaultValue : Double.parseDouble(raw);
+        if (Double.isNaN(v)) {
+            throw new IllegalArgumentException("Config value is NaN.key=" + getKey());
+        }
+        checkRange(getKey(), v, min, max);
+        value = v;
+    }
+}
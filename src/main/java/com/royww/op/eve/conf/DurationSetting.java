@@ -0,0 +1,82 @@
+package com.royww.op.eve.conf;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 时长类型的配置项
+ * <p>
+ * 格式为数字加单位：ns、us、ms、s、m、h、d，如 500ms、30s、5m；没有单位时使用创建时指定的单位。
+ * </p>
+ */
+public final class DurationSetting extends Setting {
+
+    private final long defaultNanos;
+    private final TimeUnit defaultUnit;
+    private volatile long nanos;
+
+    DurationSetting(String key, long defaultValue, TimeUnit defaultUnit) {
+        super(key);
+        if (defaultValue < 0) {
+            throw new IllegalArgumentException("Duration must not be negative.key=" + key);
+        }
+        this.defaultNanos = defaultUnit.toNanos(defaultValue);
+        this.defaultUnit = defaultUnit;
+        this.nanos = defaultNanos;
+        init();
+    }
+
+    public long get(TimeUnit unit) {
+        ensureFresh();
+        return unit.convert(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public long toMillis() {
+        return get(TimeUnit.MILLISECONDS);
+    }
+
+    public long toNanos() {
+        ensureFresh();
+        return nanos;
+    }
+
+    @Override
+    void update(String raw) {
+        nanos = raw == null ? defaultNanos : parse(raw, defaultUnit);
+    }
+
+    /**
+     * @return 纳秒
+     */
+    static long parse(String raw, TimeUnit defaultUnit) {
+        int i = 0;
+        while (i < raw.length() && Character.isDigit(raw.charAt(i))) {
+            i++;
+        }
+        if (i == 0) {
+            throw new IllegalArgumentException("Illegal duration.value=" + raw);
+        }
+        long amount = Long.parseLong(raw.substring(0, i));
+        String suffix = raw.substring(i).trim().toLowerCase();
+        TimeUnit unit;
+        if (suffix.isEmpty()) {
+            unit = defaultUnit;
+        } else if ("ns".equals(suffix)) {
+            unit = TimeUnit.NANOSECONDS;
+        } else if ("us".equals(suffix)) {
+            unit = TimeUnit.MICROSECONDS;
+        } else if ("ms".equals(suffix)) {
+            unit = TimeUnit.MILLISECONDS;
+        } else if ("s".equals(suffix)) {
+            unit = TimeUnit.SECONDS;
+        } else if ("m".equals(suffix)) {
+            unit = TimeUnit.MINUTES;
+        } else if ("h".equals(suffix)) {
+            unit = TimeUnit.HOURS;
+        } else if ("d".equals(suffix)) {
+            unit = TimeUnit.DAYS;
+        } else {
+            throw new IllegalArgumentException("Illegal duration unit.value=" + raw);
+        }
+        return unit.toNanos(amount);
+    }
+}
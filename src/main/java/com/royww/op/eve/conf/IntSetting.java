@@ -0,0 +1,34 @@
+package com.royww.op.eve.conf;
+
+/**
+ * int 类型的配置项
+ */
+public final class IntSetting extends Setting {
+
+    private final int defaultValue;
+    private final int min;
+    private final int max;
+    private volatile int value;
+
+    IntSetting(String key, int defaultValue, int min, int max) {
+        super(key);
+        checkRange(key, defaultValue, min, max);
+        this.defaultValue = defaultValue;
+        this.min = min;
+        this.max = max;
+        this.value = defaultValue;
+        init();
+    }
+
+    public int get() {
+        ensureFresh();
+        return value;
+    }
+
+    @Override
+    void update(String raw) {
+        int v = raw == null ? defaultValue : Integer.parseInt(raw);
+        checkRange(getKey(), v, min, max);
+        value = v;
+    }
+}
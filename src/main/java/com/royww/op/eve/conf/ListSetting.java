@@ -0,0 +1,37 @@
+package com.royww.op.eve.conf;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * 列表类型的配置项，值以逗号分隔，去掉每项首尾空白并忽略空项
+ */
+public final class ListSetting extends Setting {
+
+    private static final Splitter SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+
+    private final ImmutableList<String> defaultValue;
+    private volatile ImmutableList<String> value;
+
+    ListSetting(String key, List<String> defaultValue) {
+        super(key);
+        this.defaultValue = ImmutableList.copyOf(defaultValue);
+        this.value = this.defaultValue;
+        init();
+    }
+
+    /**
+     * @return 不可修改的列表
+     */
+    public List<String> get() {
+        ensureFresh();
+        return value;
+    }
+
+    @Override
+    void update(String raw) {
+        value = raw == null ? defaultValue : ImmutableList.copyOf(SPLITTER.split(raw));
+    }
+}
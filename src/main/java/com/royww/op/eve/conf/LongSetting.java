@@ -0,0 +1,37 @@
+package com.royww.op.eve.conf;
+
+/**
+ * long 类型的配置项
+ */
+public final class LongSetting extends Setting {
+
+    private final long defaultValue;
+    private final long min;
+    private final long max;
+    private volatile long value;
+
+    LongSetting(String key, long defaultValue, long min, long max) {
+        super(key);
+        checkRange(key, defaultValue, min, max);
+        this.defaultValue = defaultValue;
+        this.min = min;
+        this.max = max;
+        this.value = defaultValue;
+        init();
+    }
+
+    public long get() {
+        ensureFresh();
+        return value;
+    }
+
+    @Override
+    void update(String raw) {
+        long v = raw == null ? defaultValue : Long.parseLong(raw);
+        if (v < min || v > max) {
+            throw new IllegalArgumentException("Config value out of range.key=" + getKey() + " value=" + v
+                    + " min=" + min + " max=" + max);
+        }
+        value = v;
+    }
+}
@@ -1,6 +1,10 @@
 package com.royww.op.eve.conf;
 
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * PropertiesReader的单例实现
@@ -20,6 +24,33 @@ public class PropReaderSingleton {
     public static PropertiesReader load(String resource){
         return propertiesReader.loadPropertie(resource);
     }
+
+    /**
+     * @see PropertiesReader#reloadIfModified(String)
+     */
+    public static boolean reloadIfModified(String resource){
+        return propertiesReader.reloadIfModified(resource);
+    }
+
+    /**
+     * @see PropertiesReader#watch(String, long, TimeUnit)
+     */
+    public static ConfigWatcher watch(String resource, long debounce, TimeUnit unit) throws IOException {
+        return propertiesReader.watch(resource, debounce, unit);
+    }
+
+    public static void addListener(String prefix, ConfigListener listener) {
+        propertiesReader.addListener(prefix, listener);
+    }
+
+    public static void addKeyListener(String key, ConfigListener listener) {
+        propertiesReader.addKeyListener(key, listener);
+    }
+
+    public static boolean removeListener(ConfigListener listener) {
+        return propertiesReader.removeListener(listener);
+    }
+
     public static String get(String key) {
         return propertiesReader.get(key);
     }
@@ -32,9 +63,78 @@ public class PropReaderSingleton {
         return propertiesReader.getLong(key);
     }
 
+    /**
+     * @see PropertiesReader#intKey(String, int)
+     */
+    public static IntSetting intKey(String key, int defaultValue) {
+        return propertiesReader.intKey(key, defaultValue);
+    }
+
+    public static IntSetting intKey(String key, int defaultValue, int min, int max) {
+        return propertiesReader.intKey(key, defaultValue, min, max);
+    }
+
+    public static LongSetting longKey(String key, long defaultValue) {
+        return propertiesReader.longKey(key, defaultValue);
+    }
+
+    public static LongSetting longKey(String key, long defaultValue, long min, long max) {
+        return propertiesReader.longKey(key, defaultValue, min, max);
+    }
+
+    public static DoubleSetting doubleKey(String key, double defaultValue) {
+        return propertiesReader.doubleKey(key, defaultValue);
+    }
+
+    public static DoubleSetting doubleKey(String key, double defaultValue, double min, double max) {
+        return propertiesReader.doubleKey(key, defaultValue, min, max);
+    }
+
+    public static BooleanSetting booleanKey(String key, boolean defaultValue) {
+        return propertiesReader.booleanKey(key, defaultValue);
+    }
+
+    public static DurationSetting durationKey(String key, long defaultValue, TimeUnit unit) {
+        return propertiesReader.durationKey(key, defaultValue, unit);
+    }
+
+    public static ByteSizeSetting byteSizeKey(String key, long defaultBytes) {
+        return propertiesReader.byteSizeKey(key, defaultBytes);
+    }
+
+    public static ListSetting listKey(String key, List<String> defaultValue) {
+        return propertiesReader.listKey(key, defaultValue);
+    }
+
     public static boolean exist(String key) {
         return propertiesReader.exist(key);
     }
+    /**
+     * @see PropertiesReader#snapshot()
+     */
+    public static ConfigSnapshot snapshot() {
+        return propertiesReader.snapshot();
+    }
+
+    /**
+     * @see PropertiesReader#subset(String)
+     */
+    public static Map<String, String> subset(String prefix) {
+        return propertiesReader.subset(prefix);
+    }
+
+    public static void setOverride(String key, String value) {
+        propertiesReader.setOverride(key, value);
+    }
+
+    public static void removeOverride(String key) {
+        propertiesReader.removeOverride(key);
+    }
+
+    public static void refreshSystemOverrides() {
+        propertiesReader.refreshSystemOverrides();
+    }
+
     public static Set<String> getKeys() {
         return propertiesReader.getKeys();
     }
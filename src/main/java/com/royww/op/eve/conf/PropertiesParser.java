@@ -0,0 +1,128 @@
+package com.royww.op.eve.conf;
+
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+
+/**
+ * 配置文件解析
+ * <p>
+ * 对整个文件的字符数组单遍扫描：# 开头的行及空行忽略，第一个 = 之前为KEY，之后为值，首尾空白去掉；
+ * 没有 = 的行值为 null。值中的 \\uXXXX 转为对应字符，只有值中出现反斜杠时才使用缓冲区。
+ * </p>
+ */
+final class PropertiesParser {
+
+    private PropertiesParser() {
+    }
+
+    static Map<String, String> parse(char[] chars, int offset, int length) {
+        Map<String, String> kvs = Maps.newHashMap();
+        StringBuilder buf = null;
+        int end = offset + length;
+        int i = offset;
+        if (i < end && chars[i] == '\uFEFF') {
+            i++;
+        }
+        while (i < end) {
+            int lineStart = i;
+            int equalsIdx = -1;
+            boolean escaped = false;
+            for (; i < end; i++) {
+                char c = chars[i];
+                if (c == '\n' || c == '\r') {
+                    break;
+                }
+                if (c == '=' && equalsIdx < 0) {
+                    equalsIdx = i;
+                } else if (c == '\\' && equalsIdx >= 0) {
+                    escaped = true;
+                }
+            }
+            int lineEnd = i;
+            if (i < end) {
+                i += chars[i] == '\r' && i + 1 < end && chars[i + 1] == '\n' ? 2 : 1;
+            }
+            if (lineEnd == lineStart || chars[lineStart] == '#') {
+                continue;
+            }
+            if (equalsIdx < 0) {
+                String key = trimmed(chars, lineStart, lineEnd);
+                if (!key.isEmpty()) {
+                    kvs.put(key, null);
+                }
+                continue;
+            }
+            String key = trimmed(chars, lineStart, equalsIdx);
+            if (!escaped) {
+                kvs.put(key, trimmed(chars, equalsIdx + 1, lineEnd));
+                continue;
+            }
+            if (buf == null) {
+                buf = new StringBuilder();
+            }
+            buf.setLength(0);
+            decodeUnicode(chars, equalsIdx + 1, lineEnd, buf);
+            kvs.put(key, trimmed(buf));
+        }
+        return kvs;
+    }
+
+    /**
+     * 与 String.trim 相同，去掉首尾 <= ' ' 的字符
+     */
+    private static String trimmed(char[] chars, int start, int end) {
+        while (start < end && chars[start] <= ' ') {
+            start++;
+        }
+        while (end > start && chars[end - 1] <= ' ') {
+            end--;
+        }
+        return new String(chars, start, end - start);
+    }
+
+    private static String trimmed(StringBuilder buf) {
+        int start = 0;
+        int end = buf.length();
+        while (start < end && buf.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && buf.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return buf.substring(start, end);
+    }
+
+    private static void decodeUnicode(char[] chars, int start, int end, StringBuilder buf) {
+        for (int i = start; i < end; i++) {
+            char c = chars[i];
+            int code;
+            // \\uXXXX，不合法的转义原样保留
+            if (c == '\\' && i + 6 <= end && chars[i + 1] == 'u' && (code = hex4(chars, i + 2)) >= 0) {
+                buf.append((char) code);
+                i += 5;
+            } else {
+                buf.append(c);
+            }
+        }
+    }
+
+    private static int hex4(char[] chars, int start) {
+        int code = 0;
+        for (int i = start; i < start + 4; i++) {
+            char c = chars[i];
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                digit = c - 'a' + 10;
+            } else if (c >= 'A' && c <= 'F') {
+                digit = c - 'A' + 10;
+            } else {
+                return -1;
+            }
+            code = (code << 4) | digit;
+        }
+        return code;
+    }
+}
@@ -1,14 +1,8 @@
 package com.royww.op.eve.conf;
 
-import com.google.common.base.Charsets;
-import com.google.common.base.Preconditions;
-import com.google.common.base.Strings;
-import com.google.common.collect.FluentIterable;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import com.google.common.io.Files;
-import com.google.common.io.LineProcessor;
 import com.google.common.io.Resources;
 
 import org.slf4j.Logger;
@@ -16,23 +10,37 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.net.URLDecoder;
-import java.util.HashSet;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 /**
  * Properties文件读取器
  * Created by roy.ww on 2015/12/5.
  * <p>
- * 实现加载 properties & ini 文件
+ * 实现加载 properties & ini 文件，资源可以在文件系统或 jar 包中，加载顺序见 {@link ConfigLoader}
+ * </p>
+ * <p>
+ * 频繁读取的配置使用 intKey、durationKey 等得到类型化的配置项，只在配置变化时解析一次，见 {@link Setting}
+ * </p>
+ * <p>
+ * 调用 {@link #watch(String, long, TimeUnit)} 后配置文件变化时自动重新加载，
+ * 通过 addListener、addKeyListener 注册的监听器会收到KEY级别的变化，见 {@link ConfigListener}
+ * </p>
+ * <p>
+ * 环境变量和系统属性(-Dkey=value)只能覆盖配置文件中已有的KEY，不能新增KEY，
+ * 否则 JVM 自带的系统属性和全部环境变量都会混入配置。需要新增KEY时在文件中写一个默认值，
+ * 或使用 {@link #setOverride(String, String)}。
  * </p>
  */
 public class PropertiesReader {
     Logger logger = LoggerFactory.getLogger(PropertiesReader.class);
-    static Map<String, String> values = Maps.newHashMap();
-    static Set<String> loadedPaths = Sets.newHashSet();
+    //当前配置快照，所有实例共用。加载时生成新快照并整体替换，读取无锁
+    static final AtomicReference<ConfigSnapshot> snapshot = new AtomicReference<ConfigSnapshot>(ConfigSnapshot.EMPTY);
 
     final static Set<String> fileExtensions = Sets.newHashSet("properties", "ini");
 
@@ -51,83 +59,246 @@ public class PropertiesReader {
         loadProperties(Lists.newArrayList(resource));
         return this;
     }
-    private Map<String, String> loadAndParsePropertiesFile(String filePath) throws IOException {
-        /**
-         * 防止加载过的文件重复加载
-         */
-        if(loadedPaths.contains(filePath)){
-            return Maps.newHashMap();
+
+    /**
+     * 重新加载自上次加载后被修改过的配置文件
+     * <p>
+     * 文件中被删除的KEY从配置中删除，被删除的文件不会被发现，见 {@link #reloadFiles(Collection)}
+     * </p>
+     * @param resource 相对资源目录，同 {@link #loadPropertie(String)}
+     * @return 是否有文件被重新加载
+     */
+    public boolean reloadIfModified(String resource){
+        ConfigSnapshot current = snapshot.get();
+        ConfigLoader loader = new ConfigLoader();
+        try {
+            List<ConfigLoader.ConfigFile> modified = Lists.newArrayList();
+            for (ConfigLoader.ConfigFile file : loader.resolve(Lists.newArrayList(resource))) {
+                Long lastModified = current.lastModified(file.path);
+                if (lastModified == null || lastModified != file.lastModified) {
+                    modified.add(file);
+                    logger.info("reload properties file.filePath={}", file.path);
+                }
+            }
+            return publish(loader.parse(modified), modifiedTimes(modified), Collections.<String>emptySet(), false);
+        } finally {
+            loader.close();
         }
-        loadedPaths.add(filePath);
-
-        Map<String, String> props = Files.readLines(new File(filePath), Charsets.UTF_8,
-                new LineProcessor<Map<String, String>>() {
-                    final Map<String, String> kvs = Maps.newHashMap();
-
-                    public boolean processLine(String s) throws IOException {
-                        if(Strings.isNullOrEmpty(s)||s.startsWith("#")){
-                            return true;
-                        }
-                        int equalsIdx = s.indexOf("=");
-                        if (equalsIdx < 0) {
-                            kvs.put(s.trim(), null);
-                        } else {
-                            kvs.put(s.substring(0, equalsIdx).trim(), readUnicodeStr2(s.substring(equalsIdx + 1, s.length())).trim());
-                        }
-                        return true;
-                    }
+    }
 
-                    public Map<String, String> getResult() {
-                        return kvs;
-                    }
-                });
-        return props;
+    /**
+     * 重新加载指定的配置文件，不再存在的文件从配置中去掉
+     * @param filePaths 文件路径，同已加载文件的路径
+     * @return 是否发布了新快照
+     */
+    boolean reloadFiles(Collection<String> filePaths) {
+        ConfigSnapshot current = snapshot.get();
+        Set<String> removedFiles = Sets.newHashSet();
+        List<ConfigLoader.ConfigFile> files = Lists.newArrayList();
+        for (String filePath : filePaths) {
+            File file = new File(filePath);
+            if (!file.isFile()) {
+                if (current.isLoaded(filePath)) {
+                    removedFiles.add(filePath);
+                    logger.info("properties file removed.filePath={}", filePath);
+                }
+                continue;
+            }
+            files.add(ConfigLoader.ConfigFile.of(file));
+            logger.info("reload properties file.filePath={}", filePath);
+        }
+        ConfigLoader loader = new ConfigLoader();
+        try {
+            return publish(loader.parse(files), modifiedTimes(files), removedFiles, false);
+        } finally {
+            loader.close();
+        }
+    }
+
+    /**
+     * 发布文件以外的配置来源(如 {@link ZkConfigSource})的全部配置，与一个配置文件相同参与叠加，
+     * 优先级由第一次发布的先后决定
+     * @param sourceId 来源标识，不能与文件路径相同
+     * @param kvs 来源当前的全部配置，之后不能再修改
+     */
+    boolean publishSource(String sourceId, Map<String, String> kvs) {
+        Map<String, Map<String, String>> fileValues = Maps.newLinkedHashMap();
+        fileValues.put(sourceId, kvs);
+        Map<String, Long> modifiedTimes = Maps.newHashMap();
+        modifiedTimes.put(sourceId, System.currentTimeMillis());
+        return publish(fileValues, modifiedTimes, Collections.<String>emptySet(), false);
+    }
+
+    /**
+     * 监听资源下的配置文件，文件变化后自动重新加载
+     * <p>
+     * 资源下尚未加载的文件先加载一次。短时间内的多次修改合并为一次重新加载，只重新解析有变化的文件。
+     * </p>
+     * @param resource 相对资源目录，同 {@link #loadPropertie(String)}，只支持文件系统中的资源
+     * @param debounce 最后一次文件事件后等待的时间
+     * @return 不再需要时关闭
+     * @throws IOException 无法监听资源所在目录
+     */
+    public ConfigWatcher watch(String resource, long debounce, TimeUnit unit) throws IOException {
+        loadProperties(Lists.newArrayList(resource));
+        return new ConfigWatcher(this, resource, resolveResource(resource), debounce, unit);
+    }
+
+    /**
+     * 在内存覆盖层设置配置，优先级高于文件、环境变量和系统属性，见 {@link ConfigSnapshot}。
+     * 与环境变量和系统属性不同，可以新增文件中没有的KEY
+     */
+    public void setOverride(String key, String value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("override key and value must not be null");
+        }
+        updateOverrides(key, value);
+    }
+
+    /**
+     * 删除内存覆盖层中的配置，恢复为下层的值
+     */
+    public void removeOverride(String key) {
+        updateOverrides(key, null);
+    }
+
+    /**
+     * 修改系统属性后调用，重新读取环境变量和系统属性并发布新快照。
+     * 只有文件中已有的KEY会被覆盖，新设置的其他系统属性不会出现在配置中
+     */
+    public void refreshSystemOverrides() {
+        while (true) {
+            ConfigSnapshot current = snapshot.get();
+            if (snapshot.compareAndSet(current, current.refresh())) {
+                ConfigNotifier.snapshotPublished();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param value 为 null 时删除
+     */
+    private void updateOverrides(String key, String value) {
+        while (true) {
+            ConfigSnapshot current = snapshot.get();
+            Map<String, String> overrides = Maps.newHashMap(current.overrides());
+            if (value == null ? overrides.remove(key) == null : value.equals(overrides.put(key, value))) {
+                return;
+            }
+            if (snapshot.compareAndSet(current, current.withOverrides(overrides))) {
+                ConfigNotifier.snapshotPublished();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 监听KEY以 prefix 开头的配置变化，prefix 为空字符串时监听全部配置
+     */
+    public void addListener(String prefix, ConfigListener listener) {
+        ConfigNotifier.register(prefix, false, listener);
+    }
+
+    /**
+     * 监听单个KEY的变化
+     */
+    public void addKeyListener(String key, ConfigListener listener) {
+        ConfigNotifier.register(key, true, listener);
+    }
+
+    /**
+     * @return 是否有该监听器的注册被删除
+     */
+    public boolean removeListener(ConfigListener listener) {
+        return ConfigNotifier.unregister(listener);
     }
 
     private void loadProperties(final List<String> paths) {
-        Set<String> propFiles = Sets.newHashSet();
-        for (String u : paths) {
-            File f;
-            try {
-                //fix by shuzhe.ssz change "%20" to " ",waiting for another good solution.，
-                f = new File(URLDecoder.decode(Resources.getResource(u).getPath(),Charsets.UTF_8.name()));
-                if (f.isDirectory()) {
-                    FluentIterable<File> iterable = Files.fileTreeTraverser().breadthFirstTraversal(f);
-                    for (File childrenFile : iterable) {
-                        if (!childrenFile.isDirectory() &&
-                                fileExtensions.contains(Files.getFileExtension(childrenFile.getPath()))) {
-                            propFiles.add(childrenFile.getPath());
-                        }
-                    }
-                } else if (fileExtensions.contains(Files.getFileExtension(f.getPath()))) {
-                    propFiles.add(f.getPath());
+        ConfigSnapshot current = snapshot.get();
+        ConfigLoader loader = new ConfigLoader();
+        try {
+            List<ConfigLoader.ConfigFile> files = Lists.newArrayList();
+            for (ConfigLoader.ConfigFile file : loader.resolve(paths)) {
+                /**
+                 * 防止加载过的文件重复加载
+                 */
+                if (!current.isLoaded(file.path)) {
+                    files.add(file);
                 }
-            } catch (UnsupportedEncodingException e) {
-                logger.error("load properties file error.Encoding=utf-8", e);
             }
+            publish(loader.parse(files), modifiedTimes(files), Collections.<String>emptySet(), true);
+        } finally {
+            loader.close();
+        }
+    }
+
+    private static Map<String, Long> modifiedTimes(List<ConfigLoader.ConfigFile> files) {
+        Map<String, Long> modifiedTimes = Maps.newHashMapWithExpectedSize(files.size());
+        for (ConfigLoader.ConfigFile file : files) {
+            modifiedTimes.put(file.path, file.lastModified);
         }
-        for (String filePath : propFiles) {
-            try {
-                values.putAll(loadAndParsePropertiesFile(filePath));
-            } catch (IOException e) {
-                logger.error("load properties file error.filePath={}", filePath, e);
+        return modifiedTimes;
+    }
+
+    /**
+     * 把新解析的文件合并到当前快照并发布，与其他线程的加载冲突时基于最新快照重试
+     * @param removedFiles 已删除的文件
+     * @param skipLoaded 是否跳过在此期间已被其他线程加载的文件
+     * @return 是否发布了新快照
+     */
+    private boolean publish(Map<String, Map<String, String>> fileValues, Map<String, Long> modifiedTimes,
+                            Set<String> removedFiles, boolean skipLoaded) {
+        while (true) {
+            ConfigSnapshot current = snapshot.get();
+            Map<String, Map<String, String>> toMerge = fileValues;
+            if (skipLoaded) {
+                toMerge = Maps.newLinkedHashMap();
+                for (Map.Entry<String, Map<String, String>> entry : fileValues.entrySet()) {
+                    if (!current.isLoaded(entry.getKey())) {
+                        toMerge.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            if (toMerge.isEmpty() && removedFiles.isEmpty()) {
+                return false;
+            }
+            if (snapshot.compareAndSet(current, current.merge(toMerge, modifiedTimes, removedFiles))) {
+                ConfigNotifier.snapshotPublished();
+                return true;
             }
         }
     }
 
+    private File resolveResource(String resource) throws IOException {
+        URL url = Resources.getResource(resource);
+        if (!"file".equals(url.getProtocol())) {
+            throw new IOException("not a file resource:" + url);
+        }
+        return ConfigLoader.toFile(url);
+    }
+
+    /**
+     * @return 当前配置快照，多次读取需要一致时使用
+     */
+    public ConfigSnapshot snapshot() {
+        return snapshot.get();
+    }
+
     /**
      * 得到所有的KEY
      * @return
      */
     public Set<String> getKeys(){
-        Set<String> keys = values.keySet();
-        return keys==null?new HashSet<String>():keys;
+        return snapshot.get().keySet();
     }
 
     public String get(String key) {
-        String v = values.get(key);
-        Preconditions.checkNotNull(v, "K-V not exist.key=" + key);
-        return values.get(key);
+        String v = snapshot.get().get(key);
+        if (v == null) {
+            throw new NullPointerException("K-V not exist.key=" + key);
+        }
+        return v;
     }
 
     public int getInt(String key) {
@@ -138,56 +309,72 @@ public class PropertiesReader {
         return Long.parseLong(get(key));
     }
 
-    public boolean exist(String key){
-        return values.containsKey(key);
+    /**
+     * 得到 int 类型的配置项，配置重新加载后自动更新
+     * @param defaultValue KEY 不存在时的值
+     */
+    public IntSetting intKey(String key, int defaultValue) {
+        return new IntSetting(key, defaultValue, Integer.MIN_VALUE, Integer.MAX_VALUE);
     }
 
-    public Map<String,String> getAllConf(){
-        return values;
-    }
-
-    private String readUnicodeStr2(String unicodeStr) {
-        StringBuilder buf = new StringBuilder();
-
-        for (int i = 0; i < unicodeStr.length(); i++) {
-            char char1 = unicodeStr.charAt(i);
-            if (char1 == '\\' && isUnicode(unicodeStr, i)) {
-                String cStr = unicodeStr.substring(i + 2, i + 6);
-                int cInt = Integer.parseInt(cStr,16);
-                buf.append((char) cInt);
-                // 跨过当前unicode码，因为还有i++，所以这里i加5，而不是6
-                i = i + 5;
-            } else {
-                buf.append(char1);
-            }
-        }
-        return buf.toString();
+    /**
+     * @param min 最小值(包含)，超出范围的配置值视为不合法
+     * @param max 最大值(包含)
+     */
+    public IntSetting intKey(String key, int defaultValue, int min, int max) {
+        return new IntSetting(key, defaultValue, min, max);
     }
 
-    // 判断以index从i开始的串，是不是unicode码
-    private boolean isUnicode(String unicodeStr, int i) {
+    public LongSetting longKey(String key, long defaultValue) {
+        return new LongSetting(key, defaultValue, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
 
-        int len = unicodeStr.length();
-        int remain = len - i;
-        // unicode码，反斜杠后还有5个字符 uxxxx
-        if (remain < 5)
-            return false;
+    public LongSetting longKey(String key, long defaultValue, long min, long max) {
+        return new LongSetting(key, defaultValue, min, max);
+    }
 
-        char flag2 = unicodeStr.charAt(i + 1);
-        if (flag2 != 'u')
-            return false;
-        String nextFour = unicodeStr.substring(i + 2, i + 6);
-        return isHexStr(nextFour);
+    public DoubleSetting doubleKey(String key, double defaultValue) {
+        return new DoubleSetting(key, defaultValue, -Double.MAX_VALUE, Double.MAX_VALUE);
     }
 
-    /** hex str 0-9 a-f A-F */
-    private boolean isHexStr(String str) {
-        for (int i = 0; i < str.length(); i++) {
-            char ch = str.charAt(i);
-            boolean isHex = (ch >= '0'&&ch<='9')||(ch>='a'&&ch<='f')||(ch >= 'A'&&ch <= 'F');
-            if (!isHex)
-                return false;
-        }
-        return true;
+    public DoubleSetting doubleKey(String key, double defaultValue, double min, double max) {
+        return new DoubleSetting(key, defaultValue, min, max);
+    }
+
+    public BooleanSetting booleanKey(String key, boolean defaultValue) {
+        return new BooleanSetting(key, defaultValue);
+    }
+
+    /**
+     * @param unit 默认值及配置值没有单位时的单位
+     */
+    public DurationSetting durationKey(String key, long defaultValue, TimeUnit unit) {
+        return new DurationSetting(key, defaultValue, unit);
+    }
+
+    public ByteSizeSetting byteSizeKey(String key, long defaultBytes) {
+        return new ByteSizeSetting(key, defaultBytes);
+    }
+
+    public ListSetting listKey(String key, List<String> defaultValue) {
+        return new ListSetting(key, defaultValue);
+    }
+
+    /**
+     * @see ConfigSnapshot#subset(String)
+     */
+    public Map<String, String> subset(String prefix) {
+        return snapshot.get().subset(prefix);
+    }
+
+    public boolean exist(String key){
+        return snapshot.get().contains(key);
+    }
+
+    /**
+     * @return 当前快照的全部配置，不可修改
+     */
+    public Map<String,String> getAllConf(){
+        return snapshot.get().asMap();
     }
 }
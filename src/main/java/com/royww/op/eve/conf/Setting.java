@@ -0,0 +1,72 @@
+package com.royww.op.eve.conf;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 类型化的配置项
+ * <p>
+ * 配置值在每个 {@link ConfigSnapshot} 上只解析一次，读取时只比较一次快照引用再读取字段，没有解析和分配。
+ * 配置重新加载后第一次读取时重新解析。KEY 不存在或值为 null 时使用默认值；
+ * 值不合法时记录错误日志并保留上一次的合法值(首次解析不合法时使用默认值)。
+ * </p>
+ */
+public abstract class Setting {
+
+    static Logger logger = LoggerFactory.getLogger(Setting.class);
+
+    private final String key;
+    private volatile ConfigSnapshot parsedFrom;
+
+    Setting(String key) {
+        this.key = key;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * 当前快照与上次解析的快照不同时重新解析
+     */
+    final void ensureFresh() {
+        ConfigSnapshot current = PropertiesReader.snapshot.get();
+        if (current != parsedFrom) {
+            refresh(current);
+        }
+    }
+
+    private synchronized void refresh(ConfigSnapshot current) {
+        if (current == parsedFrom) {
+            return;
+        }
+        String raw = current.get(key);
+        try {
+            update(raw == null ? null : raw.trim());
+        } catch (IllegalArgumentException e) {
+            logger.error("Illegal config value, keep previous value.key={} value={}", key, raw, e);
+        }
+        parsedFrom = current;
+    }
+
+    /**
+     * 解析配置值
+     * @param raw 去掉首尾空白的配置值，KEY 不存在或值为 null 时为 null
+     * @throws IllegalArgumentException 值不合法
+     */
+    abstract void update(String raw);
+
+    /**
+     * 首次解析，值不合法时使用默认值
+     */
+    final void init() {
+        ensureFresh();
+    }
+
+    static void checkRange(String key, double value, double min, double max) {
+        if (value < min || value > max) {
+            throw new IllegalArgumentException("Config value out of range.key=" + key + " value=" + value
+                    + " min=" + min + " max=" + max);
+        }
+    }
+}
@@ -0,0 +1,520 @@
+package com.royww.op.eve.conf;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.royww.op.eve.distrubuted.SharedZooKeeper;
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * ZooKeeper 配置来源
+ * <p>
+ * 把 rootPath 下的节点树加载到 {@link PropertiesReader} 的配置中：节点相对 rootPath 的路径把 / 换成 . 作为KEY，
+ * 节点数据(UTF-8)作为值。叶子节点和有数据的中间节点是配置项，如 /conf/app/a/b 数据为 1 得到 a.b=1。
+ * 与一个配置文件相同参与叠加，优先级由 {@link #start()} 与文件加载的先后决定。
+ * </p>
+ * <p>
+ * 连接建立后用异步接口流水线读取整棵树，请求不逐个等待响应(3.4 的 multi 不支持读)，
+ * 之后通过节点和子节点监听增量更新。每次连接恢复或会话过期重建后重新同步一次，
+ * 同步中有请求失败(如某个节点无权限)时退避后重试。会话通过 {@link SharedZooKeeper} 与同一地址的其他使用者共享。
+ * 变化合并后在后台线程发布，同时写入本地快照文件；启动时先发布本地快照，ZK 不可用时也能使用上次的配置。
+ * </p>
+ */
+public class ZkConfigSource implements Closeable {
+
+    static Logger logger = LoggerFactory.getLogger(ZkConfigSource.class);
+
+    private static final int DEFAULT_SESSION_TIMEOUT = 30000;
+    private static final int LOCAL_SNAPSHOT_MAGIC = 0x45564543;
+    private static final long MIN_SYNC_RETRY_MILLIS = 1000;
+    private static final long MAX_SYNC_RETRY_MILLIS = 60000;
+
+    private final PropertiesReader reader = new PropertiesReader();
+    private final String zkAddress;
+    private final String rootPath;
+    private final File localSnapshot;
+    private final int sessionTimeout;
+    private final String sourceId;
+
+    //节点路径 -> 节点，以下字段只在持有 this 锁时访问
+    private final Map<String, Node> nodes = Maps.newHashMap();
+    private Sync currentSync;
+    private long syncRetryMillis = MIN_SYNC_RETRY_MILLIS;
+    private SharedZooKeeper session;
+    private boolean closed;
+
+    private final CountDownLatch synced = new CountDownLatch(1);
+    private final AtomicBoolean publishPending = new AtomicBoolean();
+    //发布和同步重试共用的后台线程
+    private final ScheduledThreadPoolExecutor publisher;
+    //只在发布线程中访问，start 中初始化
+    private Map<String, String> lastPublished;
+
+    private final Watcher connectionWatcher = new Watcher() {
+        @Override
+        public void process(WatchedEvent event) {
+            onConnectionEvent(event);
+        }
+    };
+
+    private final Watcher nodeWatcher = new Watcher() {
+        @Override
+        public void process(WatchedEvent event) {
+            onNodeEvent(event);
+        }
+    };
+
+    private final AsyncCallback.DataCallback dataCallback = new AsyncCallback.DataCallback() {
+        @Override
+        public void processResult(int rc, String path, Object ctx, byte[] data, Stat stat) {
+            onData(KeeperException.Code.get(rc), path, (Sync) ctx, data);
+        }
+    };
+
+    private final AsyncCallback.ChildrenCallback childrenCallback = new AsyncCallback.ChildrenCallback() {
+        @Override
+        public void processResult(int rc, String path, Object ctx, List<String> children) {
+            onChildren(KeeperException.Code.get(rc), path, (Sync) ctx, children);
+        }
+    };
+
+    private final AsyncCallback.StatCallback rootExistsCallback = new AsyncCallback.StatCallback() {
+        @Override
+        public void processResult(int rc, String path, Object ctx, Stat stat) {
+            if (KeeperException.Code.get(rc) == KeeperException.Code.OK) {
+                synchronized (ZkConfigSource.this) {
+                    if (!closed) {
+                        fetchNode(rootPath, null);
+                    }
+                }
+            }
+        }
+    };
+
+    private final Runnable publishTask = new Runnable() {
+        @Override
+        public void run() {
+            publishPending.set(false);
+            Map<String, String> kvs;
+            synchronized (ZkConfigSource.this) {
+                kvs = toKeyValues();
+            }
+            if (kvs.equals(lastPublished)) {
+                return;
+            }
+            lastPublished = kvs;
+            reader.publishSource(sourceId, kvs);
+            logger.info("zk config published.root={} keys={}", rootPath, kvs.size());
+            writeLocalSnapshot(kvs);
+        }
+    };
+
+    /**
+     * @param localSnapshot 本地快照文件，为 null 时不使用本地快照
+     */
+    public ZkConfigSource(String zkAddress, String rootPath, File localSnapshot) {
+        this(zkAddress, rootPath, localSnapshot, DEFAULT_SESSION_TIMEOUT);
+    }
+
+    public ZkConfigSource(String zkAddress, String rootPath, File localSnapshot, int sessionTimeout) {
+        if (!rootPath.startsWith("/")) {
+            throw new IllegalArgumentException("rootPath must start with /.rootPath=" + rootPath);
+        }
+        this.zkAddress = zkAddress;
+        this.rootPath = rootPath.length() > 1 && rootPath.endsWith("/")
+                ? rootPath.substring(0, rootPath.length() - 1) : rootPath;
+        this.localSnapshot = localSnapshot;
+        this.sessionTimeout = sessionTimeout;
+        this.sourceId = "zookeeper://" + zkAddress + this.rootPath;
+        this.publisher = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+                .setNameFormat("eve-zk-config").setDaemon(true).build());
+        this.publisher.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * 发布本地快照(如果有)，然后异步连接 ZK，不等待连接建立
+     * @throws IOException ZK 地址不合法
+     */
+    public ZkConfigSource start() throws IOException {
+        Map<String, String> local = readLocalSnapshot();
+        if (local != null) {
+            lastPublished = local;
+            reader.publishSource(sourceId, local);
+            logger.info("zk config local snapshot published.root={} keys={}", rootPath, local.size());
+        }
+        synchronized (this) {
+            session = SharedZooKeeper.acquire(zkAddress, sessionTimeout);
+            session.addStateListener(connectionWatcher);
+            //共享的会话可能已经连接，不会再收到 SyncConnected
+            if (session.get().getState().isConnected()) {
+                startSync();
+            }
+        }
+        return this;
+    }
+
+    /**
+     * 等待第一次从 ZK 同步完成
+     * @return 超时返回 false，此时使用的是本地快照中的配置
+     */
+    public boolean awaitSynced(long timeout, TimeUnit unit) throws InterruptedException {
+        return synced.await(timeout, unit);
+    }
+
+    /**
+     * 断开 ZK，已发布的配置保留
+     */
+    @Override
+    public void close() {
+        SharedZooKeeper current;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            current = session;
+            session = null;
+        }
+        if (current != null) {
+            current.removeStateListener(connectionWatcher);
+            current.release();
+        }
+        publisher.shutdown();
+    }
+
+    private void onConnectionEvent(WatchedEvent event) {
+        if (event.getType() != Watcher.Event.EventType.None) {
+            return;
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            switch (event.getState()) {
+                case SyncConnected:
+                    //断线期间失败的请求在这里补上
+                    logger.info("zk config connected, sync.root={}", rootPath);
+                    startSync();
+                    break;
+                case Disconnected:
+                    logger.warn("zk config disconnected.root={}", rootPath);
+                    break;
+                case Expired:
+                    //新会话连接后重新同步并设置监听
+                    logger.warn("zk config session expired.root={}", rootPath);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private void onNodeEvent(WatchedEvent event) {
+        String path = event.getPath();
+        synchronized (this) {
+            if (closed || path == null) {
+                return;
+            }
+            switch (event.getType()) {
+                case NodeDataChanged:
+                    session.get().getData(path, nodeWatcher, dataCallback, null);
+                    break;
+                case NodeChildrenChanged:
+                    session.get().getChildren(path, nodeWatcher, childrenCallback, null);
+                    break;
+                case NodeCreated:
+                    if (path.equals(rootPath)) {
+                        fetchNode(rootPath, null);
+                    }
+                    break;
+                case NodeDeleted:
+                    removeSubtree(path);
+                    if (path.equals(rootPath)) {
+                        session.get().exists(rootPath, nodeWatcher, rootExistsCallback, null);
+                    }
+                    schedulePublish();
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private void startSync() {
+        currentSync = new Sync();
+        fetchNode(rootPath, currentSync);
+    }
+
+    /**
+     * 同步失败后退避重试，期间连接恢复已经开始新的同步时不再重试
+     */
+    private void scheduleResync(final Sync failed) {
+        long delay = syncRetryMillis;
+        syncRetryMillis = Math.min(syncRetryMillis * 2, MAX_SYNC_RETRY_MILLIS);
+        logger.warn("zk config sync failed, retry later.root={} delayMillis={}", rootPath, delay);
+        publisher.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ZkConfigSource.this) {
+                    if (!closed && currentSync == failed) {
+                        startSync();
+                    }
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 异步读取节点数据和子节点，并设置监听
+     * @param sync 全量同步时不为 null
+     */
+    private void fetchNode(String path, Sync sync) {
+        if (sync != null) {
+            sync.pending += 2;
+        }
+        session.get().getData(path, nodeWatcher, dataCallback, sync);
+        session.get().getChildren(path, nodeWatcher, childrenCallback, sync);
+    }
+
+    private synchronized void onData(KeeperException.Code code, String path, Sync sync, byte[] data) {
+        if (closed) {
+            return;
+        }
+        if (code == KeeperException.Code.OK) {
+            node(path).setData(data);
+            if (sync != null) {
+                sync.seen.add(path);
+            }
+        } else if (code == KeeperException.Code.NONODE) {
+            removeSubtree(path);
+            if (path.equals(rootPath)) {
+                logger.warn("zk config root not exist, wait for creation.root={}", rootPath);
+                session.get().exists(rootPath, nodeWatcher, rootExistsCallback, null);
+            }
+        } else {
+            logger.warn("zk config get data error.path={} code={}", path, code);
+            if (sync != null) {
+                sync.failed = true;
+            }
+        }
+        stepDone(sync);
+    }
+
+    private synchronized void onChildren(KeeperException.Code code, String path, Sync sync, List<String> children) {
+        if (closed) {
+            return;
+        }
+        if (code == KeeperException.Code.OK) {
+            Node node = node(path);
+            Set<String> childPaths = Sets.newHashSet();
+            for (String child : children) {
+                String childPath = childPath(path, child);
+                childPaths.add(childPath);
+                //全量同步时重新读取所有子节点，增量时只读取新增的
+                if (sync != null || !nodes.containsKey(childPath)) {
+                    fetchNode(childPath, sync);
+                }
+            }
+            for (String removed : Sets.difference(node.children, childPaths)) {
+                removeSubtree(removed);
+            }
+            node.children = childPaths;
+        } else if (code != KeeperException.Code.NONODE) {
+            logger.warn("zk config get children error.path={} code={}", path, code);
+            if (sync != null) {
+                sync.failed = true;
+            }
+        }
+        stepDone(sync);
+    }
+
+    private void stepDone(Sync sync) {
+        if (sync == null) {
+            schedulePublish();
+            return;
+        }
+        if (sync != currentSync || --sync.pending > 0) {
+            return;
+        }
+        if (sync.failed) {
+            scheduleResync(sync);
+            return;
+        }
+        syncRetryMillis = MIN_SYNC_RETRY_MILLIS;
+        Iterator<String> paths = nodes.keySet().iterator();
+        while (paths.hasNext()) {
+            if (!sync.seen.contains(paths.next())) {
+                paths.remove();
+            }
+        }
+        logger.info("zk config synced.root={} nodes={}", rootPath, nodes.size());
+        schedulePublish();
+        synced.countDown();
+    }
+
+    private Node node(String path) {
+        Node node = nodes.get(path);
+        if (node == null) {
+            node = new Node();
+            nodes.put(path, node);
+        }
+        return node;
+    }
+
+    private void removeSubtree(String path) {
+        String prefix = path.equals("/") ? "/" : path + "/";
+        Iterator<String> paths = nodes.keySet().iterator();
+        while (paths.hasNext()) {
+            String p = paths.next();
+            if (p.equals(path) || p.startsWith(prefix)) {
+                paths.remove();
+            }
+        }
+    }
+
+    private static String childPath(String parent, String child) {
+        return parent.equals("/") ? "/" + child : parent + "/" + child;
+    }
+
+    private void schedulePublish() {
+        if (publishPending.compareAndSet(false, true)) {
+            publisher.execute(publishTask);
+        }
+    }
+
+    private Map<String, String> toKeyValues() {
+        Map<String, String> kvs = Maps.newHashMapWithExpectedSize(nodes.size());
+        int prefixLength = rootPath.equals("/") ? 1 : rootPath.length() + 1;
+        for (Map.Entry<String, Node> entry : nodes.entrySet()) {
+            Node node = entry.getValue();
+            if (entry.getKey().equals(rootPath) || !node.loaded) {
+                continue;
+            }
+            if (node.children.isEmpty() || node.data.length > 0) {
+                kvs.put(entry.getKey().substring(prefixLength).replace('/', '.'), new String(node.data, Charsets.UTF_8));
+            }
+        }
+        return kvs;
+    }
+
+    private Map<String, String> readLocalSnapshot() {
+        if (localSnapshot == null || !localSnapshot.isFile()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(localSnapshot)));
+            if (in.readInt() != LOCAL_SNAPSHOT_MAGIC) {
+                throw new IOException("illegal local snapshot");
+            }
+            int size = in.readInt();
+            Map<String, String> kvs = Maps.newHashMapWithExpectedSize(size);
+            for (int i = 0; i < size; i++) {
+                kvs.put(readString(in), readString(in));
+            }
+            return Collections.unmodifiableMap(kvs);
+        } catch (IOException e) {
+            logger.error("read zk config local snapshot error.file={}", localSnapshot, e);
+            return null;
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+    }
+
+    /**
+     * 先写临时文件再原子替换，写到一半时进程退出不会破坏原快照
+     */
+    private void writeLocalSnapshot(Map<String, String> kvs) {
+        if (localSnapshot == null) {
+            return;
+        }
+        File tmp = new File(localSnapshot.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            File dir = localSnapshot.getAbsoluteFile().getParentFile();
+            if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("create directory failed.dir=" + dir);
+            }
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(LOCAL_SNAPSHOT_MAGIC);
+            out.writeInt(kvs.size());
+            for (Map.Entry<String, String> entry : kvs.entrySet()) {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue());
+            }
+            out.close();
+            out = null;
+            Files.move(tmp.toPath(), localSnapshot.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("write zk config local snapshot error.file={}", localSnapshot, e);
+        } finally {
+            try {
+                Closeables.close(out, true);
+            } catch (IOException e) {
+                //swallowed
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(Charsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    static final class Node {
+        boolean loaded;
+        byte[] data = new byte[0];
+        Set<String> children = Collections.emptySet();
+
+        void setData(byte[] data) {
+            this.loaded = true;
+            this.data = data == null ? new byte[0] : data;
+        }
+    }
+
+    /**
+     * 一次全量同步，记录未完成的请求数和读到的节点
+     */
+    static final class Sync {
+        int pending;
+        boolean failed;
+        final Set<String> seen = Sets.newHashSet();
+    }
+}
@@ -1,77 +1,461 @@
 package com.royww.op.eve.distrubuted;
 
 
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import org.apache.zookeeper.*;
 import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * 分布式锁
  * Created by roy.ww on 2015/12/5.
+ * <p>
+ * 同一 topic 的实例在ZK上注册临时顺序节点，序号最小的为 MASTER，其余实例只监听前一个节点，避免羊群效应。
+ * 成为或失去 MASTER 时在 ZK 事件线程中回调 {@link LeadershipListener}，也可以通过 {@link #leadershipFuture()}
+ * 异步等待，不需要为每个 topic 阻塞一个线程。
+ * </p>
+ * <p>
+ * 同一 ZK 地址的实例共用一个会话，见 {@link SharedZooKeeper}。注册和选举使用 ZK 异步接口，
+ * 创建父节点和注册节点的请求一次提交，不逐个等待响应。不再使用时调用 {@link #close()}。
+ * </p>
+ * <p>
+ * 与 ZK 断开连接时立即放弃 MASTER：断开期间会话可能已在服务端过期，其他实例随时可能当选。
+ * 重新连上原会话后重新选举；会话过期则在新会话上重新注册节点并选举。
+ * 当选时的节点序号作为 fencing token({@link #getFencingToken()})，后当选的 MASTER 序号更大，
+ * 任务写外部存储时带上该值，存储端拒绝比已见过的值小的写入，即可挡住失去权限后仍在执行的旧 MASTER。
+ * </p>
+ * <p>
+ * 节点名带有实例的唯一标识(_c_&lt;uuid&gt;-node-序号)，排序只看序号。创建节点时连接丢失，请求可能已在服务端执行，
+ * 重新连上后先按标识在子节点中找回自己的节点，找不到才重新创建，不会留下一个无人认领、阻塞选举的节点。
+ * </p>
  */
-public class DistributedDispatcher {
+public class DistributedDispatcher implements Closeable {
 
     Logger logger = LoggerFactory.getLogger(DistributedDispatcher.class);
 
-    private static String nodePath = "/locks/distributed_lock";
-    CountDownLatch countDownLatch = new CountDownLatch(1);
-    //当前实例在ZK上注册的节点
-    private String dispatcherNodePath = "";
+    private static final String LOCKS_PATH = "/locks";
+    private static final String NODE_PATH_PREFIX = LOCKS_PATH + "/distributed_lock";
+    //按节点名中的顺序号排序
+    private static final Comparator<String> SEQUENCE_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String o1, String o2) {
+            long s1 = sequenceOf(o1);
+            long s2 = sequenceOf(o2);
+            return s1 < s2 ? -1 : (s1 == s2 ? 0 : 1);
+        }
+    };
+    //每个 topic 一个父节点
+    private final String nodePath;
+    //当前实例节点名的前缀，带有实例的唯一标识
+    private final String nodeNamePrefix = "_c_" + UUID.randomUUID() + "-node-";
+    //当前实例在ZK上注册的节点，注册完成前及释放权限重新注册期间为 null
+    private volatile String dispatcherNodePath = null;
     private String topic = "";
 
     private ZkCli4Distributed zkCli4Distributed = null;
+    private final SettableFuture<Void> registration = SettableFuture.create();
+
+    //以下三个字段的修改在 this 锁内进行
+    private volatile boolean master = false;
+    //当前任期的 fencing token，不是 MASTER 时为 -1
+    private volatile long fencingToken = -1;
+    //当前任期的选举结果，失去 MASTER 后换成新的 future，已返回的 future 在下次当选时完成
+    private SettableFuture<Void> leadership = SettableFuture.create();
+    private final List<LeadershipListener> leadershipListeners = new CopyOnWriteArrayList<LeadershipListener>();
+    //串行化 ZK 事件线程中的选举和调用方的释放、关闭
+    private final Object electionLock = new Object();
+    private volatile boolean closed = false;
+    //会话过期，节点随之删除，新会话连上后需要重新注册，在 electionLock 内访问
+    private boolean needsRegister = false;
+
+    private final Watcher sessionListener = new Watcher() {
+        @Override
+        public void process(WatchedEvent watchedEvent) {
+            onSessionState(watchedEvent.getState());
+        }
+    };
+
+    private final List<MembershipListener> membershipListeners = new CopyOnWriteArrayList<MembershipListener>();
+    private volatile boolean membershipWatched = false;
+    //同一个 Watcher 对象在同一路径上只会注册一次
+    private final Watcher membershipWatcher = new Watcher() {
+        @Override
+        public void process(WatchedEvent watchedEvent) {
+            if (watchedEvent.getType() == Event.EventType.NodeChildrenChanged) {
+                watchMembership();
+            }
+        }
+    };
+
+    private final AsyncCallback.ChildrenCallback membershipCallback = new AsyncCallback.ChildrenCallback() {
+        @Override
+        public void processResult(int rc, String path, Object ctx, List<String> children) {
+            if (closed) {
+                return;
+            }
+            if (rc != KeeperException.Code.OK.intValue()) {
+                logger.error("Watch membership error.topic={} code={}", topic, KeeperException.Code.get(rc));
+                return;
+            }
+            notifyMembership(toState(children));
+        }
+    };
+
+    //监听前一个节点的删除
+    private final Watcher predecessorWatcher = new Watcher() {
+        @Override
+        public void process(WatchedEvent watchedEvent) {
+            if (watchedEvent.getType() == Event.EventType.NodeDeleted) {
+                masterElect();
+            }
+        }
+    };
 
+    private final AsyncCallback.StringCallback registerCallback = new AsyncCallback.StringCallback() {
+        @Override
+        public void processResult(int rc, String path, Object ctx, String name) {
+            if (rc == KeeperException.Code.CONNECTIONLOSS.intValue()) {
+                //节点可能已创建，重新连上后按标识找回，不直接重新创建
+                logger.warn("Register node connection loss, find it after reconnect.topic={}", topic);
+                synchronized (electionLock) {
+                    needsRegister = !closed;
+                }
+                return;
+            }
+            if (rc != KeeperException.Code.OK.intValue()) {
+                KeeperException e = KeeperException.create(KeeperException.Code.get(rc), path);
+                logger.error("Register node error.topic={}", topic, e);
+                synchronized (electionLock) {
+                    //重新连上后再注册
+                    needsRegister = !closed;
+                }
+                registration.setException(e);
+                return;
+            }
+            logger.info("registered a node.path={}", name);
+            synchronized (electionLock) {
+                if (closed) {
+                    return;
+                }
+                dispatcherNodePath = name;
+            }
+            masterElect();
+        }
+    };
 
+    //重新注册前查找当前实例已有的节点
+    private final AsyncCallback.ChildrenCallback findNodeCallback = new AsyncCallback.ChildrenCallback() {
+        @Override
+        public void processResult(int rc, String path, Object ctx, List<String> children) {
+            if (rc == KeeperException.Code.NONODE.intValue()) {
+                children = Collections.emptyList();
+            } else if (rc != KeeperException.Code.OK.intValue()) {
+                logger.error("Find registered node error.topic={} code={}", topic, KeeperException.Code.get(rc));
+                synchronized (electionLock) {
+                    needsRegister = !closed;
+                }
+                return;
+            }
+            synchronized (electionLock) {
+                if (closed || dispatcherNodePath != null || !adoptOrRegister(children)) {
+                    return;
+                }
+            }
+            masterElect();
+        }
+    };
+
+    private final AsyncCallback.ChildrenCallback electionCallback = new AsyncCallback.ChildrenCallback() {
+        @Override
+        public void processResult(int rc, String path, Object ctx, List<String> children) {
+            if (rc == KeeperException.Code.CONNECTIONLOSS.intValue()) {
+                //重新连上后重新选举
+                logger.warn("Master elect connection loss.topic={}", topic);
+                return;
+            }
+            if (rc != KeeperException.Code.OK.intValue()) {
+                KeeperException e = KeeperException.create(KeeperException.Code.get(rc), path);
+                logger.error("Master elect error.topic={}", topic, e);
+                registration.setException(e);
+                return;
+            }
+            onChildren((String) ctx, children);
+            registration.set(null);
+        }
+    };
+
+    private final AsyncCallback.StatCallback predecessorCallback = new AsyncCallback.StatCallback() {
+        @Override
+        public void processResult(int rc, String path, Object ctx, Stat stat) {
+            if (rc == KeeperException.Code.NONODE.intValue()) {
+                //前一个节点在读取子节点后已被删除，重新选举
+                masterElect();
+            } else if (rc == KeeperException.Code.OK.intValue()) {
+                logger.info("Not being elected master.topic={}", topic);
+            } else {
+                logger.error("Watch predecessor error.topic={} code={}", topic, KeeperException.Code.get(rc));
+            }
+        }
+    };
+
+
+    /**
+     * 等待注册完成并进行第一次选举后返回
+     */
     public DistributedDispatcher(String topic, String zkAddress)throws Exception{
+        this(topic, zkAddress, SharedZooKeeper.DEFAULT_SESSION_TIMEOUT);
+        try {
+            registration.get();
+        } catch (ExecutionException e) {
+            close();
+            Throwables.propagateIfInstanceOf(e.getCause(), Exception.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * 不等待连接和注册，注册并选举后 {@link #registration()} 完成
+     * @param sessionTimeout 会话超时(毫秒)，同一 ZK 地址共用第一个实例的会话
+     * @throws IOException ZK 地址不合法
+     */
+    public DistributedDispatcher(String topic, String zkAddress, int sessionTimeout) throws IOException {
         this.topic = topic;
-        nodePath += "_" +topic;
-        zkCli4Distributed = new ZkCli4Distributed(zkAddress);
-        dispatcherNodePath = zkCli4Distributed.registerNode(nodePath);
-        masterElect();
+        this.nodePath = NODE_PATH_PREFIX + "_" + topic;
+        zkCli4Distributed = new ZkCli4Distributed(SharedZooKeeper.acquire(zkAddress, sessionTimeout));
+        zkCli4Distributed.addStateListener(sessionListener);
+        zkCli4Distributed.registerNode(nodePath, nodeNamePrefix, registerCallback);
+    }
+
+    /**
+     * @return 当前实例的节点注册完成并完成第一次选举时完成，失败时以 KeeperException 失败
+     */
+    public ListenableFuture<Void> registration() {
+        return registration;
+    }
+
+    /**
+     * 连接状态变化，在 ZK 事件线程中执行
+     */
+    private void onSessionState(Watcher.Event.KeeperState state) {
+        boolean register = false;
+        synchronized (electionLock) {
+            if (closed) {
+                return;
+            }
+            switch (state) {
+                case Disconnected:
+                case ConnectedReadOnly:
+                    //只读模式下不能维持临时节点，同样视为失去会话
+                    if (master) {
+                        logger.warn("ZooKeeper disconnected, give up master permission.topic={}", topic);
+                    }
+                    revoked();
+                    break;
+                case Expired:
+                    logger.warn("ZooKeeper session expired, node lost.topic={} node={}", topic, dispatcherNodePath);
+                    dispatcherNodePath = null;
+                    needsRegister = true;
+                    revoked();
+                    break;
+                case SyncConnected:
+                    register = needsRegister;
+                    needsRegister = false;
+                    break;
+                default:
+                    return;
+            }
+        }
+        if (state != Watcher.Event.KeeperState.SyncConnected) {
+            //与 MASTER 一样，失去会话时分片也立即放弃，其他实例可能正在接管
+            if (membershipWatched) {
+                notifyMembership(new DistributedState(-1, 0, Collections.<String>emptyList()));
+            }
+            return;
+        }
+        if (register) {
+            zkCli4Distributed.getChildren(nodePath, findNodeCallback, null);
+        } else {
+            //原会话上的节点和监听仍在，节点是否仍最小需要重新判断
+            masterElect();
+        }
+        if (membershipWatched) {
+            //断开期间的变化可能没有通知，会话过期时旧会话上的监听也已失效
+            watchMembership();
+        }
     }
 
     /**
      * Master 选举
-     * @throws InterruptedException
-     * @throws KeeperException
      */
-    private void masterElect() throws InterruptedException,KeeperException{
+    private void masterElect() {
+        String node = dispatcherNodePath;
+        if (node != null) {
+            zkCli4Distributed.getChildren(nodePath, electionCallback, node);
+        }
+    }
 
-        List<String> children = zkCli4Distributed.getChildren(nodePath);
+    /**
+     * @param node 发起选举时当前实例的节点，之后节点已变化时忽略本次结果
+     */
+    private void onChildren(String node, List<String> children) {
+        synchronized (electionLock) {
+            if (closed || !node.equals(dispatcherNodePath)) {
+                return;
+            }
+            Collections.sort(children, SEQUENCE_ORDER);
+            int index = children.indexOf(node.substring(nodePath.length() + 1));
+            /*
+            判断当前节点是否是MASTER节点 (节点最小的为MASTER)
+             */
+            if (index == 0) {
+                elected(node);
+                return;
+            }
+            revoked();
+            if (index > 0) {
+                zkCli4Distributed.exists(nodePath + "/" + children.get(index - 1), predecessorWatcher,
+                        predecessorCallback);
+                return;
+            }
+            //节点已不存在(被外部删除或释放权限时删除后注册失败)，找回或重新注册
+            logger.warn("Node not found, register again.topic={} node={}", topic, node);
+            dispatcherNodePath = null;
+            if (!adoptOrRegister(children)) {
+                return;
+            }
+        }
+        masterElect();
+    }
 
-        /*
-        判断当前节点是否是MASTER节点 (节点最小的为MASTER)
-         */
-        if(children!=null&&children.size()>0){
-            Collections.sort(children);
-            if(dispatcherNodePath.equals(nodePath+"/"+children.get(0))){
-                countDownLatch.countDown();
-                logger.info("Being elected master.topic={}",topic);
-            }else{
-                logger.info("Not being elected master.topic={}",topic);
-                zkCli4Distributed.exists(nodePath + "/" + children.get(0), new Watcher() {
-                    @Override
-                    public void process(WatchedEvent watchedEvent) {
-                        if(watchedEvent.getType()== Event.EventType.NodeDeleted){
-                            try {
-                                masterElect();
-                            }catch (Exception e){
-                                logger.error("Master elect error.",e);
-                            }
-                        }
-                    }
-                });
-                //如果非Master，将计数器置成1
-                countDownLatch = new CountDownLatch(1);
+    /**
+     * 在子节点中找回带有当前实例标识的节点，有多个时保留序号最小的并删除其余的，没有则重新创建。在 electionLock 内调用
+     * @param children 按序号排序
+     * @return 是否找回了节点，找回后需要重新选举
+     */
+    private boolean adoptOrRegister(List<String> children) {
+        String own = null;
+        for (String child : children) {
+            if (!child.startsWith(nodeNamePrefix)) {
+                continue;
+            }
+            if (own == null) {
+                own = child;
+            } else {
+                zkCli4Distributed.deleteAsync(nodePath + "/" + child);
             }
         }
+        if (own == null) {
+            zkCli4Distributed.registerNode(nodePath, nodeNamePrefix, registerCallback);
+            return false;
+        }
+        dispatcherNodePath = nodePath + "/" + own;
+        logger.info("Found registered node.topic={} node={}", topic, dispatcherNodePath);
+        return true;
+    }
+
+    /**
+     * @param node 当选的节点，节点名的顺序号作为 fencing token
+     */
+    private void elected(String node) {
+        SettableFuture<Void> future;
+        long token = sequenceOf(node);
+        synchronized (this) {
+            if (master) {
+                return;
+            }
+            master = true;
+            fencingToken = token;
+            future = leadership;
+        }
+        logger.info("Being elected master.topic={} fencingToken={}",topic,token);
+        future.set(null);
+        for (LeadershipListener listener : leadershipListeners) {
+            try {
+                listener.onElected();
+            } catch (RuntimeException e) {
+                logger.error("Leadership listener error.topic={}", topic, e);
+            }
+        }
+    }
+
+    private void revoked() {
+        synchronized (this) {
+            if (!master) {
+                return;
+            }
+            master = false;
+            fencingToken = -1;
+            leadership = SettableFuture.create();
+        }
+        logger.info("Master permission revoked.topic={}",topic);
+        for (LeadershipListener listener : leadershipListeners) {
+            try {
+                listener.onRevoked();
+            } catch (RuntimeException e) {
+                logger.error("Leadership listener error.topic={}", topic, e);
+            }
+        }
+    }
+
+    /**
+     * 顺序节点名 _c_&lt;uuid&gt;-node-0000000123 中的序号，父节点的顺序号只增不减
+     */
+    private static long sequenceOf(String node) {
+        return Long.parseLong(node.substring(node.lastIndexOf('-') + 1));
+    }
+
+    /**
+     * 当前任期的 fencing token
+     * <p>
+     * 取当选节点的顺序号，同一 topic 中后当选的 MASTER 一定更大(更小的节点仍存在时轮不到它)，
+     * 断开后重新连上原会话并再次当选时不变。任务应在开始执行前读取一次并随每次写入携带，
+     * 而不是每次写入时重新读取。
+     * </p>
+     * @return 不是 MASTER 时返回 -1
+     */
+    public long getFencingToken() {
+        return fencingToken;
+    }
+
+    /**
+     * 监听 MASTER 权限的获得和失去，注册时当前实例已是 MASTER 则立即回调 onElected
+     * @param listener 回调在 ZK 事件线程中执行，不应阻塞
+     */
+    public void addLeadershipListener(LeadershipListener listener) {
+        boolean isMaster;
+        synchronized (this) {
+            leadershipListeners.add(listener);
+            isMaster = master;
+        }
+        if (isMaster) {
+            listener.onElected();
+        }
+    }
+
+    public void removeLeadershipListener(LeadershipListener listener) {
+        leadershipListeners.remove(listener);
+    }
+
+    /**
+     * @return 当前实例成为 MASTER 时完成，当前已是 MASTER 时返回已完成的 future，
+     * 关闭后以 IllegalStateException 失败
+     */
+    public synchronized ListenableFuture<Void> leadershipFuture() {
+        return leadership;
     }
 
     /**
@@ -79,9 +463,14 @@ public class DistributedDispatcher {
      * @throws InterruptedException
      * 在同一个TOPIC中，只有一个DistributedDispatcher实例会成为MASTER，如果当前实例未被选举为Master，<br/>
      * 该方法将会堵塞，直至当前实例被选举为Master
+     * @throws IllegalStateException 等待期间或之前实例已关闭
      */
     public void waitMasterPerm() throws InterruptedException{
-        countDownLatch.await();
+        try {
+            leadershipFuture().get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
     }
 
     /**
@@ -91,22 +480,55 @@ public class DistributedDispatcher {
      * @throws InterruptedException
      * 在同一个TOPIC中，只有一个DistributedDispatcher实例会成为MASTER，如果当前实例未被选举为Master，<br/>
      * 该方法将会堵塞，直至当前实例被选举为Master
+     * @throws IllegalStateException 等待期间或之前实例已关闭
      */
     public boolean waitMasterPerm(long timeout,TimeUnit timeUnit) throws InterruptedException{
-        return countDownLatch.await(timeout,timeUnit);
+        try {
+            leadershipFuture().get(timeout, timeUnit);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
     }
 
     /**
-     * 释放Master控制权限
+     * 释放Master控制权限，删除当前节点并重新注册到队尾
      */
     public void releaseMasterPerm()throws InterruptedException,KeeperException{
-        if(countDownLatch.getCount()==0){
+        String node;
+        synchronized (electionLock) {
+            if (!master || closed) {
+                return;
+            }
             logger.info("Release master permission.topic={}",topic);
-            countDownLatch =  new CountDownLatch(1);
-            zkCli4Distributed.delete(dispatcherNodePath);
-            dispatcherNodePath = zkCli4Distributed.registerNode(nodePath);
+            node = dispatcherNodePath;
+            //之后到达的旧节点选举结果被忽略
+            dispatcherNodePath = null;
+            revoked();
+        }
+        String newNode;
+        try {
+            zkCli4Distributed.delete(node);
+            newNode = zkCli4Distributed.registerNode(nodePath, nodeNamePrefix);
+        } catch (KeeperException e) {
+            //恢复原节点，重新选举时原节点已删除则重新注册
+            synchronized (electionLock) {
+                if (!closed && dispatcherNodePath == null && !needsRegister) {
+                    dispatcherNodePath = node;
+                }
+            }
             masterElect();
+            throw e;
+        }
+        synchronized (electionLock) {
+            if (closed) {
+                return;
+            }
+            dispatcherNodePath = newNode;
         }
+        masterElect();
     }
 
     /**
@@ -114,10 +536,50 @@ public class DistributedDispatcher {
      * @return DistributedState index 当前实例的排序，0表示第一个实例 total 当前实例总数
      */
     public DistributedState getState() throws InterruptedException,KeeperException{
-        List<String> children = zkCli4Distributed.getChildren(nodePath);
-        Collections.sort(children);
-        String nodeName = dispatcherNodePath.substring(nodePath.length()+1);
-        return new DistributedState(children.indexOf(nodeName),children.size());
+        return toState(zkCli4Distributed.getChildren(nodePath));
+    }
+
+    private DistributedState toState(List<String> children) {
+        Collections.sort(children, SEQUENCE_ORDER);
+        String node = dispatcherNodePath;
+        int index = node == null ? -1 : children.indexOf(node.substring(nodePath.length() + 1));
+        return new DistributedState(index, children.size(), Collections.unmodifiableList(children));
+    }
+
+    /**
+     * 监听实例的加入和退出，注册后异步以当前状态回调一次
+     * <p>
+     * 读取子节点的请求与注册节点的请求在同一会话中按提交顺序处理，回调时注册结果已知，
+     * 不会因为注册尚未完成而得到 index 为 -1 的状态。
+     * </p>
+     * @param listener 回调在 ZK 事件线程中执行，不应阻塞
+     */
+    public void addMembershipListener(MembershipListener listener) {
+        membershipListeners.add(listener);
+        membershipWatched = true;
+        //已有的监听也会再收到一次当前状态
+        watchMembership();
+    }
+
+    /**
+     * 重新注册监听并读取子节点
+     */
+    private void watchMembership() {
+        if (closed) {
+            return;
+        }
+        zkCli4Distributed.getChildren(nodePath, membershipWatcher, membershipCallback);
+    }
+
+    private void notifyMembership(DistributedState state) {
+        logger.info("Membership changed.topic={} index={} total={}",topic,state.getIndex(),state.getTotal());
+        for (MembershipListener listener : membershipListeners) {
+            try {
+                listener.membershipChanged(state);
+            } catch (RuntimeException e) {
+                logger.error("Membership listener error.topic={}", topic, e);
+            }
+        }
     }
 
     /**
@@ -125,10 +587,39 @@ public class DistributedDispatcher {
      * @return
      */
     public boolean isMaster() {
-        if(countDownLatch.getCount()>0){
-            return false;
+        return master;
+    }
+
+    /**
+     * 删除当前实例的节点并释放共享会话，失去 MASTER 权限，分片监听收到 index 为 -1 的状态。
+     * 等待 MASTER 权限的调用方以 IllegalStateException 返回
+     */
+    @Override
+    public void close() {
+        String node;
+        synchronized (electionLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            node = dispatcherNodePath;
+            dispatcherNodePath = null;
+            revoked();
+        }
+        //closed 之后不会再当选，leadership 不再被替换
+        SettableFuture<Void> future;
+        synchronized (this) {
+            future = leadership;
+        }
+        future.setException(new IllegalStateException("DistributedDispatcher closed.topic=" + topic));
+        zkCli4Distributed.removeStateListener(sessionListener);
+        if (node != null) {
+            zkCli4Distributed.deleteAsync(node);
+        }
+        zkCli4Distributed.release();
+        if (membershipWatched) {
+            notifyMembership(new DistributedState(-1, 0, Collections.<String>emptyList()));
         }
-        return true;
     }
 
     /**
@@ -136,11 +627,25 @@ public class DistributedDispatcher {
      */
     public class DistributedState{
         public DistributedState(int index,int total){
+            this(index, total, Collections.<String>emptyList());
+        }
+
+        DistributedState(int index, int total, List<String> members) {
             this.index = index;
             this.total = total;
+            this.members = members;
         }
         int index;
         int total;
+        List<String> members;
+
+        /**
+         * @return 各实例的节点名，按排序，当前实例为第 index 个；失去会话时为空
+         */
+        public List<String> getMembers() {
+            return members;
+        }
+
         public int getIndex() {
             return index;
         }
@@ -150,41 +655,87 @@ public class DistributedDispatcher {
         }
     }
 
+    /**
+     * MASTER 权限变化的监听
+     */
+    public interface LeadershipListener {
+        /**
+         * 当前实例成为 MASTER
+         */
+        void onElected();
+
+        /**
+         * 当前实例失去 MASTER，包括主动释放
+         */
+        void onRevoked();
+    }
+
+    /**
+     * 实例加入或退出的监听
+     */
+    public interface MembershipListener {
+        /**
+         * @param state 变化后当前实例的分布式状态，当前实例的节点不存在或与 ZK 断开时 index 为 -1
+         */
+        void membershipChanged(DistributedState state);
+    }
+
     private class ZkCli4Distributed{
         Logger logger = LoggerFactory.getLogger(ZkCli4Distributed.class);
-        CountDownLatch connectedLatch = new CountDownLatch(1);
-        ZooKeeper zk = null;
+        private final SharedZooKeeper shared;
 
-        public ZkCli4Distributed(String zkAddress)throws IOException,InterruptedException{
+        //父节点已存在时忽略
+        private final AsyncCallback.StringCallback createParentCallback = new AsyncCallback.StringCallback() {
+            @Override
+            public void processResult(int rc, String path, Object ctx, String name) {
+                if (rc != KeeperException.Code.OK.intValue() && rc != KeeperException.Code.NODEEXISTS.intValue()) {
+                    logger.error("Create node error.path={} code={}", path, KeeperException.Code.get(rc));
+                }
+            }
+        };
 
-            zk = new ZooKeeper(zkAddress, 1000,new Watcher() {
-                @Override
-                public void process(WatchedEvent watchedEvent) {
-                    connectedLatch.countDown();
+        private final AsyncCallback.VoidCallback deleteCallback = new AsyncCallback.VoidCallback() {
+            @Override
+            public void processResult(int rc, String path, Object ctx) {
+                if (rc != KeeperException.Code.OK.intValue() && rc != KeeperException.Code.NONODE.intValue()) {
+                    logger.error("Delete node error.path={} code={}", path, KeeperException.Code.get(rc));
                 }
-            },true);
-            connectedLatch.await();
+            }
+        };
+
+        public ZkCli4Distributed(SharedZooKeeper shared){
+            this.shared = shared;
+        }
+
+        /**
+         * 异步注册一个ZK节点，父节点不存在时创建
+         * <p>
+         * 同一会话的请求按提交顺序处理，创建父节点和注册节点一起提交，不等待前一个请求的响应
+         * </p>
+         * @param nodePath base path
+         * @param namePrefix 节点名前缀，后接顺序号
+         * @param callback 注册完成的回调，name 为节点的路径
+         */
+        public void registerNode(String nodePath, String namePrefix, AsyncCallback.StringCallback callback){
+            ZooKeeper zk = shared.get();
+            zk.create(LOCKS_PATH, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT,
+                    createParentCallback, null);
+            zk.create(nodePath, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT,
+                    createParentCallback, null);
+            zk.create(nodePath + "/" + namePrefix, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.EPHEMERAL_SEQUENTIAL, callback, null);
         }
 
         /**
-         * 注册一个ZK节点
+         * 注册一个ZK节点，父节点已存在
          * @param nodePath base path
+         * @param namePrefix 节点名前缀，后接顺序号
          * @return 节点的路径
          * @throws InterruptedException
          * @throws KeeperException
          */
-        public String  registerNode(String nodePath)throws InterruptedException,KeeperException{
-            Stat lockStat = zk.exists("/locks", false);
-            if(lockStat==null){
-                zk.create("/locks", new byte[0],
-                        ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
-            }
-            Stat stat = zk.exists(nodePath, false);
-            if(stat==null){
-                zk.create(nodePath, new byte[0],
-                        ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
-            }
-            String path = zk.create(nodePath+"/node-", new byte[0],
+        public String  registerNode(String nodePath, String namePrefix)throws InterruptedException,KeeperException{
+            String path = shared.get().create(nodePath + "/" + namePrefix, new byte[0],
                     ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL);
             logger.info("registered a node.path={}",path);
             return path;
@@ -198,18 +749,42 @@ public class DistributedDispatcher {
          * @throws KeeperException
          */
         public List<String> getChildren(String nodePath)throws InterruptedException,KeeperException{
-            return zk.getChildren(nodePath, null);
+            return shared.get().getChildren(nodePath, null);
         }
 
         /**
-         * 针对某一节点注册监听
+         * 得到某一路径下的所有子节点，并监听子节点的变化
          * @param nodePath
          * @param watcher
+         * @return
          * @throws InterruptedException
          * @throws KeeperException
          */
-        public void exists(String nodePath,Watcher watcher)throws InterruptedException,KeeperException{
-            zk.exists(nodePath,watcher);
+        public List<String> getChildren(String nodePath,Watcher watcher)throws InterruptedException,KeeperException{
+            return shared.get().getChildren(nodePath, watcher);
+        }
+
+        /**
+         * 异步得到某一路径下的所有子节点
+         * @param ctx 原样传给回调
+         */
+        public void getChildren(String nodePath, AsyncCallback.ChildrenCallback callback, Object ctx){
+            shared.get().getChildren(nodePath, null, callback, ctx);
+        }
+
+        /**
+         * 异步得到某一路径下的所有子节点，并监听子节点的变化
+         */
+        public void getChildren(String nodePath, Watcher watcher, AsyncCallback.ChildrenCallback callback){
+            shared.get().getChildren(nodePath, watcher, callback, null);
+        }
+
+        /**
+         * 异步针对某一节点注册监听
+         * @param callback 节点不存在时返回 NONODE
+         */
+        public void exists(String nodePath, Watcher watcher, AsyncCallback.StatCallback callback){
+            shared.get().exists(nodePath, watcher, callback, null);
         }
 
         /**
@@ -219,7 +794,23 @@ public class DistributedDispatcher {
          * @throws KeeperException
          */
         public void delete(String nodePath)throws InterruptedException,KeeperException{
-            zk.delete(nodePath,-1);
+            shared.get().delete(nodePath,-1);
+        }
+
+        public void deleteAsync(String nodePath){
+            shared.get().delete(nodePath, -1, deleteCallback, null);
+        }
+
+        public void addStateListener(Watcher listener){
+            shared.addStateListener(listener);
+        }
+
+        public void removeStateListener(Watcher listener){
+            shared.removeStateListener(listener);
+        }
+
+        public void release(){
+            shared.release();
         }
 
     }
@@ -0,0 +1,99 @@
+package com.royww.op.eve.distrubuted;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * 按实例分片
+ * <p>
+ * 用 rendezvous(HRW) 哈希把 key 分配给一个实例：key 与每个实例的节点名分别计算得分，得分最高的实例认领该 key。
+ * 结果只取决于实例的集合，与实例的排序无关，实例退出时只有它认领的 key 会换到其他实例，
+ * 实例加入时只有新实例得分最高的 key 会换过去。每次判断为 O(实例数)。
+ * </p>
+ * <p>
+ * 实例加入或退出时自动更新。与 ZK 断开时立即不再认领任何 key，与 {@link DistributedDispatcher} 放弃 MASTER 的时机相同，
+ * 避免被网络隔离的实例与接管它的实例同时执行。变化传播期间，同一个 key 可能短暂地没有实例认领。
+ * </p>
+ */
+public class ShardAssigner implements DistributedDispatcher.MembershipListener {
+
+    Logger logger = LoggerFactory.getLogger(ShardAssigner.class);
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private volatile Members members;
+
+    public ShardAssigner(DistributedDispatcher dispatcher) {
+        dispatcher.addMembershipListener(this);
+    }
+
+    @Override
+    public void membershipChanged(DistributedDispatcher.DistributedState state) {
+        this.members = new Members(state.getMembers(), state.getIndex());
+        logger.info("Shard changed.index={} total={}", state.getIndex(), state.getTotal());
+    }
+
+    /**
+     * @param keyHash {@link #hash(String)} 的结果
+     * @return key 是否分配给当前实例，当前实例不在集群中或与 ZK 断开时返回 false
+     */
+    public boolean owns(long keyHash) {
+        Members current = members;
+        if (current == null || current.self < 0) {
+            return false;
+        }
+        long[] memberHashes = current.hashes;
+        int owner = 0;
+        long best = score(keyHash, memberHashes[0]);
+        for (int i = 1; i < memberHashes.length; i++) {
+            long score = score(keyHash, memberHashes[i]);
+            if (score > best) {
+                best = score;
+                owner = i;
+            }
+        }
+        return owner == current.self;
+    }
+
+    public boolean owns(String key) {
+        return owns(hash(key));
+    }
+
+    public static long hash(String key) {
+        return HASH_FUNCTION.hashString(key, Charsets.UTF_8).asLong();
+    }
+
+    /**
+     * key 与实例的得分，murmur3 的 fmix64
+     */
+    private static long score(long keyHash, long memberHash) {
+        long h = keyHash ^ memberHash;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * 实例节点名的哈希及当前实例的位置
+     */
+    private static final class Members {
+        final long[] hashes;
+        final int self;
+
+        Members(List<String> names, int self) {
+            this.hashes = new long[names.size()];
+            for (int i = 0; i < hashes.length; i++) {
+                hashes[i] = hash(names.get(i));
+            }
+            this.self = self < hashes.length ? self : -1;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.royww.op.eve.distrubuted;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按 ZK 地址共享的会话
+ * <p>
+ * 同一地址的所有 {@link DistributedDispatcher} 及 {@link com.royww.op.eve.conf.ZkConfigSource} 共用一个 ZooKeeper 会话和连接，
+ * 按引用计数在最后一个使用者释放时关闭。
+ * 连接异步建立，建立前提交的异步请求由客户端排队，连接后按提交顺序发送。
+ * 会话超时由第一个使用者决定。
+ * </p>
+ * <p>
+ * 会话过期后自动创建新会话，使用者通过状态监听收到 Expired 后再收到新会话的 SyncConnected，
+ * 需要在新会话上重新注册临时节点和监听。创建新会话失败(如地址暂时无法解析)时退避后重试。
+ * </p>
+ */
+public final class SharedZooKeeper {
+
+    static Logger logger = LoggerFactory.getLogger(SharedZooKeeper.class);
+
+    static final int DEFAULT_SESSION_TIMEOUT = 10000;
+    private static final long MIN_RENEW_RETRY_MILLIS = 1000;
+    private static final long MAX_RENEW_RETRY_MILLIS = 60000;
+
+    //创建新会话失败后的重试，所有地址共用
+    private static final ScheduledExecutorService renewRetry = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("eve-zk-renew").setDaemon(true).build());
+
+    //ZK 地址 -> 会话
+    private static final Map<String, SharedZooKeeper> sessions = Maps.newHashMap();
+
+    private final String address;
+    private final int sessionTimeout;
+    //持有 sessions 锁时访问
+    private int refCount;
+    //以下字段在 this 锁内修改
+    private volatile ZooKeeper zk;
+    //每个会话的 Watcher 记录自己的代数，忽略已被替换的会话的事件
+    private int generation;
+    private boolean closed;
+    private final List<Watcher> stateListeners = new CopyOnWriteArrayList<Watcher>();
+
+    private SharedZooKeeper(String address, int sessionTimeout) throws IOException {
+        this.address = address;
+        this.sessionTimeout = sessionTimeout;
+        this.zk = newSession();
+    }
+
+    private ZooKeeper newSession() throws IOException {
+        return new ZooKeeper(address, sessionTimeout, new SessionWatcher(++generation), true);
+    }
+
+    /**
+     * 得到地址对应的共享会话，不等待连接建立，用完后调用 {@link #release()}
+     * @throws IOException 地址不合法
+     */
+    public static SharedZooKeeper acquire(String address, int sessionTimeout) throws IOException {
+        synchronized (sessions) {
+            SharedZooKeeper shared = sessions.get(address);
+            if (shared == null) {
+                shared = new SharedZooKeeper(address, sessionTimeout);
+                sessions.put(address, shared);
+                logger.info("ZooKeeper session created.address={} sessionTimeout={}", address, sessionTimeout);
+            } else if (shared.sessionTimeout != sessionTimeout) {
+                logger.warn("Shared ZooKeeper session uses another timeout.address={} sessionTimeout={} requested={}",
+                        address, shared.sessionTimeout, sessionTimeout);
+            }
+            shared.refCount++;
+            return shared;
+        }
+    }
+
+    /**
+     * 最后一个使用者释放时关闭会话，会话上的临时节点随之删除
+     */
+    public void release() {
+        synchronized (sessions) {
+            if (--refCount > 0) {
+                return;
+            }
+            sessions.remove(address);
+        }
+        ZooKeeper current;
+        synchronized (this) {
+            closed = true;
+            current = zk;
+        }
+        try {
+            current.close();
+            logger.info("ZooKeeper session closed.address={}", address);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return 当前会话，会话过期重建后返回新的会话
+     */
+    public ZooKeeper get() {
+        return zk;
+    }
+
+    /**
+     * @param listener 接收连接状态事件(type 为 None)，在 ZK 事件线程中回调
+     */
+    public void addStateListener(Watcher listener) {
+        stateListeners.add(listener);
+    }
+
+    public void removeStateListener(Watcher listener) {
+        stateListeners.remove(listener);
+    }
+
+    private void onSessionEvent(int sessionGeneration, WatchedEvent event) {
+        if (event.getType() != Watcher.Event.EventType.None) {
+            return;
+        }
+        synchronized (this) {
+            if (closed || sessionGeneration != generation) {
+                return;
+            }
+        }
+        for (Watcher listener : stateListeners) {
+            try {
+                listener.process(event);
+            } catch (RuntimeException e) {
+                logger.error("ZooKeeper state listener error.address={}", address, e);
+            }
+        }
+        if (event.getState() == Watcher.Event.KeeperState.Expired) {
+            //先通知 Expired 再建立新会话，使用者不会在 Expired 之前收到新会话的事件
+            logger.warn("ZooKeeper session expired, create new session.address={}", address);
+            renewSession(MIN_RENEW_RETRY_MILLIS);
+        }
+    }
+
+    /**
+     * @param retryMillis 本次失败后的重试间隔，每次失败翻倍
+     */
+    private synchronized void renewSession(long retryMillis) {
+        if (closed) {
+            return;
+        }
+        try {
+            zk.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            zk = newSession();
+        } catch (IOException e) {
+            logger.error("ZooKeeper session create error, retry later.address={} delayMillis={}", address, retryMillis, e);
+            final long nextRetryMillis = Math.min(retryMillis * 2, MAX_RENEW_RETRY_MILLIS);
+            renewRetry.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    renewSession(nextRetryMillis);
+                }
+            }, retryMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    final class SessionWatcher implements Watcher {
+        private final int sessionGeneration;
+
+        SessionWatcher(int sessionGeneration) {
+            this.sessionGeneration = sessionGeneration;
+        }
+
+        @Override
+        public void process(WatchedEvent event) {
+            onSessionEvent(sessionGeneration, event);
+        }
+    }
+}
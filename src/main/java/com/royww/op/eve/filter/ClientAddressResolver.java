@@ -0,0 +1,91 @@
+package com.royww.op.eve.filter;
+
+import com.google.common.base.Strings;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * 客户端真实IP解析
+ * <p>
+ * 只有直连地址属于受信代理时才读取 X-Forwarded-For。从右向左逐个跳过受信代理，
+ * 返回第一个不受信的地址，防止客户端伪造最左侧的地址绕过白名单。
+ * 解析过程只做下标运算，不使用正则和字符串数组；头中只有一个地址时不产生任何分配。
+ * </p>
+ */
+public final class ClientAddressResolver {
+
+    public static final String X_FORWARDED_FOR = "X-Forwarded-For";
+
+    /**
+     * 默认受信代理：本机及内网地址
+     */
+    public static final String DEFAULT_TRUSTED_PROXIES =
+            "127.0.0.0/8,10.0.0.0/8,172.16.0.0/12,192.168.0.0/16,::1,fc00::/7";
+
+    private final IPWhiteList trustedProxies;
+    private final String headerName;
+
+    public ClientAddressResolver() {
+        this(DEFAULT_TRUSTED_PROXIES);
+    }
+
+    /**
+     * @param trustedProxies 受信代理，格式同 {@link IPWhiteList}，如 10.0.0.0/8,192.168.1.*
+     */
+    public ClientAddressResolver(String trustedProxies) {
+        this(trustedProxies, X_FORWARDED_FOR);
+    }
+
+    /**
+     * @param trustedProxies 受信代理，格式同 {@link IPWhiteList}
+     * @param headerName     代理写入客户端地址的请求头
+     */
+    public ClientAddressResolver(String trustedProxies, String headerName) {
+        this.trustedProxies = IPWhiteList.builder()
+                .addRules("trustedProxies", Strings.nullToEmpty(trustedProxies)).build();
+        this.headerName = headerName;
+    }
+
+    /**
+     * 得到客户端地址
+     */
+    public String resolve(ServletRequest servletRequest) {
+        String remoteAddr = servletRequest.getRemoteAddr();
+        if (!(servletRequest instanceof HttpServletRequest) || !trustedProxies.permits(remoteAddr)) {
+            return remoteAddr;
+        }
+        String forwarded = ((HttpServletRequest) servletRequest).getHeader(headerName);
+        if (forwarded == null) {
+            return remoteAddr;
+        }
+        int leftStart = -1;
+        int leftEnd = -1;
+        int end = forwarded.length();
+        while (end >= 0) {
+            int comma = forwarded.lastIndexOf(',', end - 1);
+            int start = comma + 1;
+            int itemEnd = end;
+            while (start < itemEnd && forwarded.charAt(start) <= ' ') {
+                start++;
+            }
+            while (itemEnd > start && forwarded.charAt(itemEnd - 1) <= ' ') {
+                itemEnd--;
+            }
+            if (start < itemEnd) {
+                if (!trustedProxies.permits(forwarded, start, itemEnd)) {
+                    return substring(forwarded, start, itemEnd);
+                }
+                leftStart = start;
+                leftEnd = itemEnd;
+            }
+            end = comma;
+        }
+        //所有地址都是受信代理，取最左侧的地址
+        return leftStart < 0 ? remoteAddr : substring(forwarded, leftStart, leftEnd);
+    }
+
+    private static String substring(String s, int start, int end) {
+        return start == 0 && end == s.length() ? s : s.substring(start, end);
+    }
+}
@@ -0,0 +1,135 @@
+package com.royww.op.eve.filter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按客户端IP限流
+ * <p>
+ * 每个IP一个令牌桶，以GCRA(虚拟调度)形式实现：每个桶只保存一个"理论到达时间"，
+ * 无需定时补充令牌。桶表按IP哈希分成若干段，每段独立加锁，容量固定，
+ * 满时淘汰段内最久未活跃的桶，因此在大量不同IP的攻击下内存也保持不变。
+ * </p>
+ */
+public final class ClientRateLimiter {
+
+    private static final int STRIPES = 64;
+    private static final int WAYS = 8;
+    private static final long IPV6_KEY_FLAG = 1L << 63;
+    //IPv4 的 key 小于 2^32，IPv6 的 key 最高位为1，二者都不会与此相同
+    private static final long INVALID_KEY = 1L << 32;
+
+    private static final ThreadLocal<long[]> IPV6_BUFFER = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[2];
+        }
+    };
+
+    /**
+     * 令牌产生间隔(纳秒)
+     */
+    private final long emissionInterval;
+    /**
+     * 允许的突发容量对应的时间(纳秒)
+     */
+    private final long burstTolerance;
+    private final long origin = System.nanoTime();
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final int setsPerStripe;
+
+    /**
+     * @param permitsPerSecond 每个IP每秒允许的请求数
+     * @param burst            每个IP允许的突发请求数
+     * @param capacity         最多跟踪的IP数
+     */
+    public ClientRateLimiter(double permitsPerSecond, int burst, int capacity) {
+        if (permitsPerSecond <= 0 || burst < 1 || capacity < 1) {
+            throw new IllegalArgumentException("Illegal rate limit.permitsPerSecond=" + permitsPerSecond
+                    + " burst=" + burst + " capacity=" + capacity);
+        }
+        this.emissionInterval = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        this.burstTolerance = emissionInterval * (burst - 1);
+        this.setsPerStripe = Math.max(1, capacity / (STRIPES * WAYS));
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(setsPerStripe * WAYS);
+        }
+    }
+
+    /**
+     * 尝试为客户端获取一个令牌
+     * @param clientIp IPv4或IPv6地址，无法解析的地址共用一个单独的桶
+     * @return 未超过限制返回true
+     */
+    public boolean tryAcquire(CharSequence clientIp) {
+        return tryAcquireKey(keyOf(clientIp));
+    }
+
+    /**
+     * @param address 无符号32位IPv4地址
+     */
+    public boolean tryAcquire(long address) {
+        return tryAcquireKey(address);
+    }
+
+    private static long keyOf(CharSequence clientIp) {
+        long address = IPAddresses.parseIPv4(clientIp);
+        if (address != IPAddresses.INVALID) {
+            return address;
+        }
+        long[] ipv6 = IPV6_BUFFER.get();
+        if (!IPAddresses.parseIPv6(clientIp, ipv6)) {
+            return INVALID_KEY;
+        }
+        if (IPAddresses.isIPv4Mapped(ipv6[0], ipv6[1])) {
+            return ipv6[1] & 0xFFFFFFFFL;
+        }
+        //IPv6按 /64 限流，同一网段的地址共用一个桶
+        return ipv6[0] | IPV6_KEY_FLAG;
+    }
+
+    private boolean tryAcquireKey(long key) {
+        long hash = mix(key);
+        Stripe stripe = stripes[(int) (hash & (STRIPES - 1))];
+        int base = (int) ((hash >>> 32) % setsPerStripe) * WAYS;
+        long now = System.nanoTime() - origin + 1;
+        synchronized (stripe) {
+            int victim = base;
+            for (int i = base; i < base + WAYS; i++) {
+                long tat = stripe.arrivalTimes[i];
+                if (tat != 0 && stripe.keys[i] == key) {
+                    //超过突发容量则拒绝
+                    if (now < tat - burstTolerance) {
+                        return false;
+                    }
+                    stripe.arrivalTimes[i] = Math.max(tat, now) + emissionInterval;
+                    return true;
+                }
+                if (tat < stripe.arrivalTimes[victim]) {
+                    victim = i;
+                }
+            }
+            stripe.keys[victim] = key;
+            stripe.arrivalTimes[victim] = now + emissionInterval;
+            return true;
+        }
+    }
+
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        return key ^ (key >>> 33);
+    }
+
+    private static final class Stripe {
+        final long[] keys;
+        //理论到达时间，0 表示空位
+        final long[] arrivalTimes;
+
+        Stripe(int size) {
+            keys = new long[size];
+            arrivalTimes = new long[size];
+        }
+    }
+}
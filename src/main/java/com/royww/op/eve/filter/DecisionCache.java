@@ -0,0 +1,89 @@
+package com.royww.op.eve.filter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 最近访问判断结果的缓存
+ * <p>
+ * 直接映射、定长、无锁。每个槽位保存 (key ^ data, data) 两个 long，读取时用异或校验，
+ * 并发写入造成的撕裂数据会被当作未命中，因此不需要加锁。只缓存IPv4(含IPv4映射)地址。
+ * 结果最多保留 ttl 时长。
+ * </p>
+ * <p>
+ * 每条结果带有计算它时所用白名单的 generation，读取时 generation 不一致视为未命中，
+ * 白名单重新加载后不需要清空缓存，也不会读到仍在使用旧白名单的线程之后写入的旧结果。
+ * </p>
+ */
+public final class DecisionCache {
+
+    public static final int MISS = -1;
+    public static final int DENY = 0;
+    public static final int ALLOW = 1;
+
+    private final AtomicLongArray slots;
+    private final int mask;
+    private final long ttlNanos;
+    private final long origin = System.nanoTime();
+
+    /**
+     * @param capacity 缓存条数，向上取整为2的幂
+     * @param ttl      判断结果的有效期
+     */
+    public DecisionCache(int capacity, long ttl, TimeUnit unit) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.slots = new AtomicLongArray(size * 2);
+        this.mask = size - 1;
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    /**
+     * @param address    无符号32位IPv4地址
+     * @param generation 当前白名单的 generation
+     * @return {@link #ALLOW}、{@link #DENY} 或 {@link #MISS}
+     */
+    public int get(long address, int generation) {
+        int idx = index(address);
+        long data = slots.get(idx + 1);
+        if ((slots.get(idx) ^ data) != key(address, generation) || data == 0) {
+            return MISS;
+        }
+        if ((data >>> 1) < now()) {
+            return MISS;
+        }
+        return (int) (data & 1);
+    }
+
+    /**
+     * @param generation 计算 allow 时所用白名单的 generation
+     */
+    public void put(long address, int generation, boolean allow) {
+        int idx = index(address);
+        long data = ((now() + ttlNanos) << 1) | (allow ? ALLOW : DENY);
+        slots.lazySet(idx, key(address, generation) ^ data);
+        slots.lazySet(idx + 1, data);
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear() {
+        for (int i = 0; i < slots.length(); i++) {
+            slots.lazySet(i, 0);
+        }
+    }
+
+    private long now() {
+        return System.nanoTime() - origin;
+    }
+
+    //地址占低32位，generation 占高32位
+    private static long key(long address, int generation) {
+        return address | ((long) generation << 32);
+    }
+
+    private int index(long address) {
+        int h = (int) address * 0x9E3779B9;
+        return ((h ^ (h >>> 16)) & mask) << 1;
+    }
+}
@@ -0,0 +1,95 @@
+package com.royww.op.eve.filter;
+
+import com.google.common.base.Charsets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * 默认的拦截处理
+ * <p>
+ * 返回 403 及预先编码好的响应体。过滤器声明了 async-supported 时，
+ * 通过 Servlet 3.1 的非阻塞 {@link WriteListener} 写出响应，请求线程立即释放，
+ * 不会被读取缓慢的客户端占住。
+ * </p>
+ */
+public class DefaultInterceptHandler implements IPFireWallFilter.AsyncInterceptHandler {
+
+    static Logger logger = LoggerFactory.getLogger(DefaultInterceptHandler.class);
+
+    private static final String CONTENT_TYPE = "text/html;charset=UTF-8";
+    private static final byte[] DENY_BODY = "Don't have authorization to access".getBytes(Charsets.UTF_8);
+    /**
+     * 异步写出的超时时间(毫秒)
+     */
+    private static final long ASYNC_WRITE_TIMEOUT = 5000;
+
+    @Override
+    public void handle(String clientIp, ServletResponse servletResponse) throws IOException {
+        prepare(servletResponse);
+        ServletOutputStream out = servletResponse.getOutputStream();
+        out.write(DENY_BODY);
+        out.flush();
+        out.close();
+    }
+
+    @Override
+    public void handle(String clientIp, ServletRequest servletRequest, ServletResponse servletResponse) throws IOException {
+        if (!servletRequest.isAsyncSupported() || servletRequest.isAsyncStarted()) {
+            handle(clientIp, servletResponse);
+            return;
+        }
+        prepare(servletResponse);
+        AsyncContext asyncContext = servletRequest.startAsync(servletRequest, servletResponse);
+        asyncContext.setTimeout(ASYNC_WRITE_TIMEOUT);
+        ServletOutputStream out = servletResponse.getOutputStream();
+        out.setWriteListener(new DenyBodyWriter(clientIp, asyncContext, out));
+    }
+
+    private void prepare(ServletResponse servletResponse) {
+        HttpServletResponse response = (HttpServletResponse) servletResponse;
+        response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+        response.setContentType(CONTENT_TYPE);
+        response.setContentLength(DENY_BODY.length);
+    }
+
+    /**
+     * 在容器通知可写时写出响应体，写完后结束异步请求
+     */
+    private static class DenyBodyWriter implements WriteListener {
+        private final String clientIp;
+        private final AsyncContext asyncContext;
+        private final ServletOutputStream out;
+        private boolean written = false;
+
+        DenyBodyWriter(String clientIp, AsyncContext asyncContext, ServletOutputStream out) {
+            this.clientIp = clientIp;
+            this.asyncContext = asyncContext;
+            this.out = out;
+        }
+
+        @Override
+        public void onWritePossible() throws IOException {
+            if (!written && out.isReady()) {
+                out.write(DENY_BODY);
+                written = true;
+            }
+            if (written && out.isReady()) {
+                asyncContext.complete();
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            logger.debug("Write deny response error.clientIp={}", clientIp, t);
+            asyncContext.complete();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.royww.op.eve.filter;
+
+import org.slf4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 拦截日志聚合
+ * <p>
+ * 每个时间窗口最多输出一行日志，内容为窗口内的拦截次数及一个样本IP，
+ * 避免被扫描或攻击时每个请求一行日志把磁盘IO打满。
+ * </p>
+ */
+public final class DenyLogSampler {
+
+    private final Logger logger;
+    private final String reason;
+    private final long intervalMillis;
+    private final AtomicLong deniedCount = new AtomicLong();
+    private final AtomicLong windowStart = new AtomicLong();
+
+    /**
+     * @param reason   拦截原因，输出到日志中
+     * @param interval 日志输出的最小间隔
+     */
+    public DenyLogSampler(Logger logger, String reason, long interval, TimeUnit unit) {
+        this.logger = logger;
+        this.reason = reason;
+        this.intervalMillis = unit.toMillis(interval);
+    }
+
+    /**
+     * 记录一次拦截
+     */
+    public void record(String clientIp) {
+        deniedCount.incrementAndGet();
+        long now = System.currentTimeMillis();
+        long start = windowStart.get();
+        if (now - start >= intervalMillis && windowStart.compareAndSet(start, now)) {
+            long count = deniedCount.getAndSet(0);
+            logger.warn("Don't have authorization to access({}). intercepted={} in last {}ms, sample clientIp={}",
+                    reason, count, start == 0 ? 0 : now - start, clientIp);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.royww.op.eve.filter;
+
+import com.google.common.collect.Maps;
+import com.royww.op.eve.metrics.HeavyHitters;
+import com.royww.op.eve.metrics.LatencyHistogram;
+import com.royww.op.eve.metrics.MBeans;
+import com.royww.op.eve.metrics.StripedCounter;
+
+import javax.management.ObjectName;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * IP防火墙指标，按 namespace 区分
+ * <p>
+ * 计数使用分段计数器，放行路径上只有一次无竞争的原子加和一次直方图记录；
+ * 被拦截IP的统计只在拦截路径上进行。创建时注册到 JMX，
+ * ObjectName 为 com.royww.op.eve:type=IPFireWallFilter,name="namespace"
+ * </p>
+ * <p>
+ * 按引用计数共享，最后一个使用者 {@link #release(String)} 时从 JMX 注销并丢弃，
+ * 重新部署后不会留下旧的 MBean 及其类加载器，再次使用时从零开始计数。
+ * </p>
+ */
+public final class FilterMetrics implements FilterMetricsMXBean {
+
+    private static final int TOP_DENIED_CAPACITY = 128;
+    private static final int TOP_DENIED_SIZE = 10;
+
+    //namespace -> 指标，持有自身的锁时访问
+    private static final Map<String, FilterMetrics> NAMESPACES = Maps.newHashMap();
+
+    private final String namespace;
+    //以下两个字段持有 NAMESPACES 锁时访问
+    private int refCount;
+    private ObjectName objectName;
+    private final StripedCounter allowed = new StripedCounter();
+    private final StripedCounter denied = new StripedCounter();
+    private final StripedCounter rateLimited = new StripedCounter();
+    private final StripedCounter parseErrors = new StripedCounter();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final HeavyHitters topDenied = new HeavyHitters(TOP_DENIED_CAPACITY);
+
+    private FilterMetrics(String namespace) {
+        this.namespace = namespace;
+    }
+
+    /**
+     * 得到 namespace 对应的指标，同一 namespace 的多个过滤器共用一份，不再使用时调用 {@link #release(String)}
+     */
+    public static FilterMetrics forNamespace(String namespace) {
+        synchronized (NAMESPACES) {
+            FilterMetrics metrics = NAMESPACES.get(namespace);
+            if (metrics == null) {
+                metrics = new FilterMetrics(namespace);
+                metrics.objectName = MBeans.register(metrics, IPFireWallFilter.class.getSimpleName(), namespace);
+                NAMESPACES.put(namespace, metrics);
+            }
+            metrics.refCount++;
+            return metrics;
+        }
+    }
+
+    /**
+     * 释放一次 {@link #forNamespace(String)} 得到的指标，最后一次释放时从 JMX 注销
+     */
+    public static void release(String namespace) {
+        ObjectName objectName;
+        synchronized (NAMESPACES) {
+            FilterMetrics metrics = NAMESPACES.get(namespace);
+            if (metrics == null || --metrics.refCount > 0) {
+                return;
+            }
+            NAMESPACES.remove(namespace);
+            objectName = metrics.objectName;
+        }
+        MBeans.unregister(objectName);
+    }
+
+    void recordAllowed() {
+        allowed.increment();
+    }
+
+    void recordDenied(String clientIp) {
+        denied.increment();
+        topDenied.offer(clientIp);
+    }
+
+    void recordRateLimited(String clientIp) {
+        rateLimited.increment();
+        topDenied.offer(clientIp);
+    }
+
+    void recordParseError() {
+        parseErrors.increment();
+    }
+
+    void recordLatency(long nanos) {
+        latency.record(nanos);
+    }
+
+    /**
+     * @return 供 {@link com.royww.op.eve.metrics.MetricsReporter} 上报的指标
+     */
+    public Map<String, Object> snapshot() {
+        LatencyHistogram.Snapshot latencySnapshot = latency.snapshot();
+        Map<String, Object> metrics = Maps.newLinkedHashMap();
+        metrics.put("allowed", getAllowedCount());
+        metrics.put("denied", getDeniedCount());
+        metrics.put("rateLimited", getRateLimitedCount());
+        metrics.put("parseErrors", getParseErrorCount());
+        metrics.put("latencyP50Nanos", latencySnapshot.getPercentile(50));
+        metrics.put("latencyP99Nanos", latencySnapshot.getPercentile(99));
+        metrics.put("latencyP999Nanos", latencySnapshot.getPercentile(99.9));
+        metrics.put("latencyMaxNanos", latencySnapshot.getMax());
+        metrics.put("topDenied", topDenied.top(TOP_DENIED_SIZE));
+        return metrics;
+    }
+
+    @Override
+    public String getNamespace() {
+        return namespace;
+    }
+
+    @Override
+    public long getAllowedCount() {
+        return allowed.sum();
+    }
+
+    @Override
+    public long getDeniedCount() {
+        return denied.sum();
+    }
+
+    @Override
+    public long getRateLimitedCount() {
+        return rateLimited.sum();
+    }
+
+    @Override
+    public long getParseErrorCount() {
+        return parseErrors.sum();
+    }
+
+    @Override
+    public long getLatencyP50Nanos() {
+        return latency.snapshot().getPercentile(50);
+    }
+
+    @Override
+    public long getLatencyP99Nanos() {
+        return latency.snapshot().getPercentile(99);
+    }
+
+    @Override
+    public long getLatencyP999Nanos() {
+        return latency.snapshot().getPercentile(99.9);
+    }
+
+    @Override
+    public long getLatencyMaxNanos() {
+        return latency.snapshot().getMax();
+    }
+
+    @Override
+    public String[] getTopDeniedIps() {
+        List<HeavyHitters.Counter> top = topDenied.top(TOP_DENIED_SIZE);
+        String[] result = new String[top.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = top.get(i).toString();
+        }
+        return result;
+    }
+}
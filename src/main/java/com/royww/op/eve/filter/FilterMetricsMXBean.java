@@ -0,0 +1,33 @@
+package com.royww.op.eve.filter;
+
+/**
+ * IP防火墙指标的 JMX 接口
+ */
+public interface FilterMetricsMXBean {
+
+    String getNamespace();
+
+    long getAllowedCount();
+
+    long getDeniedCount();
+
+    long getRateLimitedCount();
+
+    long getParseErrorCount();
+
+    /**
+     * @return 白名单判断耗时的中位数(纳秒)
+     */
+    long getLatencyP50Nanos();
+
+    long getLatencyP99Nanos();
+
+    long getLatencyP999Nanos();
+
+    long getLatencyMaxNanos();
+
+    /**
+     * @return 被拦截次数最多的IP，格式 ip=count
+     */
+    String[] getTopDeniedIps();
+}
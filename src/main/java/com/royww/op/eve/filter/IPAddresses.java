@@ -0,0 +1,216 @@
+package com.royww.op.eve.filter;
+
+/**
+ * IP地址解析工具
+ * <p>
+ * 直接在字符上解析，不创建任何中间对象，可用于请求热路径
+ * </p>
+ */
+public final class IPAddresses {
+
+    /**
+     * 非法地址的返回值
+     */
+    public static final long INVALID = -1L;
+
+    private IPAddresses() {
+    }
+
+    /**
+     * 解析IPv4地址
+     * @param s 如 192.168.1.1，允许前后有空白
+     * @return 无符号32位地址(0 ~ 2^32-1)，非法时返回 {@link #INVALID}
+     */
+    public static long parseIPv4(CharSequence s) {
+        if (s == null) {
+            return INVALID;
+        }
+        return parseIPv4(s, 0, s.length());
+    }
+
+    /**
+     * 解析 s[start,end) 区间内的IPv4地址
+     * @return 无符号32位地址，非法时返回 {@link #INVALID}
+     */
+    public static long parseIPv4(CharSequence s, int start, int end) {
+        while (start < end && s.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && s.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        long address = 0;
+        int octet = 0;
+        int digits = 0;
+        int dots = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = octet * 10 + (c - '0');
+                if (++digits > 3 || octet > 255) {
+                    return INVALID;
+                }
+            } else if (c == '.') {
+                if (digits == 0 || ++dots > 3) {
+                    return INVALID;
+                }
+                address = (address << 8) | octet;
+                octet = 0;
+                digits = 0;
+            } else {
+                return INVALID;
+            }
+        }
+        if (dots != 3 || digits == 0) {
+            return INVALID;
+        }
+        return (address << 8) | octet;
+    }
+
+    /**
+     * 解析IPv6地址，支持 :: 缩写、末尾内嵌IPv4(如 ::ffff:10.0.0.1)、方括号及 %zone 后缀
+     * @param out 长度至少为2，成功时 out[0] 为高64位，out[1] 为低64位；为 null 时只做校验
+     * @return 是否为合法的IPv6地址
+     */
+    public static boolean parseIPv6(CharSequence s, long[] out) {
+        if (s == null) {
+            return false;
+        }
+        return parseIPv6(s, 0, s.length(), out);
+    }
+
+    /**
+     * 解析 s[start,end) 区间内的IPv6地址
+     * @see #parseIPv6(CharSequence, long[])
+     */
+    public static boolean parseIPv6(CharSequence s, int start, int end, long[] out) {
+        while (start < end && s.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && s.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (end - start >= 2 && s.charAt(start) == '[' && s.charAt(end - 1) == ']') {
+            start++;
+            end--;
+        }
+        for (int i = start; i < end; i++) {
+            if (s.charAt(i) == '%') {
+                end = i;
+                break;
+            }
+        }
+        if (start >= end) {
+            return false;
+        }
+        //:: 之前的分组按下标直接写入 hi/lo，之后的分组先累积在 tailHi/tailLo 的低位
+        long hi = 0;
+        long lo = 0;
+        long tailHi = 0;
+        long tailLo = 0;
+        int groups = 0;
+        boolean compressed = false;
+        int i = start;
+        if (s.charAt(i) == ':') {
+            if (i + 1 >= end || s.charAt(i + 1) != ':') {
+                return false;
+            }
+            compressed = true;
+            i += 2;
+        }
+        while (i < end) {
+            int group = 0;
+            int digits = 0;
+            int j = i;
+            for (; j < end; j++) {
+                int hex = hexValue(s.charAt(j));
+                if (hex < 0) {
+                    break;
+                }
+                group = (group << 4) | hex;
+                digits++;
+            }
+            if (j < end && s.charAt(j) == '.') {
+                //末尾内嵌的IPv4地址占两个分组
+                long v4 = parseIPv4(s, i, end);
+                if (v4 == INVALID || groups > 6) {
+                    return false;
+                }
+                for (int k = 0; k < 2; k++) {
+                    int v4Group = (int) (v4 >>> (16 - k * 16)) & 0xFFFF;
+                    if (compressed) {
+                        tailHi = (tailHi << 16) | (tailLo >>> 48);
+                        tailLo = (tailLo << 16) | v4Group;
+                    } else if (groups < 4) {
+                        hi |= (long) v4Group << (16 * (3 - groups));
+                    } else {
+                        lo |= (long) v4Group << (16 * (7 - groups));
+                    }
+                    groups++;
+                }
+                break;
+            }
+            if (digits == 0 || digits > 4 || groups >= 8) {
+                return false;
+            }
+            if (compressed) {
+                tailHi = (tailHi << 16) | (tailLo >>> 48);
+                tailLo = (tailLo << 16) | group;
+            } else if (groups < 4) {
+                hi |= (long) group << (16 * (3 - groups));
+            } else {
+                lo |= (long) group << (16 * (7 - groups));
+            }
+            groups++;
+            if (j == end) {
+                break;
+            }
+            if (s.charAt(j) != ':' || ++j == end) {
+                return false;
+            }
+            if (s.charAt(j) == ':') {
+                if (compressed) {
+                    return false;
+                }
+                compressed = true;
+                j++;
+            }
+            i = j;
+        }
+        if (compressed ? groups > 7 : groups != 8) {
+            return false;
+        }
+        if (out != null) {
+            out[0] = hi | tailHi;
+            out[1] = lo | tailLo;
+        }
+        return true;
+    }
+
+    /**
+     * 判断是否为合法的IPv4或IPv6地址
+     */
+    public static boolean isIPAddress(CharSequence s) {
+        return parseIPv4(s) != INVALID || parseIPv6(s, null);
+    }
+
+    /**
+     * 判断IPv6地址是否为IPv4映射地址(::ffff:a.b.c.d)
+     */
+    public static boolean isIPv4Mapped(long hi, long lo) {
+        return hi == 0 && (lo >>> 32) == 0xFFFFL;
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+}
@@ -1,26 +1,49 @@
 package com.royww.op.eve.filter;
 
 import com.google.common.base.Preconditions;
-import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Range;
-import com.google.common.collect.RangeSet;
-import com.google.common.collect.TreeRangeSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.royww.op.eve.conf.ConfigChangeEvent;
+import com.royww.op.eve.conf.ConfigListener;
+import com.royww.op.eve.conf.ConfigSnapshot;
+import com.royww.op.eve.conf.ConfigWatcher;
 import com.royww.op.eve.conf.PropReaderSingleton;
+import com.royww.op.eve.metrics.MetricsReporter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.servlet.*;
-import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * IP防火墙
  * Created by roy.ww on 2015/12/5.
+ * <p>
+ * 配置 watchConf=true 参数后监听配置文件，文件变化时在 watchDebounce(毫秒，默认500)内合并后重新加载；
+ * 配置 reloadInterval(秒) 参数后，会在后台线程定期检查配置文件(用于不支持文件事件的文件系统)。
+ * 白名单监听本 namespace 的配置变化，变化时重新编译白名单，
+ * 并通过一次 volatile 引用替换发布，请求线程不加锁，也不会看到构建到一半的白名单
+ * </p>
+ * <p>
+ * 配置 rateLimit(每秒请求数) 参数后，在白名单判断之前按客户端IP限流，超出限制的请求同样交给
+ * InterceptHandler 处理。拦截日志按 denyLogInterval(秒，默认10) 聚合输出。
+ * </p>
+ * <p>
+ * 客户端地址由 {@link ClientAddressResolver} 解析，只信任 trustedProxies 参数配置的代理转发的
+ * X-Forwarded-For，默认为本机及内网地址。
+ * </p>
+ * <p>
+ * 在 web.xml 中为过滤器声明 &lt;async-supported&gt;true&lt;/async-supported&gt; 后，
+ * 默认拦截处理会以非阻塞方式写出 403 响应，见 {@link DefaultInterceptHandler}。
+ * </p>
+ * <p>
+ * 放行、拦截、限流、解析失败次数及判断耗时按 namespace 统计，通过 JMX 暴露，见 {@link FilterMetrics}；
+ * 配置 metricsReporter 参数后按 metricsReportInterval(秒，默认60) 定期上报。
+ * </p>
  */
 public class IPFireWallFilter implements Filter {
 
@@ -31,33 +54,132 @@ public class IPFireWallFilter implements Filter {
     private final static String WHITE_LIST_IP_CONF_SPACE = "com.autonavi.aos.common.filter.white.ip"; // 白名单配置
 
     private final static String IP_BLOCKER_PARAMETER_NAME = "ipBlocker";
+    private final static String RELOAD_INTERVAL_PARAMETER_NAME = "reloadInterval"; // 白名单重新加载检查间隔(秒)，不配置则不定期检查
+    private final static String WATCH_CONF_PARAMETER_NAME = "watchConf"; // 是否监听配置文件变化
+    private final static String WATCH_DEBOUNCE_PARAMETER_NAME = "watchDebounce"; // 文件事件合并时间(毫秒)
+    private final static String RATE_LIMIT_PARAMETER_NAME = "rateLimit"; // 每个IP每秒允许的请求数，不配置则不限流
+    private final static String RATE_LIMIT_BURST_PARAMETER_NAME = "rateLimitBurst"; // 每个IP允许的突发请求数，默认同 rateLimit
+    private final static String RATE_LIMIT_CAPACITY_PARAMETER_NAME = "rateLimitCapacity"; // 最多跟踪的IP数
+    private final static String DENY_LOG_INTERVAL_PARAMETER_NAME = "denyLogInterval"; // 拦截日志聚合间隔(秒)
+    private final static String TRUSTED_PROXIES_PARAMETER_NAME = "trustedProxies"; // 受信代理，格式同白名单
+    private final static String METRICS_REPORTER_PARAMETER_NAME = "metricsReporter"; // MetricsReporter 实现类
+    private final static String METRICS_REPORT_INTERVAL_PARAMETER_NAME = "metricsReportInterval"; // 指标上报间隔(秒)
+
+    private final static int DEFAULT_RATE_LIMIT_CAPACITY = 65536;
+    private final static long DEFAULT_DENY_LOG_INTERVAL = 10;
+    private final static long DEFAULT_METRICS_REPORT_INTERVAL = 60;
+    private final static long DEFAULT_WATCH_DEBOUNCE = 500;
+    private final static int DECISION_CACHE_SIZE = 4096;
+    private final static long DECISION_CACHE_TTL_MILLIS = 1000;
 
     private InterceptHandler interceptHandler;
 
-    static List<RangeSet<Integer>> ipRangeConfiguration = Lists.newArrayList();
-    static{
-        for(int i=0;i<4;i++){
-            RangeSet<Integer> rangeSet = TreeRangeSet.create();
-            ipRangeConfiguration.add(rangeSet);
-        }
-    }
+    //编译好的白名单，请求路径上只读，重新加载时整体替换
+    private volatile IPWhiteList whiteList = IPWhiteList.builder().build();
+    //当前白名单编译自的快照版本，持有 this 锁时访问
+    private long whiteListVersion = -1;
+    private String namespace;
+    //白名单重新加载、指标上报等后台任务
+    private ScheduledExecutorService backgroundExecutor;
+    private ConfigWatcher configWatcher;
+    private ConfigListener whiteListListener;
+    private FilterMetrics metrics;
+
+    private final DecisionCache decisionCache = new DecisionCache(DECISION_CACHE_SIZE,
+            DECISION_CACHE_TTL_MILLIS, TimeUnit.MILLISECONDS);
+    private ClientAddressResolver clientAddressResolver;
+    private ClientRateLimiter rateLimiter;
+    private DenyLogSampler whiteListDenyLog;
+    private DenyLogSampler rateLimitDenyLog;
 
     @Override
     public void init(FilterConfig filterConfig) throws ServletException {
         String conf = filterConfig.getInitParameter(CONFIG_FILE_PARAMETER_NAME);
-        String namespace = filterConfig.getInitParameter(CONFIG_NAMESPACE_FILE_PARAMETER_NAME);
+        namespace = filterConfig.getInitParameter(CONFIG_NAMESPACE_FILE_PARAMETER_NAME);
         Preconditions.checkArgument(!(Strings.isNullOrEmpty(namespace)),
                 "未查找到白名单配置参数 ConfName=" + CONFIG_NAMESPACE_FILE_PARAMETER_NAME);
 
-        if (Strings.isNullOrEmpty(conf)) {
-            PropReaderSingleton.load(DEFAULT_CONFIG_FILE);
-        } else {
-            PropReaderSingleton.load(conf);
+        String trustedProxies = filterConfig.getInitParameter(TRUSTED_PROXIES_PARAMETER_NAME);
+        clientAddressResolver = new ClientAddressResolver(
+                trustedProxies == null ? ClientAddressResolver.DEFAULT_TRUSTED_PROXIES : trustedProxies);
+
+        final String confResource = Strings.isNullOrEmpty(conf) ? DEFAULT_CONFIG_FILE : conf;
+        PropReaderSingleton.load(confResource);
+
+        //只有本 namespace 的白名单变化时才重新编译
+        whiteListListener = new ConfigListener() {
+            @Override
+            public void configChanged(ConfigChangeEvent event) {
+                if (updateWhiteList(event.getSnapshot())) {
+                    logger.info("IP white-list reloaded.namespace={} changedKeys={}", namespace, event.getChangedKeys());
+                }
+            }
+        };
+        //先注册监听再编译，期间发布的变化不会丢失
+        PropReaderSingleton.addListener(whiteListPrefix(), whiteListListener);
+        updateWhiteList(PropReaderSingleton.snapshot());
+
+        if (Boolean.parseBoolean(filterConfig.getInitParameter(WATCH_CONF_PARAMETER_NAME))) {
+            String watchDebounce = filterConfig.getInitParameter(WATCH_DEBOUNCE_PARAMETER_NAME);
+            long debounce = Strings.isNullOrEmpty(watchDebounce) ? DEFAULT_WATCH_DEBOUNCE
+                    : Long.parseLong(watchDebounce.trim());
+            try {
+                configWatcher = PropReaderSingleton.watch(confResource, debounce, TimeUnit.MILLISECONDS);
+            } catch (IOException e) {
+                logger.error("Watch conf error.conf={}", confResource, e);
+            }
+        }
+
+        String reloadInterval = filterConfig.getInitParameter(RELOAD_INTERVAL_PARAMETER_NAME);
+        if (!Strings.isNullOrEmpty(reloadInterval)) {
+            long interval = Long.parseLong(reloadInterval.trim());
+            backgroundExecutor().scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        PropReaderSingleton.reloadIfModified(confResource);
+                    } catch (Exception e) {
+                        logger.error("IP white-list reload error.namespace={}", namespace, e);
+                    }
+                }
+            }, interval, interval, TimeUnit.SECONDS);
         }
-        Set<String> keys = PropReaderSingleton.getKeys();
-        for(String k:keys){
-            if(k.startsWith(WHITE_LIST_IP_CONF_SPACE+"."+namespace)){
-                parseConfiguration(k,PropReaderSingleton.get(k));
+
+        String rateLimit = filterConfig.getInitParameter(RATE_LIMIT_PARAMETER_NAME);
+        if (!Strings.isNullOrEmpty(rateLimit)) {
+            double permitsPerSecond = Double.parseDouble(rateLimit.trim());
+            String burst = filterConfig.getInitParameter(RATE_LIMIT_BURST_PARAMETER_NAME);
+            String capacity = filterConfig.getInitParameter(RATE_LIMIT_CAPACITY_PARAMETER_NAME);
+            rateLimiter = new ClientRateLimiter(permitsPerSecond,
+                    Strings.isNullOrEmpty(burst) ? (int) Math.ceil(permitsPerSecond) : Integer.parseInt(burst.trim()),
+                    Strings.isNullOrEmpty(capacity) ? DEFAULT_RATE_LIMIT_CAPACITY : Integer.parseInt(capacity.trim()));
+        }
+        String denyLogInterval = filterConfig.getInitParameter(DENY_LOG_INTERVAL_PARAMETER_NAME);
+        long logInterval = Strings.isNullOrEmpty(denyLogInterval) ? DEFAULT_DENY_LOG_INTERVAL
+                : Long.parseLong(denyLogInterval.trim());
+        whiteListDenyLog = new DenyLogSampler(logger, "IP-white-list intercepted", logInterval, TimeUnit.SECONDS);
+        rateLimitDenyLog = new DenyLogSampler(logger, "IP-rate-limit intercepted", logInterval, TimeUnit.SECONDS);
+
+        metrics = FilterMetrics.forNamespace(namespace);
+        String reporterClass = filterConfig.getInitParameter(METRICS_REPORTER_PARAMETER_NAME);
+        if (!Strings.isNullOrEmpty(reporterClass)) {
+            try {
+                final MetricsReporter reporter = (MetricsReporter) Class.forName(reporterClass.trim()).newInstance();
+                String reportInterval = filterConfig.getInitParameter(METRICS_REPORT_INTERVAL_PARAMETER_NAME);
+                long interval = Strings.isNullOrEmpty(reportInterval) ? DEFAULT_METRICS_REPORT_INTERVAL
+                        : Long.parseLong(reportInterval.trim());
+                backgroundExecutor().scheduleAtFixedRate(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            reporter.report(IPFireWallFilter.class.getSimpleName() + "." + namespace, metrics.snapshot());
+                        } catch (Exception e) {
+                            logger.error("Report metrics error.namespace={}", namespace, e);
+                        }
+                    }
+                }, interval, interval, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                logger.error("MetricsReporter parameter is illegal.class={}", reporterClass, e);
             }
         }
 
@@ -70,107 +192,129 @@ public class IPFireWallFilter implements Filter {
                 /*
                 * 默认的IPBlocker实现
                  */
-                interceptHandler = new InterceptHandler() {
-                    @Override
-                    public void handle(String clientIp, ServletResponse servletResponse) throws IOException {
-                        HttpServletResponse response = (HttpServletResponse) servletResponse;
-                        response.setHeader("Content-type", "text/html;charset=UTF-8");
-                        response.getOutputStream().write("Don't have authorization to access".getBytes("UTF-8"));
-                        response.getOutputStream().flush();
-                        response.getOutputStream().close();
-                    }
-                };
+                interceptHandler = new DefaultInterceptHandler();
             }
         }catch (Exception e){
             logger.info("IPBlock parameter is illegal.class={}",filterConfig.getInitParameter(IP_BLOCKER_PARAMETER_NAME));
         }
     }
 
+    private synchronized ScheduledExecutorService backgroundExecutor() {
+        if (backgroundExecutor == null) {
+            backgroundExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("ip-firewall-" + namespace).setDaemon(true).build());
+        }
+        return backgroundExecutor;
+    }
+
     /**
-     * 解析IP配置
-     * @param ips 192.168.1.1 192.168.*.1 192.168.1.[0-200]
+     * 用比当前白名单更新的快照重新编译白名单，较旧的快照忽略。
+     * 新白名单的 generation 不同，缓存中的旧结果自然失效
+     * @return 是否替换了白名单
      */
-    private void parseConfiguration(String key,String ips){
-        List<String> ipList = Splitter.on(",").splitToList(ips);
-        for(String ip:ipList){
-            List<String> itemList = Splitter.on(".").splitToList(ip.trim());
-            if(itemList.size()!=4){
-                logger.error("Illegal white-list ip config.key={} value={} illegal={}",key,ips,ip);
-            }
-            try{
-                List<Integer[]> ipSegment = Lists.newArrayList();
-                for(int segmentIdx=0;segmentIdx<4;segmentIdx++){
-                    Integer[] intRange = new Integer[2];
-                    String v = itemList.get(segmentIdx).trim();
-                    if("*".equals(v)){
-                        intRange[0] = 0;
-                        intRange[1] = 255;
-                    }else if(v.startsWith("[")&&v.endsWith("]")){
-                        List<String> startEnds = Splitter.on("-").splitToList(v.substring(1,v.length()-1));
-                        intRange[0] = Integer.valueOf(startEnds.get(0));
-                        intRange[1] = Integer.valueOf(startEnds.get(1));
-                    }else{
-                        intRange[0] = Integer.valueOf(v);
-                        intRange[1] = Integer.valueOf(v);
-                    }
-                    ipSegment.add(intRange);
-                }
-                for(int segmentIdx=0;segmentIdx<4;segmentIdx++){
-                    ipRangeConfiguration.get(segmentIdx).add(
-                            Range.closed(ipSegment.get(segmentIdx)[0], ipSegment.get(segmentIdx)[1]));
-                }
-            }catch (Exception e){
-                logger.error("Illegal white-list ip config.key={} value={} illegal={}",key,ips,ip,e);
+    private synchronized boolean updateWhiteList(ConfigSnapshot conf) {
+        if (conf.getVersion() <= whiteListVersion) {
+            return false;
+        }
+        whiteList = compileWhiteList(conf);
+        whiteListVersion = conf.getVersion();
+        return true;
+    }
+
+    /**
+     * 根据当前配置编译白名单
+     */
+    private IPWhiteList compileWhiteList(ConfigSnapshot conf) {
+        IPWhiteList.Builder builder = IPWhiteList.builder();
+        for(Map.Entry<String,String> kv:conf.subset(whiteListPrefix()).entrySet()){
+            if(kv.getValue()!=null){
+                builder.addRules(kv.getKey(),kv.getValue());
             }
         }
+        return builder.build();
     }
 
-    private boolean validAccessPermission(String clientIp){
+    private String whiteListPrefix() {
+        return WHITE_LIST_IP_CONF_SPACE + "." + namespace;
+    }
 
-        boolean accessPerm = true;
-        try{
-            List<String> ipSegment = Splitter.on(".").splitToList(clientIp);
-            for(int i=0;i<4;i++){
-                if(!ipRangeConfiguration.get(i).contains(Integer.valueOf(ipSegment.get(i)))){
-                    //如果有IP段不匹配，则进行断路处理，直接判断无访问权限
-                    accessPerm = false;
-                    break;
-                }
-            }
-        }catch (Exception e){
-            logger.error("valid access permission error.clientIp={}",clientIp,e);
-            return false;
+    private boolean validAccessPermission(String clientIp){
+        IPWhiteList current = whiteList;
+        long address = IPAddresses.parseIPv4(clientIp);
+        if (address == IPAddresses.INVALID) {
+            return current.permits(clientIp);
+        }
+        int decision = decisionCache.get(address, current.generation());
+        if (decision != DecisionCache.MISS) {
+            return decision == DecisionCache.ALLOW;
         }
+        boolean accessPerm = current.permits(address);
+        decisionCache.put(address, current.generation(), accessPerm);
         return accessPerm;
     }
 
     @Override
     public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain filterChain) throws IOException, ServletException {
-        String ip = getRemoteAddr(servletRequest);
-        if(validAccessPermission(ip)){
+        String ip = clientAddressResolver.resolve(servletRequest);
+        if(rateLimiter!=null&&!rateLimiter.tryAcquire(ip)){
+            metrics.recordRateLimited(ip);
+            rateLimitDenyLog.record(ip);
+            intercept(ip, servletRequest, servletResponse);
+            return;
+        }
+        long start = System.nanoTime();
+        boolean accessPerm = validAccessPermission(ip);
+        metrics.recordLatency(System.nanoTime() - start);
+        if(accessPerm){
+            metrics.recordAllowed();
             filterChain.doFilter(servletRequest,servletResponse);
         }else{
-            logger.warn("Don't have authorization to access(IP-white-list intercepted). clientIp={}",ip);
-            interceptHandler.handle(ip, servletResponse);
+            metrics.recordDenied(ip);
+            if (!IPAddresses.isIPAddress(ip)) {
+                metrics.recordParseError();
+            }
+            whiteListDenyLog.record(ip);
+            intercept(ip, servletRequest, servletResponse);
         }
     }
 
-    private String getRemoteAddr(ServletRequest servletRequest) {
-        String ip = ((HttpServletRequest) servletRequest).getHeader("X-Forwarded-For");
-        if (ip == null) {
-            ip = servletRequest.getRemoteAddr();
+    private void intercept(String ip, ServletRequest servletRequest, ServletResponse servletResponse) throws IOException {
+        if (interceptHandler instanceof AsyncInterceptHandler) {
+            ((AsyncInterceptHandler) interceptHandler).handle(ip, servletRequest, servletResponse);
+        } else {
+            interceptHandler.handle(ip, servletResponse);
         }
-        String[] ips = ip.split(",\\s");
-        return ips[0];
     }
 
     @Override
     public void destroy() {
-
+        if (backgroundExecutor != null) {
+            backgroundExecutor.shutdownNow();
+        }
+        if (configWatcher != null) {
+            try {
+                configWatcher.close();
+            } catch (IOException e) {
+                logger.error("Close conf watcher error.namespace={}", namespace, e);
+            }
+        }
+        if (whiteListListener != null) {
+            PropReaderSingleton.removeListener(whiteListListener);
+        }
+        if (metrics != null) {
+            FilterMetrics.release(namespace);
+        }
     }
 
     public interface InterceptHandler{
         void handle(String clientIp,ServletResponse servletResponse) throws IOException;
     }
 
+    /**
+     * 支持异步写出的拦截处理，过滤器声明 async-supported 时可以不占用请求线程
+     */
+    public interface AsyncInterceptHandler extends InterceptHandler{
+        void handle(String clientIp,ServletRequest servletRequest,ServletResponse servletResponse) throws IOException;
+    }
+
 }
@@ -0,0 +1,305 @@
+package com.royww.op.eve.filter;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 编译后的IP白名单
+ * <p>
+ * 在 init 阶段由配置编译一次，之后只读。IPv4规则按完整地址展开为区间，
+ * 合并后放入 {@link IPv4RangeIndex}；IPv6规则放入 {@link IPv6PrefixTrie}。
+ * 判断时直接解析字符，不产生任何对象分配，IPv4映射的IPv6地址(::ffff:a.b.c.d)按IPv4规则判断。
+ * </p>
+ * <p>
+ * 支持的规则格式：192.168.1.1、192.168.*.1、192.168.1.[0-200]、192.168.0.0/16、2001:db8::/32、::1
+ * </p>
+ */
+public final class IPWhiteList {
+
+    static Logger logger = LoggerFactory.getLogger(IPWhiteList.class);
+
+    /**
+     * 单条规则最多展开的区间数，超过的规则(如 *.*.*.1)按最后一个非 * 段的取值索引后逐段匹配
+     */
+    static final int MAX_EXPANDED_RANGES = 4096;
+
+    /**
+     * IPv6地址解析的线程内缓冲区，避免每次请求分配
+     */
+    private static final AtomicInteger GENERATIONS = new AtomicInteger();
+
+    private static final ThreadLocal<long[]> IPV6_BUFFER = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[2];
+        }
+    };
+
+    private final IPv4RangeIndex rangeIndex;
+    /**
+     * 无法展开为少量区间的规则，每条为 [lo0,hi0,lo1,hi1,lo2,hi2,lo3,hi3]。
+     * 按规则最后一个非 * 段的序号和该段取值索引，下标为 segmentIdx << 8 | octet，没有规则时为 null
+     */
+    private final int[][][] segmentPatterns;
+    private final IPv6PrefixTrie ipv6Trie;
+    /**
+     * 每个实例不同，供 {@link DecisionCache} 区分不同版本的白名单
+     */
+    private final int generation = GENERATIONS.incrementAndGet();
+
+    private IPWhiteList(IPv4RangeIndex rangeIndex, int[][][] segmentPatterns, IPv6PrefixTrie ipv6Trie) {
+        this.rangeIndex = rangeIndex;
+        this.segmentPatterns = segmentPatterns;
+        this.ipv6Trie = ipv6Trie;
+    }
+
+    int generation() {
+        return generation;
+    }
+
+    /**
+     * 判断客户端IP是否在白名单中
+     * @param clientIp 如 192.168.1.1、2001:db8::1、::ffff:192.168.1.1
+     */
+    public boolean permits(CharSequence clientIp) {
+        if (clientIp == null) {
+            return false;
+        }
+        return permits(clientIp, 0, clientIp.length());
+    }
+
+    /**
+     * 判断 s[start,end) 区间内的IP是否在白名单中
+     */
+    public boolean permits(CharSequence s, int start, int end) {
+        long address = IPAddresses.parseIPv4(s, start, end);
+        if (address != IPAddresses.INVALID) {
+            return permits(address);
+        }
+        long[] ipv6 = IPV6_BUFFER.get();
+        return IPAddresses.parseIPv6(s, start, end, ipv6) && permits(ipv6[0], ipv6[1]);
+    }
+
+    /**
+     * @param hi IPv6地址高64位
+     * @param lo IPv6地址低64位
+     */
+    public boolean permits(long hi, long lo) {
+        if (IPAddresses.isIPv4Mapped(hi, lo)) {
+            return permits(lo & 0xFFFFFFFFL);
+        }
+        return ipv6Trie.contains(hi, lo);
+    }
+
+    /**
+     * @param address 无符号32位IPv4地址
+     */
+    public boolean permits(long address) {
+        if (rangeIndex.contains(address)) {
+            return true;
+        }
+        if (segmentPatterns == null) {
+            return false;
+        }
+        for (int segmentIdx = 0; segmentIdx < 4; segmentIdx++) {
+            int octet = (int) (address >>> (24 - segmentIdx * 8)) & 0xFF;
+            int[][] patterns = segmentPatterns[segmentIdx << 8 | octet];
+            if (patterns == null) {
+                continue;
+            }
+            for (int[] pattern : patterns) {
+                if (matches(pattern, address)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 最后一个不是 0-255 的段的序号，全部为 * 时为 0
+     */
+    private static int lastPartial(int[] pattern) {
+        for (int segmentIdx = 3; segmentIdx > 0; segmentIdx--) {
+            if (pattern[segmentIdx * 2] != 0 || pattern[segmentIdx * 2 + 1] != 255) {
+                return segmentIdx;
+            }
+        }
+        return 0;
+    }
+
+    private static boolean matches(int[] pattern, long address) {
+        for (int segmentIdx = 0; segmentIdx < 4; segmentIdx++) {
+            int octet = (int) (address >>> (24 - segmentIdx * 8)) & 0xFF;
+            if (octet < pattern[segmentIdx * 2] || octet > pattern[segmentIdx * 2 + 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private final IPv4RangeIndex.Builder rangeIndex = IPv4RangeIndex.builder();
+        private final List<int[]> segmentPatterns = Lists.newArrayList();
+        private final IPv6PrefixTrie.Builder ipv6Trie = IPv6PrefixTrie.builder();
+
+        /**
+         * 解析IP配置
+         * @param ips 多条规则以逗号分隔，如 192.168.1.1,192.168.*.1,192.168.1.[0-200],10.0.0.0/8,2001:db8::/32
+         */
+        public Builder addRules(String key, String ips) {
+            List<String> ipList = Splitter.on(",").trimResults().omitEmptyStrings().splitToList(ips);
+            for (String ip : ipList) {
+                try {
+                    addRule(ip);
+                } catch (Exception e) {
+                    logger.error("Illegal white-list ip config.key={} value={} illegal={}", key, ips, ip, e);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * 添加单条规则
+         */
+        public Builder addRule(String ip) {
+            int slash = ip.indexOf('/');
+            if (ip.indexOf(':') >= 0) {
+                addIPv6(slash >= 0 ? ip.substring(0, slash) : ip,
+                        slash >= 0 ? Integer.parseInt(ip.substring(slash + 1).trim()) : 128);
+            } else if (slash >= 0) {
+                addCidr(ip.substring(0, slash).trim(), Integer.parseInt(ip.substring(slash + 1).trim()));
+            } else {
+                addSegments(ip);
+            }
+            return this;
+        }
+
+        private void addCidr(String address, int prefixLength) {
+            long base = IPAddresses.parseIPv4(address);
+            if (base == IPAddresses.INVALID || prefixLength < 0 || prefixLength > 32) {
+                throw new IllegalArgumentException("Illegal cidr.ip=" + address + "/" + prefixLength);
+            }
+            addCidr(base, prefixLength);
+        }
+
+        private void addCidr(long base, int prefixLength) {
+            long hostMask = (1L << (32 - prefixLength)) - 1;
+            rangeIndex.add(base & ~hostMask, (base & ~hostMask) | hostMask);
+        }
+
+        private void addIPv6(String address, int prefixLength) {
+            long[] ipv6 = new long[2];
+            if (!IPAddresses.parseIPv6(address, ipv6) || prefixLength < 0 || prefixLength > 128) {
+                throw new IllegalArgumentException("Illegal ipv6 rule.ip=" + address + "/" + prefixLength);
+            }
+            if (prefixLength >= 96 && IPAddresses.isIPv4Mapped(ipv6[0], ipv6[1])) {
+                //IPv4映射地址统一按IPv4规则处理
+                addCidr(ipv6[1] & 0xFFFFFFFFL, prefixLength - 96);
+                return;
+            }
+            ipv6Trie.add(ipv6[0], ipv6[1], prefixLength);
+        }
+
+        private void addSegments(String ip) {
+            List<String> itemList = Splitter.on(".").splitToList(ip);
+            if (itemList.size() != 4) {
+                throw new IllegalArgumentException("IP must have 4 segments.ip=" + ip);
+            }
+            int[] pattern = new int[8];
+            for (int segmentIdx = 0; segmentIdx < 4; segmentIdx++) {
+                parseSegment(itemList.get(segmentIdx).trim(), pattern, segmentIdx * 2);
+            }
+            /*
+            最后一个非 * 段之后的段都是完整的 0-255，可以连续成一个区间；
+            之前的段需要做笛卡尔积展开
+             */
+            int lastPartial = lastPartial(pattern);
+            long expanded = 1;
+            for (int segmentIdx = 0; segmentIdx < lastPartial; segmentIdx++) {
+                expanded *= pattern[segmentIdx * 2 + 1] - pattern[segmentIdx * 2] + 1;
+            }
+            if (expanded > MAX_EXPANDED_RANGES) {
+                logger.warn("White-list rule expands to too many ranges, matched segment by segment.ip={} ranges={}",
+                        ip, expanded);
+                segmentPatterns.add(pattern);
+                return;
+            }
+            expand(pattern, 0, lastPartial, 0L);
+        }
+
+        private void expand(int[] pattern, int segmentIdx, int lastPartial, long prefix) {
+            if (segmentIdx == lastPartial) {
+                int shift = 24 - segmentIdx * 8;
+                long hostMask = (1L << shift) - 1;
+                rangeIndex.add(prefix | ((long) pattern[segmentIdx * 2] << shift),
+                        prefix | ((long) pattern[segmentIdx * 2 + 1] << shift) | hostMask);
+                return;
+            }
+            for (int octet = pattern[segmentIdx * 2]; octet <= pattern[segmentIdx * 2 + 1]; octet++) {
+                expand(pattern, segmentIdx + 1, lastPartial, prefix | ((long) octet << (24 - segmentIdx * 8)));
+            }
+        }
+
+        private void parseSegment(String v, int[] pattern, int offset) {
+            if ("*".equals(v)) {
+                pattern[offset] = 0;
+                pattern[offset + 1] = 255;
+            } else if (v.startsWith("[") && v.endsWith("]")) {
+                List<String> startEnds = Splitter.on("-").trimResults().splitToList(v.substring(1, v.length() - 1));
+                pattern[offset] = Integer.parseInt(startEnds.get(0));
+                pattern[offset + 1] = Integer.parseInt(startEnds.get(1));
+            } else {
+                pattern[offset] = Integer.parseInt(v);
+                pattern[offset + 1] = pattern[offset];
+            }
+            if (pattern[offset] < 0 || pattern[offset + 1] > 255 || pattern[offset] > pattern[offset + 1]) {
+                throw new IllegalArgumentException("IP segment out of range.segment=" + v);
+            }
+        }
+
+        public IPWhiteList build() {
+            return new IPWhiteList(rangeIndex.build(), indexSegmentPatterns(), ipv6Trie.build());
+        }
+
+        /**
+         * 规则放入最后一个非 * 段取值范围内的每个槽位
+         */
+        private int[][][] indexSegmentPatterns() {
+            if (segmentPatterns.isEmpty()) {
+                return null;
+            }
+            int[] counts = new int[4 << 8];
+            for (int[] pattern : segmentPatterns) {
+                int segmentIdx = lastPartial(pattern);
+                for (int octet = pattern[segmentIdx * 2]; octet <= pattern[segmentIdx * 2 + 1]; octet++) {
+                    counts[segmentIdx << 8 | octet]++;
+                }
+            }
+            int[][][] index = new int[4 << 8][][];
+            for (int slot = 0; slot < index.length; slot++) {
+                if (counts[slot] > 0) {
+                    index[slot] = new int[counts[slot]][];
+                    counts[slot] = 0;
+                }
+            }
+            for (int[] pattern : segmentPatterns) {
+                int segmentIdx = lastPartial(pattern);
+                for (int octet = pattern[segmentIdx * 2]; octet <= pattern[segmentIdx * 2 + 1]; octet++) {
+                    int slot = segmentIdx << 8 | octet;
+                    index[slot][counts[slot]++] = pattern;
+                }
+            }
+            return index;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.royww.op.eve.filter;
+
+import java.util.Arrays;
+
+/**
+ * IPv4地址区间索引
+ * <p>
+ * 构建时将所有区间排序并合并重叠/相邻的部分，查询时对区间起点做二分查找，复杂度 O(log n)。
+ * 地址以无符号32位保存，存储时翻转符号位，使有符号比较与无符号顺序一致。
+ * </p>
+ */
+public final class IPv4RangeIndex {
+
+    private static final int SIGN_FLIP = 0x80000000;
+
+    private final int[] starts;
+    private final int[] ends;
+
+    private IPv4RangeIndex(int[] starts, int[] ends) {
+        this.starts = starts;
+        this.ends = ends;
+    }
+
+    /**
+     * @param address 无符号32位IPv4地址
+     */
+    public boolean contains(long address) {
+        int key = (int) address ^ SIGN_FLIP;
+        int low = 0;
+        int high = starts.length - 1;
+        //查找最后一个 start <= key 的区间
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high >= 0 && key <= ends[high];
+    }
+
+    /**
+     * @return 合并后的区间数
+     */
+    public int size() {
+        return starts.length;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        //高32位为翻转符号位后的起点，低32位为终点，按 long 排序即按起点排序
+        private long[] ranges = new long[16];
+        private int count = 0;
+
+        /**
+         * 添加闭区间 [start, end]
+         * @param start 无符号32位起始地址
+         * @param end   无符号32位结束地址
+         */
+        public Builder add(long start, long end) {
+            if (start < 0 || end > 0xFFFFFFFFL || start > end) {
+                throw new IllegalArgumentException("Illegal ip range.start=" + start + " end=" + end);
+            }
+            if (count == ranges.length) {
+                ranges = Arrays.copyOf(ranges, count * 2);
+            }
+            ranges[count++] = ((long) ((int) start ^ SIGN_FLIP) << 32) | end;
+            return this;
+        }
+
+        public IPv4RangeIndex build() {
+            long[] sorted = Arrays.copyOf(ranges, count);
+            Arrays.sort(sorted);
+            int[] starts = new int[count];
+            int[] ends = new int[count];
+            int size = 0;
+            for (long range : sorted) {
+                int start = (int) (range >> 32);
+                int end = (int) range ^ SIGN_FLIP;
+                //与上一个区间重叠或相邻则合并
+                if (size > 0 && (long) start <= (long) ends[size - 1] + 1) {
+                    if (end > ends[size - 1]) {
+                        ends[size - 1] = end;
+                    }
+                } else {
+                    starts[size] = start;
+                    ends[size] = end;
+                    size++;
+                }
+            }
+            return new IPv4RangeIndex(Arrays.copyOf(starts, size), Arrays.copyOf(ends, size));
+        }
+    }
+}
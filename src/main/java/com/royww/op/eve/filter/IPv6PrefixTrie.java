@@ -0,0 +1,148 @@
+package com.royww.op.eve.filter;
+
+/**
+ * IPv6前缀树
+ * <p>
+ * 路径压缩的二叉前缀树(Patricia)，地址以高低两个 long 表示，查询时沿树逐个节点比较前缀，
+ * 不创建任何对象。一个前缀被加入后，其下更长的前缀会被合并掉。
+ * </p>
+ */
+public final class IPv6PrefixTrie {
+
+    private final Node root;
+
+    private IPv6PrefixTrie(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * 判断地址是否落在任一前缀中
+     * @param hi 地址高64位
+     * @param lo 地址低64位
+     */
+    public boolean contains(long hi, long lo) {
+        Node node = root;
+        while (node != null) {
+            if (((hi ^ node.hi) & node.maskHi) != 0 || ((lo ^ node.lo) & node.maskLo) != 0) {
+                return false;
+            }
+            if (node.terminal) {
+                return true;
+            }
+            node = bit(hi, lo, node.length) == 0 ? node.zero : node.one;
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private static int bit(long hi, long lo, int index) {
+        return (int) (index < 64 ? hi >>> (63 - index) : lo >>> (127 - index)) & 1;
+    }
+
+    private static long maskHi(int length) {
+        return length == 0 ? 0L : (length >= 64 ? -1L : -1L << (64 - length));
+    }
+
+    private static long maskLo(int length) {
+        return length <= 64 ? 0L : -1L << (128 - length);
+    }
+
+    private static int commonPrefixLength(long hi1, long lo1, long hi2, long lo2, int max) {
+        long diff = hi1 ^ hi2;
+        int common = diff != 0 ? Long.numberOfLeadingZeros(diff) : 64 + Long.numberOfLeadingZeros(lo1 ^ lo2);
+        return Math.min(common, max);
+    }
+
+    private static final class Node {
+        final long hi;
+        final long lo;
+        final long maskHi;
+        final long maskLo;
+        final int length;
+        //以下字段只在构建期间修改
+        boolean terminal;
+        Node zero;
+        Node one;
+
+        Node(long hi, long lo, int length, boolean terminal) {
+            this.maskHi = maskHi(length);
+            this.maskLo = maskLo(length);
+            this.hi = hi & maskHi;
+            this.lo = lo & maskLo;
+            this.length = length;
+            this.terminal = terminal;
+        }
+
+        void setChild(int bit, Node child) {
+            if (bit == 0) {
+                zero = child;
+            } else {
+                one = child;
+            }
+        }
+
+        Node child(int bit) {
+            return bit == 0 ? zero : one;
+        }
+    }
+
+    public static class Builder {
+        private Node root;
+
+        /**
+         * 添加前缀
+         * @param hi     地址高64位
+         * @param lo     地址低64位
+         * @param length 前缀长度 0 ~ 128
+         */
+        public Builder add(long hi, long lo, int length) {
+            if (length < 0 || length > 128) {
+                throw new IllegalArgumentException("Illegal ipv6 prefix length.length=" + length);
+            }
+            root = insert(root, hi, lo, length);
+            return this;
+        }
+
+        private Node insert(Node node, long hi, long lo, int length) {
+            if (node == null) {
+                return new Node(hi, lo, length, true);
+            }
+            int common = commonPrefixLength(node.hi, node.lo, hi, lo, Math.min(node.length, length));
+            if (common < node.length) {
+                //新前缀覆盖当前节点，直接替换
+                if (common == length) {
+                    return new Node(hi, lo, length, true);
+                }
+                //新前缀与当前节点在 common 位分叉，需要拆分出一个新节点
+                Node branch = new Node(hi, lo, common, false);
+                branch.setChild(bit(node.hi, node.lo, common), node);
+                branch.setChild(bit(hi, lo, common), new Node(hi, lo, length, true));
+                return branch;
+            }
+            if (node.terminal) {
+                //已被更短的前缀覆盖
+                return node;
+            }
+            if (length == node.length) {
+                node.terminal = true;
+                node.zero = null;
+                node.one = null;
+                return node;
+            }
+            int b = bit(hi, lo, node.length);
+            node.setChild(b, insert(node.child(b), hi, lo, length));
+            return node;
+        }
+
+        public IPv6PrefixTrie build() {
+            return new IPv6PrefixTrie(root);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.royww.op.eve.metrics;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 高频元素统计(Space-Saving 算法)
+ * <p>
+ * 最多保存 capacity 个计数器，内存固定。新元素到来且计数器已满时，替换计数最小的元素，
+ * 并继承其计数，因此结果的计数可能偏大，但真正的高频元素不会被漏掉。
+ * </p>
+ * <p>
+ * 按元素的 hash 分为多个分段，每个分段独立加锁，同一元素总落在同一分段。分段内的计数器组成最小堆，
+ * 替换最小元素和计数加一都是 O(log n)。{@link #offer} 只尝试加锁，分段正被其他线程占用时直接丢弃本次计数，
+ * 大量并发写入(如被攻击时)不会让请求线程排队；被丢弃的多为高频元素，仍会在其他时刻被计入，
+ * 代价是竞争激烈时计数偏小。
+ * </p>
+ */
+public final class HeavyHitters {
+
+    private static final int MAX_SEGMENTS = 16;
+    //每个分段至少保存的计数器数量
+    private static final int MIN_SEGMENT_CAPACITY = 32;
+
+    private final Segment[] segments;
+
+    /**
+     * @param capacity 保存的计数器数量，应为需要的 top N 的数倍
+     */
+    public HeavyHitters(int capacity) {
+        int segmentCount = Math.min(MAX_SEGMENTS,
+                Integer.highestOneBit(Math.max(1, capacity / MIN_SEGMENT_CAPACITY)));
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment((capacity + segmentCount - 1) / segmentCount);
+        }
+    }
+
+    public void offer(String item) {
+        int h = item.hashCode();
+        Segment segment = segments[(h ^ (h >>> 16)) & (segments.length - 1)];
+        if (segment.tryLock()) {
+            try {
+                segment.offer(item);
+            } finally {
+                segment.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return 计数最高的 n 个元素，按计数降序
+     */
+    public List<Counter> top(int n) {
+        List<Counter> sorted = Lists.newArrayList();
+        for (Segment segment : segments) {
+            segment.lock();
+            try {
+                for (int i = 0; i < segment.size; i++) {
+                    Counter c = segment.heap[i];
+                    sorted.add(new Counter(c.item, c.count, c.error));
+                }
+            } finally {
+                segment.unlock();
+            }
+        }
+        Collections.sort(sorted, new Comparator<Counter>() {
+            @Override
+            public int compare(Counter o1, Counter o2) {
+                return o1.count > o2.count ? -1 : (o1.count < o2.count ? 1 : 0);
+            }
+        });
+        return sorted.subList(0, Math.min(n, sorted.size()));
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.lock();
+            try {
+                segment.clear();
+            } finally {
+                segment.unlock();
+            }
+        }
+    }
+
+    /**
+     * 一个分段，计数器按 count 组成最小堆，持有锁时访问
+     */
+    private static final class Segment extends ReentrantLock {
+        private static final long serialVersionUID = 1L;
+
+        private final Map<String, Counter> counters;
+        private final Counter[] heap;
+        private int size;
+
+        Segment(int capacity) {
+            this.counters = Maps.newHashMapWithExpectedSize(capacity);
+            this.heap = new Counter[capacity];
+        }
+
+        void offer(String item) {
+            Counter counter = counters.get(item);
+            if (counter != null) {
+                counter.count++;
+                siftDown(counter.heapIndex);
+                return;
+            }
+            if (size < heap.length) {
+                counter = new Counter(item, 1, 0);
+                counters.put(item, counter);
+                counter.heapIndex = size;
+                heap[size++] = counter;
+                siftUp(counter.heapIndex);
+                return;
+            }
+            Counter min = heap[0];
+            counters.remove(min.item);
+            counter = new Counter(item, min.count + 1, min.count);
+            counters.put(item, counter);
+            counter.heapIndex = 0;
+            heap[0] = counter;
+            siftDown(0);
+        }
+
+        void clear() {
+            counters.clear();
+            for (int i = 0; i < size; i++) {
+                heap[i] = null;
+            }
+            size = 0;
+        }
+
+        private void siftUp(int index) {
+            Counter counter = heap[index];
+            while (index > 0) {
+                int parent = (index - 1) >>> 1;
+                if (heap[parent].count <= counter.count) {
+                    break;
+                }
+                place(heap[parent], index);
+                index = parent;
+            }
+            place(counter, index);
+        }
+
+        private void siftDown(int index) {
+            Counter counter = heap[index];
+            int half = size >>> 1;
+            while (index < half) {
+                int child = 2 * index + 1;
+                int right = child + 1;
+                if (right < size && heap[right].count < heap[child].count) {
+                    child = right;
+                }
+                if (counter.count <= heap[child].count) {
+                    break;
+                }
+                place(heap[child], index);
+                index = child;
+            }
+            place(counter, index);
+        }
+
+        private void place(Counter counter, int index) {
+            heap[index] = counter;
+            counter.heapIndex = index;
+        }
+    }
+
+    public static final class Counter {
+        private final String item;
+        private long count;
+        private final long error;
+        //在分段堆中的位置
+        private int heapIndex;
+
+        Counter(String item, long count, long error) {
+            this.item = item;
+            this.count = count;
+            this.error = error;
+        }
+
+        public String getItem() {
+            return item;
+        }
+
+        /**
+         * @return 估计计数，没有因竞争丢弃时不小于真实计数
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return 计数的最大高估值
+         */
+        public long getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return item + "=" + count;
+        }
+    }
+}
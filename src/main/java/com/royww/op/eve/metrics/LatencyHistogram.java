@@ -0,0 +1,138 @@
+package com.royww.op.eve.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 延迟直方图
+ * <p>
+ * 类似 HdrHistogram 的对数-线性分桶：每个2的幂区间再均分为8个子桶，相对误差不超过12.5%，
+ * 覆盖 0 ~ 2^40 纳秒(约18分钟)，更大的值记入最后一个桶。
+ * </p>
+ * <p>
+ * 与 {@link StripedCounter} 一样按线程分段，每个分段有自己的一组桶和总耗时，记录时只在当前线程的分段上做两次
+ * 几乎无竞争的原子加，无锁、无分配；快照时把各分段相加。
+ * </p>
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    //每个分段为 BUCKETS 个桶加一个总耗时，补齐到缓存行(8 个 long)的整数倍，避免相邻分段伪共享
+    private static final int TOTAL_VALUE_OFFSET = BUCKETS;
+    private static final int STRIPE_WIDTH = (BUCKETS + 1 + 7) & ~7;
+
+    private final AtomicLongArray counts = new AtomicLongArray(StripedCounter.STRIPES * STRIPE_WIDTH);
+
+    /**
+     * @param value 耗时，单位由使用方决定，一般为纳秒
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int base = StripedCounter.stripe() * STRIPE_WIDTH;
+        counts.getAndIncrement(base + bucketIndex(value));
+        counts.getAndAdd(base + TOTAL_VALUE_OFFSET, value);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return 桶的上界(包含)
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * 得到当前数据的快照
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+        long total = 0;
+        for (int stripe = 0; stripe < StripedCounter.STRIPES; stripe++) {
+            int base = stripe * STRIPE_WIDTH;
+            for (int i = 0; i < BUCKETS; i++) {
+                long c = counts.get(base + i);
+                copy[i] += c;
+                count += c;
+            }
+            total += counts.get(base + TOTAL_VALUE_OFFSET);
+        }
+        return new Snapshot(copy, count, total);
+    }
+
+    /**
+     * 直方图快照
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long total;
+
+        Snapshot(long[] counts, long count, long total) {
+            this.counts = counts;
+            this.count = count;
+            this.total = total;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) total / count;
+        }
+
+        /**
+         * @param percentile 0 ~ 100
+         * @return 对应分位所在桶的上界
+         */
+        public long getPercentile(double percentile) {
+            long recorded = 0;
+            for (long c : counts) {
+                recorded += c;
+            }
+            if (recorded == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(recorded * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return bucketUpperBound(i);
+                }
+            }
+            return bucketUpperBound(counts.length - 1);
+        }
+
+        public long getMax() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] > 0) {
+                    return bucketUpperBound(i);
+                }
+            }
+            return 0;
+        }
+    }
+}
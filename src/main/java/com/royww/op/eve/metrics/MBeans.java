@@ -0,0 +1,56 @@
+package com.royww.op.eve.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * JMX 注册工具
+ */
+public final class MBeans {
+
+    static Logger logger = LoggerFactory.getLogger(MBeans.class);
+
+    public static final String DOMAIN = "com.royww.op.eve";
+
+    private MBeans() {
+    }
+
+    /**
+     * 注册到平台 MBeanServer，已存在同名 MBean 时先注销
+     * @param type 如 IPFireWallFilter
+     * @param name 实例名
+     * @return 注册失败时返回 null
+     */
+    public static ObjectName register(Object mbean, String type, String name) {
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(mbean, objectName);
+            return objectName;
+        } catch (Exception e) {
+            logger.error("Register mbean error.type={} name={}", type, name, e);
+            return null;
+        }
+    }
+
+    public static void unregister(ObjectName objectName) {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (Exception e) {
+            logger.error("Unregister mbean error.objectName={}", objectName, e);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.royww.op.eve.metrics;
+
+import java.util.Map;
+
+/**
+ * 指标上报
+ * <p>
+ * 由使用方定期调用，实现类可将指标写入日志、监控系统等
+ * </p>
+ */
+public interface MetricsReporter {
+
+    /**
+     * @param name    指标来源，如 IPFireWallFilter.namespace
+     * @param metrics 指标名及值，按固定顺序排列
+     */
+    void report(String name, Map<String, Object> metrics);
+}
@@ -0,0 +1,19 @@
+package com.royww.op.eve.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+
+/**
+ * 将指标输出到日志
+ */
+public class Slf4jMetricsReporter implements MetricsReporter {
+
+    Logger logger = LoggerFactory.getLogger(Slf4jMetricsReporter.class);
+
+    @Override
+    public void report(String name, Map<String, Object> metrics) {
+        logger.info("metrics.name={} {}", name, metrics);
+    }
+}
@@ -0,0 +1,66 @@
+package com.royww.op.eve.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 分段计数器
+ * <p>
+ * 按线程把计数分散到多个缓存行上，写入几乎无竞争，读取时求和。
+ * 作用同 JDK8 的 LongAdder，项目需兼容 JDK7 故自行实现。
+ * </p>
+ */
+public final class StripedCounter {
+
+    //每个分段占一个缓存行(8 * 8 字节)，避免伪共享
+    private static final int PADDING = 8;
+    static final int STRIPES = stripes();
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    private static int stripes() {
+        int n = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1;
+        return Math.min(Math.max(n, 2), 64);
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long x) {
+        cells.getAndAdd(index(), x);
+    }
+
+    /**
+     * @return 当前计数，并发写入时为近似值
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    /**
+     * 读取并清零
+     */
+    public long sumThenReset() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.getAndSet(i * PADDING, 0);
+        }
+        return sum;
+    }
+
+    private static int index() {
+        return stripe() * PADDING;
+    }
+
+    /**
+     * @return 当前线程使用的分段 0 ~ STRIPES-1，同一线程始终相同
+     */
+    static int stripe() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id ^ (id >>> 16)) & (STRIPES - 1));
+    }
+}
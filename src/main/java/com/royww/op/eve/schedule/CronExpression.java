@@ -0,0 +1,201 @@
+package com.royww.op.eve.schedule;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Cron 表达式
+ * <p>
+ * 6 个字段：秒 分 时 日 月 周，也可省略秒写成 5 个字段。每个字段支持 *、?、数字、a-b、a,b、* /n、a-b/n，
+ * 月份支持 JAN-DEC，周支持 SUN-SAT 及 0-7(0 和 7 均为周日)。
+ * 与标准 cron 相同，日与周都有限定(不以 * 或 ? 开头)时满足其一即可，否则需同时满足。
+ * </p>
+ * <p>
+ * 夏令时结束时重复的一小时内，小时字段有限定的表达式只在第一次出现时触发，
+ * 小时字段为 * 的表达式按实际时间继续触发。
+ * </p>
+ */
+public final class CronExpression {
+
+    private static final String[] MONTHS = {"JAN", "FEB", "MAR", "APR", "MAY", "JUN",
+            "JUL", "AUG", "SEP", "OCT", "NOV", "DEC"};
+    private static final String[] DAYS = {"SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT"};
+    //最多向后查找的年数，超过视为表达式永远不会触发
+    private static final int MAX_YEARS = 8;
+    //向前查找时区偏移变化的范围
+    private static final long OFFSET_LOOKBACK_MILLIS = 24L * 60 * 60 * 1000;
+
+    private final String expression;
+    private final TimeZone timeZone;
+    private final long seconds;
+    private final long minutes;
+    private final long hours;
+    private final long daysOfMonth;
+    private final long months;
+    private final long daysOfWeek;
+    //日与周都有限定时按或匹配
+    private final boolean dayOr;
+    private final boolean anyHour;
+
+    public CronExpression(String expression) {
+        this(expression, TimeZone.getDefault());
+    }
+
+    public CronExpression(String expression, TimeZone timeZone) {
+        this.expression = expression;
+        this.timeZone = timeZone;
+        List<String> fields = Splitter.on(' ').trimResults().omitEmptyStrings().splitToList(expression);
+        if (fields.size() == 5) {
+            fields = Lists.asList("0", fields.toArray(new String[fields.size()]));
+        }
+        if (fields.size() != 6) {
+            throw new IllegalArgumentException("Cron expression must have 6 fields.expression=" + expression);
+        }
+        seconds = parseField(fields.get(0), 0, 59, null);
+        minutes = parseField(fields.get(1), 0, 59, null);
+        hours = parseField(fields.get(2), 0, 23, null);
+        daysOfMonth = parseField(fields.get(3), 1, 31, null);
+        months = parseField(fields.get(4), 1, 12, MONTHS);
+        long dow = parseField(fields.get(5), 0, 7, DAYS);
+        //7 与 0 都表示周日
+        daysOfWeek = (dow | (dow >>> 7)) & 0x7F;
+        dayOr = !isWildcard(fields.get(3)) && !isWildcard(fields.get(5));
+        anyHour = isWildcard(fields.get(2));
+    }
+
+    /**
+     * 计算 afterMillis 之后(不含)的下一个触发时间
+     * @return 触发时间的毫秒数，表达式永远不会触发时返回 -1
+     */
+    public long next(long afterMillis) {
+        Calendar c = Calendar.getInstance(timeZone, Locale.ROOT);
+        c.setTimeInMillis(afterMillis - ((afterMillis % 1000) + 1000) % 1000);
+        c.add(Calendar.SECOND, 1);
+        int maxYear = c.get(Calendar.YEAR) + MAX_YEARS;
+        while (c.get(Calendar.YEAR) <= maxYear) {
+            if (!matches(months, c.get(Calendar.MONTH) + 1)) {
+                c.add(Calendar.MONTH, 1);
+                c.set(Calendar.DAY_OF_MONTH, 1);
+                c.set(Calendar.HOUR_OF_DAY, 0);
+                c.set(Calendar.MINUTE, 0);
+                c.set(Calendar.SECOND, 0);
+                continue;
+            }
+            if (!matchesDay(c)) {
+                c.add(Calendar.DAY_OF_MONTH, 1);
+                c.set(Calendar.HOUR_OF_DAY, 0);
+                c.set(Calendar.MINUTE, 0);
+                c.set(Calendar.SECOND, 0);
+                continue;
+            }
+            //时分秒只用 setTimeInMillis 和 add 调整，set 会把重复的本地时间解析为标准时间，跳过夏令时的那一次
+            if (!matches(hours, c.get(Calendar.HOUR_OF_DAY))) {
+                c.add(Calendar.SECOND, 60 - c.get(Calendar.SECOND));
+                c.add(Calendar.MINUTE, 60 - c.get(Calendar.MINUTE));
+                continue;
+            }
+            if (!matches(minutes, c.get(Calendar.MINUTE))) {
+                c.add(Calendar.SECOND, 60 - c.get(Calendar.SECOND));
+                continue;
+            }
+            if (!matches(seconds, c.get(Calendar.SECOND))) {
+                c.add(Calendar.SECOND, 1);
+                continue;
+            }
+            if (!anyHour && isRepeatedWallTime(c.getTimeInMillis())) {
+                c.add(Calendar.SECOND, 1);
+                continue;
+            }
+            return c.getTimeInMillis();
+        }
+        return -1;
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    private boolean matchesDay(Calendar c) {
+        boolean dayOfMonth = matches(daysOfMonth, c.get(Calendar.DAY_OF_MONTH));
+        boolean dayOfWeek = matches(daysOfWeek, c.get(Calendar.DAY_OF_WEEK) - 1);
+        return dayOr ? dayOfMonth || dayOfWeek : dayOfMonth && dayOfWeek;
+    }
+
+    /**
+     * 时钟回拨(如夏令时结束)后，同一本地时间在更早的时刻已经出现过
+     */
+    private boolean isRepeatedWallTime(long millis) {
+        int offset = timeZone.getOffset(millis);
+        int before = timeZone.getOffset(millis - OFFSET_LOOKBACK_MILLIS);
+        if (before <= offset) {
+            return false;
+        }
+        return timeZone.getOffset(millis - (before - offset)) == before;
+    }
+
+    private static boolean isWildcard(String field) {
+        return field.startsWith("*") || field.startsWith("?");
+    }
+
+    private static boolean matches(long bits, int value) {
+        return (bits & (1L << value)) != 0;
+    }
+
+    private static long parseField(String field, int min, int max, String[] names) {
+        long bits = 0;
+        for (String part : Splitter.on(',').split(field)) {
+            int step = 1;
+            int slash = part.indexOf('/');
+            if (slash >= 0) {
+                step = Integer.parseInt(part.substring(slash + 1));
+                part = part.substring(0, slash);
+                if (step < 1) {
+                    throw new IllegalArgumentException("Illegal cron step.field=" + field);
+                }
+            }
+            int start;
+            int end;
+            if ("*".equals(part) || "?".equals(part)) {
+                start = min;
+                end = max;
+            } else {
+                int dash = part.indexOf('-');
+                if (dash > 0) {
+                    start = parseValue(part.substring(0, dash), names, min);
+                    end = parseValue(part.substring(dash + 1), names, min);
+                } else {
+                    start = parseValue(part, names, min);
+                    end = slash >= 0 ? max : start;
+                }
+            }
+            if (start < min || end > max || start > end) {
+                throw new IllegalArgumentException("Cron field out of range.field=" + field);
+            }
+            for (int v = start; v <= end; v += step) {
+                bits |= 1L << v;
+            }
+        }
+        return bits;
+    }
+
+    private static int parseValue(String value, String[] names, int min) {
+        if (names != null) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equalsIgnoreCase(value)) {
+                    return i + min;
+                }
+            }
+        }
+        return Integer.parseInt(value);
+    }
+}
@@ -0,0 +1,92 @@
+package com.royww.op.eve.schedule;
+
+import com.google.common.collect.Lists;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 单锁 + 二叉堆的调度核心
+ * <p>
+ * 与 {@link DelayQueue} 的实现方式相同，插入 O(log n)；批量加入时只获取一次锁。
+ * 实现简单，作为其他调度核心的参照实现。
+ * </p>
+ */
+public class DelayQueueEngine implements ScheduleEngine {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final PriorityQueue<Schedule> timeLine = new PriorityQueue<Schedule>();
+
+    @Override
+    public void offer(Schedule schedule) {
+        lock.lock();
+        try {
+            timeLine.offer(schedule);
+            if (timeLine.peek() == schedule) {
+                available.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void offerAll(Collection<Schedule> schedules) {
+        lock.lock();
+        try {
+            timeLine.addAll(schedules);
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Schedule take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                Schedule first = timeLine.peek();
+                if (first == null) {
+                    available.await();
+                    continue;
+                }
+                long delay = first.getDelay(TimeUnit.NANOSECONDS);
+                if (delay <= 0) {
+                    return timeLine.poll();
+                }
+                available.awaitNanos(delay);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Schedule> drain() {
+        lock.lock();
+        try {
+            List<Schedule> schedules = Lists.newArrayList(timeLine);
+            timeLine.clear();
+            return schedules;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return timeLine.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
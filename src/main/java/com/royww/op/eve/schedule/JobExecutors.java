@@ -0,0 +1,150 @@
+package com.royww.op.eve.schedule;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+
+/**
+ * 任务执行策略
+ * <p>
+ * 提供三种执行方式，供 {@link SchedulerExecutor} 使用：
+ * IO 密集型任务使用 {@link #threadPerJob()}，CPU 密集型任务使用 {@link #workStealing(int)}，
+ * 需要限制并发和排队数量时使用 {@link #boundedPool(int, int, BackPressure)}。
+ * </p>
+ */
+public final class JobExecutors {
+
+    static Logger logger = LoggerFactory.getLogger(JobExecutors.class);
+
+    private JobExecutors() {
+    }
+
+    /**
+     * 每个任务一个线程。运行在支持虚拟线程的 JVM 上时使用虚拟线程，否则退化为不限数量的守护线程池
+     */
+    public static ExecutorService threadPerJob() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (NoSuchMethodException e) {
+            logger.info("Virtual threads not supported, fall back to cached thread pool.");
+        } catch (Exception e) {
+            logger.warn("Create virtual thread executor error, fall back to cached thread pool.", e);
+        }
+        return Executors.newCachedThreadPool(threadFactory("eve-job-%d"));
+    }
+
+    /**
+     * 工作窃取线程池，适合 CPU 密集型任务
+     *
+     * @param parallelism 并行度，一般为 CPU 核数
+     */
+    public static ExecutorService workStealing(int parallelism) {
+        return new ForkJoinPool(parallelism, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("eve-job-fj-" + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, null, true);
+    }
+
+    /**
+     * 固定大小的线程池
+     * <p>
+     * 核心线程数与最大线程数相同，任务到来即创建线程直到 threads 个，空闲 60 秒后回收。
+     * 排队已满时按 backPressure 处理。
+     * </p>
+     *
+     * @param threads       线程数
+     * @param queueCapacity 排队任务数上限
+     */
+    public static ExecutorService boundedPool(int threads, int queueCapacity, BackPressure backPressure) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), threadFactory("eve-job-%d"),
+                backPressure.handler());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static ThreadFactory threadFactory(String nameFormat) {
+        return new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build();
+    }
+
+    /**
+     * 线程池排队已满时的处理方式
+     */
+    public enum BackPressure {
+        /**
+         * 拒绝本次执行，调度器记录 rejected 指标并打印日志，周期任务继续下一周期。
+         * 扫描线程不会被阻塞，其他任务照常调度
+         */
+        REJECT {
+            @Override
+            RejectedExecutionHandler handler() {
+                return new ThreadPoolExecutor.AbortPolicy();
+            }
+        },
+        /**
+         * 由提交任务的线程(调度扫描线程)直接执行，期间暂停取出新的到期任务，调度器中所有任务都会延迟
+         */
+        CALLER_RUNS {
+            @Override
+            RejectedExecutionHandler handler() {
+                return new ThreadPoolExecutor.CallerRunsPolicy();
+            }
+        },
+        /**
+         * 阻塞提交任务的线程直到有空闲的排队位置，期间扫描线程停止，调度器中所有任务都会延迟
+         */
+        BLOCK {
+            @Override
+            RejectedExecutionHandler handler() {
+                return new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        if (executor.isShutdown()) {
+                            throw new RejectedExecutionException("Executor has been shut down.");
+                        }
+                        try {
+                            executor.getQueue().put(r);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new RejectedExecutionException("Interrupted while waiting for queue.", e);
+                        }
+                    }
+                };
+            }
+        },
+        /**
+         * 丢弃排队最久的任务，周期任务跳过该次执行并继续下一周期
+         */
+        DROP_OLDEST {
+            @Override
+            RejectedExecutionHandler handler() {
+                return new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        if (executor.isShutdown()) {
+                            throw new RejectedExecutionException("Executor has been shut down.");
+                        }
+                        Runnable dropped = executor.getQueue().poll();
+                        if (dropped instanceof Schedule) {
+                            Schedule schedule = (Schedule) dropped;
+                            logger.warn("Job queue is full, drop oldest job.job={}", schedule.getJob().getClass().getName());
+                            schedule.skip(new RejectedExecutionException("Dropped by back pressure."));
+                        }
+                        executor.execute(r);
+                    }
+                };
+            }
+        };
+
+        abstract RejectedExecutionHandler handler();
+    }
+}
@@ -0,0 +1,145 @@
+package com.royww.op.eve.schedule;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 已注册任务的句柄
+ * <p>
+ * cancel 只给当前的 {@link Schedule} 打上取消标记，不从调度核心中删除，为 O(1)。
+ * reschedule 取消当前的 Schedule 并加入一个新的，之后的执行时间按原触发方式推算。
+ * </p>
+ * <p>
+ * {@link #getFuture()} 在任务最后一次执行完成时结束，任务抛出异常时以该异常结束，取消时被取消。
+ * 周期任务和 cron 任务只会在取消或表达式不再触发时结束。
+ * </p>
+ */
+public final class JobHandle {
+
+    private final SchedulerExecutor owner;
+    private final JobMetrics metrics;
+    //分片调度时任务标识的哈希，不参与分片的任务为 null
+    private final Long shardHash;
+    private final SettableFuture<Void> future = SettableFuture.create();
+    private volatile Schedule current;
+    //在 JobJournal 中的ID，0 表示不持久化
+    private long journalId;
+
+    JobHandle(SchedulerExecutor owner, JobMetrics metrics, Long shardHash) {
+        this.owner = owner;
+        this.metrics = metrics;
+        this.shardHash = shardHash;
+    }
+
+    Long getShardHash() {
+        return shardHash;
+    }
+
+    JobMetrics getMetrics() {
+        return metrics;
+    }
+
+    void setCurrent(Schedule schedule) {
+        this.current = schedule;
+    }
+
+    Schedule getCurrent() {
+        return current;
+    }
+
+    long getJournalId() {
+        return journalId;
+    }
+
+    void setJournalId(long journalId) {
+        this.journalId = journalId;
+    }
+
+    /**
+     * 取消任务，正在执行的不会被中断
+     * @return 任务已结束时返回 false
+     */
+    public synchronized boolean cancel() {
+        if (future.isDone()) {
+            return false;
+        }
+        current.cancel();
+        future.cancel(false);
+        owner.journalRemove(this);
+        return true;
+    }
+
+    /**
+     * 调度器关闭时放弃任务，日志中仍保留，重启后恢复
+     */
+    synchronized void abandon() {
+        if (future.isDone()) {
+            return;
+        }
+        current.cancel();
+        future.cancel(false);
+    }
+
+    /**
+     * 把下一次执行改到 delay 之后
+     * @return 任务已结束时返回 false
+     */
+    public synchronized boolean reschedule(long delay, TimeUnit unit) {
+        if (future.isDone()) {
+            return false;
+        }
+        Schedule old = current;
+        old.cancel();
+        current = old.copyAt(unit.toNanos(delay));
+        owner.journalUpdate(this, current);
+        owner.reschedule(current);
+        return true;
+    }
+
+    /**
+     * @return 下次执行的时间(毫秒)，任务已结束时返回 -1
+     */
+    public long nextFireTime() {
+        Schedule schedule = current;
+        if (future.isDone() || schedule.isCancelled()) {
+            return -1;
+        }
+        return System.currentTimeMillis() + schedule.getDelay(TimeUnit.MILLISECONDS);
+    }
+
+    public ListenableFuture<Void> getFuture() {
+        return future;
+    }
+
+    public boolean isCancelled() {
+        return future.isCancelled();
+    }
+
+    public boolean isDone() {
+        return future.isDone();
+    }
+
+    /**
+     * 一次执行结束(或被跳过)后调用，计算下次执行时间并重新加入调度
+     * @param error 本次执行的异常，没有时为 null
+     */
+    synchronized void afterRun(Schedule schedule, Throwable error) {
+        //已被取消或改期
+        if (schedule != current || schedule.isCancelled()) {
+            return;
+        }
+        if (schedule.computeNextExecuteTime()) {
+            owner.journalUpdate(this, schedule);
+            owner.reschedule(schedule);
+            return;
+        }
+        owner.journalRemove(this);
+        if (error != null) {
+            future.setException(error);
+        } else {
+            future.set(null);
+        }
+    }
+}
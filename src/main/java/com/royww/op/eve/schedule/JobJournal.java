@@ -0,0 +1,515 @@
+package com.royww.op.eve.schedule;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * 任务日志，用于重启后恢复未执行的任务
+ * <p>
+ * 只追加写入内存映射文件，记录任务的注册、下次执行时间变化和删除。写入只是一次内存拷贝，
+ * 进程崩溃时数据已在页缓存中；后台线程每隔 flushInterval 把脏页刷到磁盘(组提交)，
+ * 机器掉电时最多丢失这段时间内的记录。刷盘在锁外进行，写入方不会等待磁盘。
+ * </p>
+ * <p>
+ * 记录格式：[长度 int][类型 byte][任务ID long][下次执行时间(毫秒) long][offsetIndex int][类名长度 short][类名][CRC32 int]。
+ * 恢复时读到长度为 0 或校验失败的记录即停止，之后的内容视为未写完的记录。
+ * 文件使用超过 3/4 时，由后台线程把仍有效的任务写入新文件并替换旧文件(压缩)，有效数据过多时文件容量翻倍。
+ * 压缩期间写入继续追加到旧文件，切换时在锁内把这段时间追加的记录原样复制到新文件末尾，
+ * 写新文件和刷盘都在锁外进行。只有文件写满而压缩还未完成时，写入方才等待压缩完成。
+ * </p>
+ */
+public final class JobJournal implements Closeable {
+
+    static Logger logger = LoggerFactory.getLogger(JobJournal.class);
+
+    private static final int MAGIC = 0x45564A4C;
+    private static final int HEADER_SIZE = 4;
+    private static final int DEFAULT_CAPACITY = 64 << 20;
+    private static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 10;
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+    private static final int MAX_CLASS_NAME_LENGTH = Short.MAX_VALUE;
+    //类型 + ID + 时间 + offsetIndex + 类名长度
+    private static final int FIXED_BODY_SIZE = 1 + 8 + 8 + 4 + 2;
+
+    private static final byte REGISTER = 1;
+    private static final byte UPDATE = 2;
+    private static final byte REMOVE = 3;
+
+    private final File file;
+    private final long flushIntervalMillis;
+    private int capacity;
+
+    private RandomAccessFile randomAccessFile;
+    private MappedByteBuffer buffer;
+    private final ByteBuffer scratch = ByteBuffer.allocate(FIXED_BODY_SIZE + MAX_CLASS_NAME_LENGTH);
+    private final CRC32 crc = new CRC32();
+    private final Map<Long, Entry> live = Maps.newHashMap();
+    private long nextId = 1;
+    private boolean dirty;
+    //已提交压缩任务，尚未完成
+    private boolean compacting;
+    private boolean opened;
+    private boolean closed;
+    private ScheduledExecutorService flusher;
+
+    /**
+     * 64M 容量，每 10 毫秒刷盘
+     */
+    public JobJournal(File file) {
+        this(file, DEFAULT_CAPACITY, DEFAULT_FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param capacity      文件初始容量(字节)
+     * @param flushInterval 刷盘间隔
+     */
+    public JobJournal(File file, int capacity, long flushInterval, TimeUnit unit) {
+        if (capacity < HEADER_SIZE + FIXED_BODY_SIZE + MAX_CLASS_NAME_LENGTH + 8) {
+            throw new IllegalArgumentException("Journal capacity too small.capacity=" + capacity);
+        }
+        this.file = file;
+        this.capacity = capacity;
+        this.flushIntervalMillis = Math.max(1, unit.toMillis(flushInterval));
+    }
+
+    /**
+     * 打开日志并读取仍有效的任务
+     * @return 按下次执行时间升序排列
+     */
+    synchronized List<Entry> open() throws IOException {
+        if (opened) {
+            throw new IllegalStateException("Journal already opened.file=" + file);
+        }
+        opened = true;
+        if (file.exists() && file.length() > capacity) {
+            capacity = (int) Math.min(Integer.MAX_VALUE, file.length());
+        }
+        map();
+        if (buffer.getInt(0) != MAGIC) {
+            buffer.putInt(0, MAGIC);
+            buffer.position(HEADER_SIZE);
+        } else {
+            replay();
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("eve-job-journal-flusher").setDaemon(true).build());
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+
+        List<Entry> entries = Lists.newArrayList(live.values());
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry o1, Entry o2) {
+                return o1.nextFireTime > o2.nextFireTime ? 1 : (o1.nextFireTime < o2.nextFireTime ? -1 : 0);
+            }
+        });
+        logger.info("Job journal opened.file={} jobs={}", file, entries.size());
+        return entries;
+    }
+
+    /**
+     * 记录新注册的任务
+     * @return 任务ID
+     */
+    synchronized long register(String className, long nextFireTime, int offsetIndex) {
+        long id = nextId++;
+        Entry entry = new Entry(id, className, nextFireTime, offsetIndex);
+        live.put(id, entry);
+        append(REGISTER, entry);
+        return id;
+    }
+
+    /**
+     * 记录任务的下次执行时间
+     */
+    synchronized void update(long id, long nextFireTime, int offsetIndex) {
+        Entry entry = live.get(id);
+        if (entry == null) {
+            return;
+        }
+        entry.nextFireTime = nextFireTime;
+        entry.offsetIndex = offsetIndex;
+        append(UPDATE, entry);
+    }
+
+    /**
+     * 记录任务已完成或被取消
+     */
+    synchronized void remove(long id) {
+        Entry entry = live.remove(id);
+        if (entry != null) {
+            append(REMOVE, entry);
+        }
+    }
+
+    /**
+     * 刷盘并关闭，之后的写入被忽略
+     */
+    @Override
+    public void close() {
+        ScheduledExecutorService executor;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+            executor = flusher;
+        }
+        if (executor != null) {
+            //进行中的压缩看到 closed 后放弃，等待它删除临时文件
+            executor.shutdown();
+            try {
+                executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (buffer != null) {
+                buffer.force();
+                closeQuietly();
+            }
+        }
+    }
+
+    /**
+     * 锁内只取出待刷的映射并清除脏标记，刷盘期间写入可以继续，新的写入由下一次刷盘负责
+     */
+    private void flush() {
+        MappedByteBuffer toForce;
+        synchronized (this) {
+            if (!dirty || closed) {
+                return;
+            }
+            dirty = false;
+            toForce = buffer;
+        }
+        toForce.force();
+    }
+
+    private void map() throws IOException {
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        if (randomAccessFile.length() < capacity) {
+            randomAccessFile.setLength(capacity);
+        }
+        buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private void closeQuietly() {
+        try {
+            randomAccessFile.close();
+        } catch (IOException e) {
+            logger.error("Close journal error.file={}", file, e);
+        }
+    }
+
+    private void replay() {
+        int position = HEADER_SIZE;
+        while (position + 4 <= capacity) {
+            int length = buffer.getInt(position);
+            //损坏的长度可能接近 Integer.MAX_VALUE，比较时不能相加以免溢出
+            if (length < FIXED_BODY_SIZE || length > capacity - position - 8) {
+                break;
+            }
+            crc.reset();
+            for (int i = position + 4; i < position + 4 + length; i++) {
+                crc.update(buffer.get(i));
+            }
+            if ((int) crc.getValue() != buffer.getInt(position + 4 + length)) {
+                logger.warn("Job journal record corrupted, ignore the rest.file={} position={}", file, position);
+                break;
+            }
+            int p = position + 4;
+            byte type = buffer.get(p);
+            long id = buffer.getLong(p + 1);
+            long nextFireTime = buffer.getLong(p + 9);
+            int offsetIndex = buffer.getInt(p + 17);
+            int nameLength = buffer.getShort(p + 21);
+            if (nameLength < 0 || nameLength > length - FIXED_BODY_SIZE) {
+                logger.warn("Job journal record corrupted, ignore the rest.file={} position={}", file, position);
+                break;
+            }
+            nextId = Math.max(nextId, id + 1);
+            if (type == REGISTER) {
+                byte[] name = new byte[nameLength];
+                for (int i = 0; i < nameLength; i++) {
+                    name[i] = buffer.get(p + FIXED_BODY_SIZE + i);
+                }
+                live.put(id, new Entry(id, new String(name, Charsets.UTF_8), nextFireTime, offsetIndex));
+            } else if (type == UPDATE) {
+                Entry entry = live.get(id);
+                if (entry != null) {
+                    entry.nextFireTime = nextFireTime;
+                    entry.offsetIndex = offsetIndex;
+                }
+            } else {
+                live.remove(id);
+            }
+            position += 4 + length + 4;
+        }
+        //清除未写完的记录，避免之后被当作有效记录
+        for (int i = position; i < Math.min(capacity, position + 8); i++) {
+            buffer.put(i, (byte) 0);
+        }
+        buffer.position(position);
+    }
+
+    private void append(byte type, Entry entry) {
+        if (closed || !opened) {
+            return;
+        }
+        byte[] name = type == REGISTER ? entry.className.getBytes(Charsets.UTF_8) : new byte[0];
+        if (name.length > MAX_CLASS_NAME_LENGTH) {
+            logger.error("Job class name too long.job={}", entry.className);
+            return;
+        }
+        int length = FIXED_BODY_SIZE + name.length;
+        if (!compacting && buffer.position() + 4 + length + 4 + 4 > capacity * 3L / 4) {
+            compacting = true;
+            flusher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    compact();
+                }
+            });
+        }
+        if (buffer.position() + 4 + length + 4 + 4 > capacity) {
+            //后台压缩跟不上写入时等待压缩完成，而不是丢弃记录
+            while (compacting && !closed && buffer.position() + 4 + length + 4 + 4 > capacity) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            //等待期间任务可能已被删除，压缩结果中已是最新状态
+            if (closed || (type != REMOVE && live.get(entry.id) != entry)) {
+                return;
+            }
+            if (buffer.position() + 4 + length + 4 + 4 > capacity) {
+                logger.error("Job journal is full, record dropped.file={} job={}", file, entry.className);
+                return;
+            }
+        }
+        scratch.clear();
+        scratch.put(type).putLong(entry.id).putLong(entry.nextFireTime).putInt(entry.offsetIndex)
+                .putShort((short) name.length).put(name);
+        writeRecord(buffer, scratch.array(), length);
+        //结尾写 0 作为结束标记
+        buffer.putInt(buffer.position(), 0);
+        dirty = true;
+    }
+
+    private void writeRecord(ByteBuffer target, byte[] body, int length) {
+        crc.reset();
+        crc.update(body, 0, length);
+        target.putInt(length);
+        target.put(body, 0, length);
+        target.putInt((int) crc.getValue());
+    }
+
+    /**
+     * 在刷盘线程中执行
+     * <p>
+     * 锁内取出有效任务的副本和当前写入位置，锁外写入临时文件并刷盘；再次加锁后把期间追加的记录复制到临时文件末尾，
+     * 替换日志文件并重新映射。最后在锁外刷新新文件并同步目录，使替换本身落盘。
+     * </p>
+     */
+    private void compact() {
+        List<Entry> entries;
+        int mark;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            entries = Lists.newArrayListWithCapacity(live.size());
+            for (Entry entry : live.values()) {
+                entries.add(new Entry(entry.id, entry.className, entry.nextFireTime, entry.offsetIndex));
+            }
+            mark = buffer.position();
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        boolean replaced = false;
+        try {
+            RandomAccessFile tmpFile = new RandomAccessFile(tmp, "rw");
+            try {
+                FileChannel channel = tmpFile.getChannel();
+                long liveBytes = writeLive(channel, entries);
+                channel.force(true);
+                synchronized (this) {
+                    if (closed) {
+                        return;
+                    }
+                    switchTo(tmp, channel, liveBytes, mark);
+                    replaced = true;
+                }
+            } finally {
+                tmpFile.close();
+            }
+        } catch (IOException e) {
+            logger.error("Compact job journal error.file={}", file, e);
+        } finally {
+            synchronized (this) {
+                compacting = false;
+                notifyAll();
+            }
+            if (!replaced && tmp.exists() && !tmp.delete()) {
+                logger.warn("Delete compact temp file failed.file={}", tmp);
+            }
+        }
+        if (replaced) {
+            flush();
+            syncDirectory();
+        }
+    }
+
+    /**
+     * 写入文件头和有效任务
+     * @return 写入的字节数
+     */
+    private long writeLive(FileChannel channel, List<Entry> entries) throws IOException {
+        channel.truncate(0);
+        ByteBuffer out = ByteBuffer.allocate(64 << 10);
+        out.putInt(MAGIC);
+        long written = 0;
+        CRC32 recordCrc = new CRC32();
+        for (Entry entry : entries) {
+            byte[] name = entry.className.getBytes(Charsets.UTF_8);
+            int length = FIXED_BODY_SIZE + name.length;
+            if (out.remaining() < 4 + length + 4) {
+                out.flip();
+                written += writeFully(channel, out, written);
+                out.clear();
+            }
+            int bodyStart = out.position() + 4;
+            out.putInt(length).put(REGISTER).putLong(entry.id).putLong(entry.nextFireTime).putInt(entry.offsetIndex)
+                    .putShort((short) name.length).put(name);
+            recordCrc.reset();
+            recordCrc.update(out.array(), bodyStart, length);
+            out.putInt((int) recordCrc.getValue());
+        }
+        out.flip();
+        written += writeFully(channel, out, written);
+        return written;
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer src, long position) throws IOException {
+        int length = src.remaining();
+        while (src.hasRemaining()) {
+            position += channel.write(src, position);
+        }
+        return length;
+    }
+
+    /**
+     * 持有锁时调用，把 mark 之后追加的记录复制到临时文件并替换日志文件
+     * <p>
+     * 压缩与刷盘在同一线程，mark 之后的记录在旧文件中也还没有刷盘，这里不刷盘不会降低持久性。
+     * </p>
+     */
+    private void switchTo(File tmp, FileChannel channel, long liveBytes, int mark) throws IOException {
+        ByteBuffer tail = buffer.duplicate();
+        tail.limit(buffer.position()).position(mark);
+        long used = liveBytes + tail.remaining();
+        int newCapacity = capacity;
+        while (used > newCapacity / 2 && newCapacity <= Integer.MAX_VALUE / 2) {
+            newCapacity *= 2;
+        }
+        writeFully(channel, tail, liveBytes);
+        //map 时扩展到新容量，扩展部分为 0，即结束标记
+        channel.truncate(used);
+        closeQuietly();
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        capacity = newCapacity;
+        map();
+        buffer.position((int) used);
+        //复制过来的记录尚未刷盘
+        dirty = true;
+        logger.info("Job journal compacted.file={} jobs={} capacity={}", file, live.size(), capacity);
+    }
+
+    /**
+     * 同步目录，使文件替换落盘，不支持的平台上忽略
+     */
+    private void syncDirectory() {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir == null) {
+            return;
+        }
+        try {
+            FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            logger.debug("Sync journal directory not supported.dir={}", dir, e);
+        }
+    }
+
+    /**
+     * 日志中的任务
+     */
+    public static final class Entry {
+        private final long id;
+        private final String className;
+        private long nextFireTime;
+        private int offsetIndex;
+
+        Entry(long id, String className, long nextFireTime, int offsetIndex) {
+            this.id = id;
+            this.className = className;
+            this.nextFireTime = nextFireTime;
+            this.offsetIndex = offsetIndex;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        /**
+         * @return 下次执行时间(毫秒)
+         */
+        public long getNextFireTime() {
+            return nextFireTime;
+        }
+
+        public int getOffsetIndex() {
+            return offsetIndex;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.royww.op.eve.schedule;
+
+import com.google.common.collect.Maps;
+import com.royww.op.eve.metrics.LatencyHistogram;
+import com.royww.op.eve.metrics.StripedCounter;
+
+import java.util.Map;
+
+/**
+ * 任务指标，按任务类区分
+ * <p>
+ * 延迟(lateness)：扫描线程取出任务的时间 - 计划执行时间，反映扫描线程是否及时；
+ * 排队(queueWait)：开始执行时间 - 交给线程池的时间，反映线程池是否饱和；
+ * 执行(execution)：任务本身的耗时。
+ * 记录只使用分段计数器和直方图的原子加，无锁。
+ * </p>
+ */
+public final class JobMetrics implements JobMetricsMXBean {
+
+    private final String jobClass;
+    private final StripedCounter executed = new StripedCounter();
+    private final StripedCounter failed = new StripedCounter();
+    private final StripedCounter rejected = new StripedCounter();
+    private final StripedCounter skipped = new StripedCounter();
+    private final StripedCounter inFlight = new StripedCounter();
+    private final LatencyHistogram lateness = new LatencyHistogram();
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final LatencyHistogram execution = new LatencyHistogram();
+
+    JobMetrics(String jobClass) {
+        this.jobClass = jobClass;
+    }
+
+    void recordDispatched(long latenessNanos) {
+        lateness.record(latenessNanos);
+    }
+
+    void recordStarted(long queueWaitNanos) {
+        queueWait.record(queueWaitNanos);
+        inFlight.increment();
+    }
+
+    void recordFinished(long executionNanos, boolean success) {
+        inFlight.add(-1);
+        execution.record(executionNanos);
+        executed.increment();
+        if (!success) {
+            failed.increment();
+        }
+    }
+
+    void recordRejected() {
+        rejected.increment();
+    }
+
+    void recordSkipped() {
+        skipped.increment();
+    }
+
+    /**
+     * @return 供 {@link com.royww.op.eve.metrics.MetricsReporter} 上报的指标
+     */
+    public Map<String, Object> snapshot() {
+        LatencyHistogram.Snapshot latenessSnapshot = lateness.snapshot();
+        LatencyHistogram.Snapshot queueWaitSnapshot = queueWait.snapshot();
+        LatencyHistogram.Snapshot executionSnapshot = execution.snapshot();
+        Map<String, Object> metrics = Maps.newLinkedHashMap();
+        metrics.put("executed", getExecutedCount());
+        metrics.put("failed", getFailedCount());
+        metrics.put("rejected", getRejectedCount());
+        metrics.put("skipped", getSkippedCount());
+        metrics.put("inFlight", getInFlight());
+        metrics.put("latenessP50Nanos", latenessSnapshot.getPercentile(50));
+        metrics.put("latenessP99Nanos", latenessSnapshot.getPercentile(99));
+        metrics.put("latenessMaxNanos", latenessSnapshot.getMax());
+        metrics.put("queueWaitP50Nanos", queueWaitSnapshot.getPercentile(50));
+        metrics.put("queueWaitP99Nanos", queueWaitSnapshot.getPercentile(99));
+        metrics.put("queueWaitMaxNanos", queueWaitSnapshot.getMax());
+        metrics.put("executionP50Nanos", executionSnapshot.getPercentile(50));
+        metrics.put("executionP99Nanos", executionSnapshot.getPercentile(99));
+        metrics.put("executionMaxNanos", executionSnapshot.getMax());
+        return metrics;
+    }
+
+    @Override
+    public String getJobClass() {
+        return jobClass;
+    }
+
+    @Override
+    public long getExecutedCount() {
+        return executed.sum();
+    }
+
+    @Override
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    @Override
+    public long getSkippedCount() {
+        return skipped.sum();
+    }
+
+    @Override
+    public long getInFlight() {
+        return inFlight.sum();
+    }
+
+    @Override
+    public long getLatenessP99Nanos() {
+        return lateness.snapshot().getPercentile(99);
+    }
+
+    @Override
+    public long getLatenessMaxNanos() {
+        return lateness.snapshot().getMax();
+    }
+
+    @Override
+    public long getQueueWaitP99Nanos() {
+        return queueWait.snapshot().getPercentile(99);
+    }
+
+    @Override
+    public long getExecutionP50Nanos() {
+        return execution.snapshot().getPercentile(50);
+    }
+
+    @Override
+    public long getExecutionP99Nanos() {
+        return execution.snapshot().getPercentile(99);
+    }
+
+    @Override
+    public long getExecutionMaxNanos() {
+        return execution.snapshot().getMax();
+    }
+}
@@ -0,0 +1,43 @@
+package com.royww.op.eve.schedule;
+
+/**
+ * 任务指标的 JMX 接口
+ */
+public interface JobMetricsMXBean {
+
+    String getJobClass();
+
+    long getExecutedCount();
+
+    long getFailedCount();
+
+    long getRejectedCount();
+
+    /**
+     * @return 分片调度时由其他实例执行而跳过的次数
+     */
+    long getSkippedCount();
+
+    /**
+     * @return 正在执行的任务数
+     */
+    long getInFlight();
+
+    /**
+     * @return 扫描线程取出任务的时间与计划执行时间之差的 P99(纳秒)
+     */
+    long getLatenessP99Nanos();
+
+    long getLatenessMaxNanos();
+
+    /**
+     * @return 任务在线程池中排队时间的 P99(纳秒)
+     */
+    long getQueueWaitP99Nanos();
+
+    long getExecutionP50Nanos();
+
+    long getExecutionP99Nanos();
+
+    long getExecutionMaxNanos();
+}
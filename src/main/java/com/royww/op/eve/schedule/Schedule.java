@@ -0,0 +1,257 @@
+package com.royww.op.eve.schedule;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 时间任务
+ * <p>
+ * executeTime 基于 {@link System#nanoTime()}。next 字段供 {@link TimingWheelEngine} 在时间轮槽位中串成链表，
+ * 避免为每个任务额外分配链表节点。
+ * </p>
+ * <p>
+ * 任务执行完成后由本对象计算下次执行时间并重新加入调度，不再分配新的 Schedule。
+ * 固定频率和 cron 任务的下次执行时间由上次计划执行时间推算，不受实际执行时间影响，不会累积漂移。
+ * </p>
+ * <p>
+ * 取消只设置标记，任务仍留在调度核心中，到期时由扫描线程丢弃。
+ * </p>
+ */
+public final class Schedule implements Delayed, Runnable {
+
+    static Logger logger = LoggerFactory.getLogger(Schedule.class);
+
+    private volatile long executeTime;
+    private final Runnable job;
+    private final SchedulerExecutor.TriggerMode mode;
+    private final long periodNanos;
+    private final CronExpression cron;
+    //cron 任务上次计划执行的时间(毫秒)
+    private long scheduledWallTime;
+    //ONCE 任务各次执行相对 baseTime 的偏移，升序
+    private final long[] offsets;
+    private int offsetIndex;
+    private long baseTime;
+    private final JobHandle handle;
+    private volatile boolean cancelled;
+    //交给线程池的时间
+    private long dispatchTime;
+    //时间轮槽位链表
+    Schedule next;
+
+    private Schedule(Runnable job, long executeTime, SchedulerExecutor.TriggerMode mode, long periodNanos,
+                     CronExpression cron, long scheduledWallTime, long[] offsets, int offsetIndex, long baseTime,
+                     JobHandle handle) {
+        this.job = job;
+        this.executeTime = executeTime;
+        this.mode = mode;
+        this.periodNanos = periodNanos;
+        this.cron = cron;
+        this.scheduledWallTime = scheduledWallTime;
+        this.offsets = offsets;
+        this.offsetIndex = offsetIndex;
+        this.baseTime = baseTime;
+        this.handle = handle;
+    }
+
+    /**
+     * 在 intervals 中的每个时间点各执行一次
+     */
+    static Schedule once(Runnable job, long[] intervals, TimeUnit timeUnit, JobHandle handle) {
+        long[] offsets = new long[intervals.length];
+        for (int i = 0; i < intervals.length; i++) {
+            offsets[i] = timeUnit.toNanos(intervals[i]);
+        }
+        Arrays.sort(offsets);
+        long now = System.nanoTime();
+        return new Schedule(job, now + offsets[0], SchedulerExecutor.TriggerMode.ONCE, 0, null, 0,
+                offsets, 0, now, handle);
+    }
+
+    /**
+     * 固定频率或固定延迟的周期任务
+     * @param initialDelay 首次执行的延迟
+     * @param period       周期
+     */
+    static Schedule periodic(Runnable job, SchedulerExecutor.TriggerMode mode, long initialDelay, long period,
+                             TimeUnit timeUnit, JobHandle handle) {
+        return new Schedule(job, System.nanoTime() + timeUnit.toNanos(initialDelay), mode,
+                timeUnit.toNanos(period), null, 0, null, 0, 0, handle);
+    }
+
+    /**
+     * cron 任务
+     * @return 表达式永远不会触发时返回 null
+     */
+    static Schedule cron(Runnable job, CronExpression cron, JobHandle handle) {
+        long nowWall = System.currentTimeMillis();
+        long nowNano = System.nanoTime();
+        long nextWall = cron.next(nowWall);
+        if (nextWall < 0) {
+            return null;
+        }
+        return new Schedule(job, nowNano + TimeUnit.MILLISECONDS.toNanos(nextWall - nowWall),
+                SchedulerExecutor.TriggerMode.CRON, 0, cron, nextWall, null, 0, 0, handle);
+    }
+
+    /**
+     * 复制一个 delayNanos 后执行的任务，之后的执行时间按原来的方式推算。
+     * 已加入调度核心的对象不能修改执行时间，改期时用新对象替换旧对象
+     */
+    Schedule copyAt(long delayNanos) {
+        long newExecuteTime = System.nanoTime() + delayNanos;
+        return new Schedule(job, newExecuteTime, mode, periodNanos, cron,
+                System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(delayNanos),
+                offsets, offsetIndex, baseTime + (newExecuteTime - executeTime), handle);
+    }
+
+    /**
+     * 从 {@link JobJournal} 恢复的任务，delayNanos 后执行，ONCE 任务从第 offsetIndex 个时间点继续
+     */
+    Schedule restoreAt(long delayNanos, int offsetIndex) {
+        if (offsets != null && (offsetIndex < 0 || offsetIndex >= offsets.length)) {
+            throw new IllegalArgumentException("Illegal offsetIndex.offsetIndex=" + offsetIndex);
+        }
+        long newExecuteTime = System.nanoTime() + delayNanos;
+        return new Schedule(job, newExecuteTime, mode, periodNanos, cron,
+                System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(delayNanos),
+                offsets, offsetIndex, offsets == null ? 0 : newExecuteTime - offsets[offsetIndex], handle);
+    }
+
+    /**
+     * @return 下次执行时间(毫秒)
+     */
+    long nextFireWallTime() {
+        return System.currentTimeMillis() + getDelay(TimeUnit.MILLISECONDS);
+    }
+
+    int getOffsetIndex() {
+        return offsetIndex;
+    }
+
+    /**
+     * 扫描线程交给线程池前调用
+     */
+    void dispatched() {
+        dispatchTime = System.nanoTime();
+        handle.getMetrics().recordDispatched(dispatchTime - executeTime);
+    }
+
+    @Override
+    public void run() {
+        if (cancelled) {
+            return;
+        }
+        JobMetrics metrics = handle.getMetrics();
+        long start = System.nanoTime();
+        metrics.recordStarted(start - dispatchTime);
+        Throwable error = null;
+        try {
+            job.run();
+        } catch (RuntimeException e) {
+            logger.error("Job execute error.job={}", job.getClass().getName(), e);
+            error = e;
+        } catch (Error e) {
+            //先在 finally 中记录失败并结束 future，再交给线程池处理
+            logger.error("Job execute error.job={}", job.getClass().getName(), e);
+            error = e;
+            throw e;
+        } finally {
+            metrics.recordFinished(System.nanoTime() - start, error == null);
+            handle.afterRun(this, error);
+        }
+    }
+
+    /**
+     * 跳过本次执行(如被线程池拒绝)，周期任务继续下一周期
+     */
+    void skip(Throwable cause) {
+        handle.getMetrics().recordRejected();
+        if (!cancelled) {
+            handle.afterRun(this, cause);
+        }
+    }
+
+    /**
+     * 分片调度时本次执行由其他实例负责，继续计算下次执行时间
+     */
+    void skipNotOwned() {
+        handle.getMetrics().recordSkipped();
+        if (!cancelled) {
+            handle.afterRun(this, null);
+        }
+    }
+
+    /**
+     * 计算下次执行时间，周期任务错过的执行会被跳过
+     * @return 是否需要再次执行
+     */
+    boolean computeNextExecuteTime() {
+        long now = System.nanoTime();
+        switch (mode) {
+            case FIXED_RATE:
+                long time = executeTime + periodNanos;
+                if (time - now < 0) {
+                    time += ((now - time) / periodNanos + 1) * periodNanos;
+                }
+                executeTime = time;
+                return true;
+            case FIXED_DELAY:
+                executeTime = now + periodNanos;
+                return true;
+            case CRON:
+                long nextTime = executeTime;
+                do {
+                    long nextWall = cron.next(scheduledWallTime);
+                    if (nextWall < 0) {
+                        return false;
+                    }
+                    nextTime += TimeUnit.MILLISECONDS.toNanos(nextWall - scheduledWallTime);
+                    scheduledWallTime = nextWall;
+                } while (nextTime - now < 0);
+                executeTime = nextTime;
+                return true;
+            default:
+                if (++offsetIndex >= offsets.length) {
+                    return false;
+                }
+                executeTime = baseTime + offsets[offsetIndex];
+                return true;
+        }
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public Runnable getJob() {
+        return job;
+    }
+
+    public long getExecuteTime() {
+        return executeTime;
+    }
+
+    JobHandle getHandle() {
+        return handle;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+        return unit.convert(executeTime - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed o) {
+        Schedule s = (Schedule) o;
+        return executeTime > s.getExecuteTime() ? 1 : (executeTime < s.getExecuteTime() ? -1 : 0);
+    }
+}
@@ -0,0 +1,41 @@
+package com.royww.op.eve.schedule;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 调度核心
+ * <p>
+ * 保存待执行的 {@link Schedule}，并按执行时间交给 {@link SchedulerExecutor} 的扫描线程。
+ * offer 可以被任意线程并发调用，take 只由一个扫描线程调用。
+ * 已取消的任务也会被取出，由扫描线程丢弃，size 中包含这些任务。
+ * </p>
+ */
+public interface ScheduleEngine {
+
+    /**
+     * 加入一个时间任务
+     */
+    void offer(Schedule schedule);
+
+    /**
+     * 批量加入时间任务
+     */
+    void offerAll(Collection<Schedule> schedules);
+
+    /**
+     * 取出一个已到执行时间的任务，没有时阻塞
+     * @throws InterruptedException
+     */
+    Schedule take() throws InterruptedException;
+
+    /**
+     * 取出全部任务(包括未到期的)，只在扫描线程停止时由扫描线程调用
+     */
+    List<Schedule> drain();
+
+    /**
+     * @return 待执行的任务数
+     */
+    int size();
+}
@@ -1,5 +1,10 @@
 package com.royww.op.eve.schedule;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.royww.op.eve.distrubuted.ShardAssigner;
+import com.royww.op.eve.metrics.MBeans;
+import com.royww.op.eve.metrics.MetricsReporter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -7,109 +12,445 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.lang.reflect.Modifier;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 任务调度器
  * Created by roy.ww on 2015/12/07.
+ * <p>
+ * 调度核心可替换，默认使用 {@link DelayQueueEngine}；大量定时任务时可使用 {@link TimingWheelEngine}，插入为 O(1)。
+ * 任务的执行方式同样可替换，见 {@link JobExecutors}。
+ * </p>
+ * <p>
+ * 扫描线程为守护线程，不阻止 JVM 退出。不再使用时调用 {@link #shutdown()} 释放线程。
+ * </p>
+ * <p>
+ * 每个任务类的延迟、排队、执行耗时等指标见 {@link JobMetrics}，注册到 JMX，
+ * 设置 {@link MetricsReporter} 后定期上报。
+ * </p>
+ * <p>
+ * 配置 {@link JobJournal} 后任务的注册、执行和取消写入日志，重启后恢复。
+ * 执行完成到写入日志之间进程退出的任务，重启后会再执行一次。
+ * </p>
  */
 public class SchedulerExecutor {
 
     Logger logger = LoggerFactory.getLogger(SchedulerExecutor.class);
 
-    private static ExecutorService executorService = null;
+    private static final int DEFAULT_QUEUE_CAPACITY = 10000;
+    private static final long MONITOR_INTERVAL_SECONDS = 60;
+    private static final AtomicInteger SEQUENCE = new AtomicInteger();
 
-    private DelayQueue<Schedule> timeLineDelayQueue = new DelayQueue<Schedule>();
+    //生命周期状态
+    private static final int NEW = 0;
+    private static final int RUNNING = 1;
+    private static final int SHUTDOWN = 2;
+    private static final int STOP = 3;
+
+    private final ExecutorService executorService;
+
+    private final ScheduleEngine engine;
+
+    private final JobJournal journal;
+
+    //任务类是否可以持久化
+    private final ConcurrentMap<Class<?>, Boolean> durableClasses = Maps.newConcurrentMap();
+
+    private volatile List<JobHandle> restoredHandles = Collections.emptyList();
+
+    private final String name = "eve-scheduler-" + SEQUENCE.incrementAndGet();
+
+    private volatile int state = NEW;
+
+    private Thread scanThread;
+
+    //按任务类区分的指标
+    private final ConcurrentMap<Class<?>, JobMetrics> jobMetrics = Maps.newConcurrentMap();
+    private final List<ObjectName> objectNames = new CopyOnWriteArrayList<ObjectName>();
+    private volatile MetricsReporter metricsReporter;
+    private volatile ShardAssigner shardAssigner;
 
     public SchedulerExecutor(){
-        executorService = new ThreadPoolExecutor(5, 100, 1,
-                TimeUnit.HOURS, new ArrayBlockingQueue<Runnable>(10000), new ThreadPoolExecutor.AbortPolicy());
-        startThreads();
+        this(100);
     }
 
     /**
      * @param threadCount 线程池线程数量
      */
     public SchedulerExecutor(int threadCount){
-        executorService = new ThreadPoolExecutor(5, threadCount, 1,
-                TimeUnit.HOURS, new ArrayBlockingQueue<Runnable>(10000), new ThreadPoolExecutor.AbortPolicy());
-        startThreads();
+        this(threadCount, new DelayQueueEngine());
+    }
+
+    /**
+     * 使用固定大小线程池，排队满时拒绝本次执行(记录指标，周期任务继续下一周期)，不阻塞扫描线程
+     * @param threadCount 线程池线程数量
+     * @param engine 调度核心
+     */
+    public SchedulerExecutor(int threadCount, ScheduleEngine engine){
+        this(JobExecutors.boundedPool(threadCount, DEFAULT_QUEUE_CAPACITY, JobExecutors.BackPressure.REJECT), engine);
+    }
+
+    /**
+     * 创建时不启动线程，调用 {@link #start()} 或第一次注册任务时启动
+     * @param executorService 任务执行线程池，见 {@link JobExecutors}
+     * @param engine 调度核心
+     */
+    public SchedulerExecutor(ExecutorService executorService, ScheduleEngine engine){
+        this(executorService, engine, null);
+    }
+
+    /**
+     * 任务持久化到 journal，启动时恢复上次未执行的任务。
+     * 只有带 public 无参构造方法的任务类会被持久化，恢复时用该构造方法创建任务
+     * @param executorService 任务执行线程池，见 {@link JobExecutors}
+     * @param engine 调度核心
+     * @param journal 任务日志，为 null 时不持久化
+     */
+    public SchedulerExecutor(ExecutorService executorService, ScheduleEngine engine, JobJournal journal){
+        this.executorService = executorService;
+        this.engine = engine;
+        this.journal = journal;
+    }
+
+    /**
+     * 设置指标上报，由监控任务每 60 秒调用一次
+     */
+    public void setMetricsReporter(MetricsReporter metricsReporter) {
+        this.metricsReporter = metricsReporter;
+    }
+
+    /**
+     * 分片调度：每个实例保留全部任务，到期时只执行分配给自己的任务，其余的跳过本次执行。
+     * 实例加入或退出后，下一次到期的任务即按新的分片执行，不需要重新注册。
+     * 只有 {@link Trigger#sharded()} 为 true 的任务参与分片，其余任务仍在每个实例执行
+     * @param shardAssigner 为 null 时所有任务都在本实例执行
+     */
+    public void setShardAssigner(ShardAssigner shardAssigner) {
+        this.shardAssigner = shardAssigner;
+    }
+
+    /**
+     * @return 各任务类的指标
+     */
+    public Map<Class<?>, JobMetrics> getJobMetrics() {
+        return Collections.unmodifiableMap(jobMetrics);
+    }
+
+    /**
+     * 得到任务类对应的指标，第一次使用时注册到 JMX，
+     * ObjectName 为 com.royww.op.eve:type=SchedulerExecutor,name="调度器名.任务类名"
+     */
+    private JobMetrics metricsFor(Class<?> jobClass) {
+        JobMetrics metrics = jobMetrics.get(jobClass);
+        if (metrics == null) {
+            JobMetrics created = new JobMetrics(jobClass.getName());
+            metrics = jobMetrics.putIfAbsent(jobClass, created);
+            if (metrics == null) {
+                metrics = created;
+                ObjectName objectName = MBeans.register(created, SchedulerExecutor.class.getSimpleName(),
+                        name + "." + jobClass.getName());
+                if (objectName != null) {
+                    objectNames.add(objectName);
+                }
+            }
+        }
+        return metrics;
     }
 
     /**
-     * 启动相关线程
+     * 启动扫描线程(守护线程)及监控任务，重复调用无影响
+     * @throws RejectedExecutionException 已关闭
      */
-    private void startThreads(){
-        Thread scanThread = new Thread(new SchedulerScanThread());
+    public synchronized void start() {
+        if (state == RUNNING) {
+            return;
+        }
+        if (state != NEW) {
+            throw new RejectedExecutionException("SchedulerExecutor has been shut down.name=" + name);
+        }
+        if (journal != null) {
+            restore();
+        }
+        state = RUNNING;
+        scanThread = new Thread(new SchedulerScanThread(), name + "-scan");
+        scanThread.setDaemon(true);
         scanThread.start();
-        Thread monitorThread = new Thread(new Runnable() {
-            @Override
-            public void run() {
-                while (true){
-                    try {
-                        logger.info("SchedulerExecutor monitor.scheduleSize={}",timeLineDelayQueue.size());
-                        Thread.sleep(60000l);
-                    }catch (InterruptedException e){
-                        logger.error("MonitorThread Interrupted Exception.",e);
-                    }
+        register(new Monitor());
+    }
+
+    /**
+     * @return 启动时从 journal 恢复的任务
+     */
+    public List<JobHandle> getRestoredHandles() {
+        return restoredHandles;
+    }
+
+    /**
+     * 读取 journal 中的任务，按执行时间顺序一次加入调度核心
+     */
+    private void restore() {
+        List<JobJournal.Entry> entries;
+        try {
+            entries = journal.open();
+        } catch (IOException e) {
+            throw new IllegalStateException("Open job journal error.name=" + name, e);
+        }
+        long now = System.currentTimeMillis();
+        List<Schedule> schedules = Lists.newArrayListWithCapacity(entries.size());
+        List<JobHandle> handles = Lists.newArrayListWithCapacity(entries.size());
+        for (JobJournal.Entry entry : entries) {
+            try {
+                Runnable job = (Runnable) Class.forName(entry.getClassName()).newInstance();
+                Schedule schedule = newSchedule(job);
+                JobHandle handle = schedule.getHandle();
+                schedule = schedule.restoreAt(TimeUnit.MILLISECONDS.toNanos(entry.getNextFireTime() - now),
+                        entry.getOffsetIndex());
+                handle.setCurrent(schedule);
+                handle.setJournalId(entry.getId());
+                schedules.add(schedule);
+                handles.add(handle);
+            } catch (Exception e) {
+                logger.error("Restore job error.job={}", entry.getClassName(), e);
+                journal.remove(entry.getId());
+            }
+        }
+        engine.offerAll(schedules);
+        restoredHandles = Collections.unmodifiableList(handles);
+        logger.info("SchedulerExecutor restored jobs.name={} count={}", name, schedules.size());
+    }
+
+    /**
+     * 关闭调度器：不再接受新任务，尚未到期的任务被取消，已交给线程池的任务继续执行完成
+     */
+    public void shutdown() {
+        stop(SHUTDOWN);
+    }
+
+    /**
+     * 立即关闭调度器：尚未到期及线程池中排队的任务被取消，并中断正在执行的任务
+     */
+    public void shutdownNow() {
+        stop(STOP);
+    }
+
+    private synchronized void stop(int targetState) {
+        if (state >= targetState) {
+            return;
+        }
+        int previous = state;
+        state = targetState;
+        if (previous == NEW) {
+            //扫描线程未启动，直接关闭线程池
+            terminate();
+        } else {
+            scanThread.interrupt();
+        }
+    }
+
+    /**
+     * 等待扫描线程退出及线程池中的任务执行完成
+     * @return 超时返回 false
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        Thread thread;
+        synchronized (this) {
+            thread = scanThread;
+        }
+        if (thread != null) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining > 0) {
+                thread.join(remaining);
+            }
+            if (thread.isAlive()) {
+                return false;
+            }
+        }
+        return executorService.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    public boolean isShutdown() {
+        return state >= SHUTDOWN;
+    }
+
+    public boolean isTerminated() {
+        return isShutdown() && executorService.isTerminated();
+    }
+
+    /**
+     * 扫描线程退出后调用：取消调度核心中剩余的任务并关闭线程池
+     */
+    private void terminate() {
+        for (Schedule s : engine.drain()) {
+            if (!s.isCancelled()) {
+                s.getHandle().abandon();
+            }
+        }
+        if (state == STOP) {
+            for (Runnable r : executorService.shutdownNow()) {
+                if (r instanceof Schedule) {
+                    ((Schedule) r).getHandle().abandon();
                 }
             }
-        });
-        monitorThread.start();
+        } else {
+            executorService.shutdown();
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        for (ObjectName objectName : objectNames) {
+            MBeans.unregister(objectName);
+        }
+        objectNames.clear();
+        logger.info("SchedulerExecutor terminated.name={}", name);
     }
 
     /**
      * 注册一个时间任务
      *
-     * @param job
+     * @param job 需添加 {@link Trigger} 注解
+     * @return 任务句柄，可用于取消或改期
      */
-    public void register(final Runnable job) {
-        /*
-        验证任务定义的合法性
-         */
-        Trigger triggerAnnotation = job.getClass().getAnnotation(Trigger.class);
-        if (triggerAnnotation == null || triggerAnnotation.intervals() == null || triggerAnnotation.intervals().length == 0) {
-            throw new IllegalArgumentException("JobDetail object illegal.Must add annotation @Interface Trigger.class");
+    public JobHandle register(final Runnable job) {
+        ensureRunning();
+        Schedule schedule = newSchedule(job);
+        journalRegister(schedule);
+        engine.offer(schedule);
+        return schedule.getHandle();
+    }
+
+    /**
+     * 批量注册时间任务，所有任务一次加入调度核心
+     *
+     * @param jobs 需添加 {@link Trigger} 注解
+     * @return 与 jobs 顺序一致的任务句柄
+     */
+    public List<JobHandle> registerAll(Collection<? extends Runnable> jobs) {
+        ensureRunning();
+        List<Schedule> schedules = Lists.newArrayListWithCapacity(jobs.size());
+        List<JobHandle> handles = Lists.newArrayListWithCapacity(jobs.size());
+        for (Runnable job : jobs) {
+            Schedule schedule = newSchedule(job);
+            journalRegister(schedule);
+            schedules.add(schedule);
+            handles.add(schedule.getHandle());
         }
-        /*
-        计算任务的执行时间点，并加入到任务队列中(JOB_TIME_LINE)中
-         */
-        for (long interval : triggerAnnotation.intervals()) {
-            timeLineDelayQueue.offer(new Schedule(interval, triggerAnnotation.timeUnit(), job));
+        engine.offerAll(schedules);
+        return handles;
+    }
+
+    private void journalRegister(Schedule schedule) {
+        if (journal != null && isDurable(schedule.getJob().getClass())) {
+            schedule.getHandle().setJournalId(journal.register(schedule.getJob().getClass().getName(),
+                    schedule.nextFireWallTime(), schedule.getOffsetIndex()));
+        }
+    }
+
+    void journalUpdate(JobHandle handle, Schedule schedule) {
+        if (handle.getJournalId() != 0) {
+            journal.update(handle.getJournalId(), schedule.nextFireWallTime(), schedule.getOffsetIndex());
         }
+    }
 
+    void journalRemove(JobHandle handle) {
+        if (handle.getJournalId() != 0) {
+            journal.remove(handle.getJournalId());
+        }
     }
 
     /**
-     * 时间任务
+     * 可以持久化的任务类：public 且有 public 无参构造方法，内部类需为 static
      */
-    private class Schedule implements Delayed {
-        private long executeTime;
-        private Runnable job;
-
-        public Schedule(long intervalTime, TimeUnit timeUnit, Runnable job) {
-            this.executeTime = TimeUnit.NANOSECONDS.convert(intervalTime, timeUnit) + System.nanoTime();
-            this.job = job;
+    private boolean isDurable(Class<?> jobClass) {
+        Boolean durable = durableClasses.get(jobClass);
+        if (durable == null) {
+            durable = Modifier.isPublic(jobClass.getModifiers())
+                    && (jobClass.getEnclosingClass() == null || Modifier.isStatic(jobClass.getModifiers()));
+            if (durable) {
+                try {
+                    jobClass.getConstructor();
+                } catch (NoSuchMethodException e) {
+                    durable = false;
+                }
+            }
+            durableClasses.put(jobClass, durable);
         }
+        return durable;
+    }
 
-        public Runnable getJob() {
-            return job;
+    private void ensureRunning() {
+        if (state != RUNNING) {
+            start();
         }
+    }
 
-        public long getExecuteTime() {
-            return executeTime;
+    private Schedule newSchedule(Runnable job) {
+        /*
+        验证任务定义的合法性
+         */
+        Trigger triggerAnnotation = job.getClass().getAnnotation(Trigger.class);
+        if (triggerAnnotation == null) {
+            throw new IllegalArgumentException("JobDetail object illegal.Must add annotation @Interface Trigger.class");
         }
-
-        @Override
-        public long getDelay(TimeUnit unit) {
-            return unit.convert(executeTime - System.nanoTime(), TimeUnit.NANOSECONDS);
+        /*
+        计算任务的执行时间点
+         */
+        Long shardHash = null;
+        if (triggerAnnotation.sharded()) {
+            shardHash = ShardAssigner.hash(job instanceof ShardedJob
+                    ? ((ShardedJob) job).shardKey() : job.getClass().getName());
+        }
+        JobHandle handle = new JobHandle(this, metricsFor(job.getClass()), shardHash);
+        Schedule schedule;
+        switch (triggerAnnotation.mode()) {
+            case FIXED_RATE:
+            case FIXED_DELAY:
+                if (triggerAnnotation.period() <= 0) {
+                    throw new IllegalArgumentException("JobDetail object illegal.Trigger period must be positive.mode="
+                            + triggerAnnotation.mode());
+                }
+                if (triggerAnnotation.intervals().length > 1) {
+                    throw new IllegalArgumentException("JobDetail object illegal.Periodic trigger allows at most one interval");
+                }
+                long initialDelay = triggerAnnotation.intervals().length == 0
+                        ? triggerAnnotation.period() : triggerAnnotation.intervals()[0];
+                schedule = Schedule.periodic(job, triggerAnnotation.mode(), initialDelay,
+                        triggerAnnotation.period(), triggerAnnotation.timeUnit(), handle);
+                break;
+            case CRON:
+                schedule = Schedule.cron(job, new CronExpression(triggerAnnotation.cron()), handle);
+                if (schedule == null) {
+                    throw new IllegalArgumentException("JobDetail object illegal.Cron expression never fires.cron="
+                            + triggerAnnotation.cron());
+                }
+                break;
+            default:
+                if (triggerAnnotation.intervals().length == 0) {
+                    throw new IllegalArgumentException("JobDetail object illegal.Trigger intervals must not be empty");
+                }
+                schedule = Schedule.once(job, triggerAnnotation.intervals(), triggerAnnotation.timeUnit(), handle);
         }
+        handle.setCurrent(schedule);
+        return schedule;
+    }
 
-        @Override
-        public int compareTo(Delayed o) {
-            Schedule s = (Schedule) o;
-            return executeTime > s.getExecuteTime() ? 1 : (executeTime < s.getExecuteTime() ? -1 : 0);
+    /**
+     * 任务执行完成或改期后重新加入调度，已关闭时取消任务
+     */
+    void reschedule(Schedule schedule) {
+        if (state != RUNNING) {
+            schedule.getHandle().abandon();
+            return;
         }
+        engine.offer(schedule);
     }
 
     /**
@@ -118,27 +459,111 @@ public class SchedulerExecutor {
     private class SchedulerScanThread implements Runnable {
         @Override
         public void run() {
-            while (true) {
+            try {
+                while (state == RUNNING) {
+                    Schedule s;
+                    try {
+                        s = engine.take();
+                    } catch (InterruptedException e) {
+                        //关闭时由 stop 中断，循环条件会检查状态
+                        continue;
+                    }
+                    //已取消的任务直接丢弃
+                    if (s.isCancelled()) {
+                        continue;
+                    }
+                    ShardAssigner assigner = shardAssigner;
+                    Long shardHash = s.getHandle().getShardHash();
+                    if (assigner != null && shardHash != null && !assigner.owns(shardHash)) {
+                        s.skipNotOwned();
+                        continue;
+                    }
+                    try {
+                        s.dispatched();
+                        executorService.execute(s);
+                    } catch (RejectedExecutionException rejectedException) {
+                        if (state == RUNNING) {
+                            logger.error("Job is rejected.job={}", s.getJob().getClass().getName(), rejectedException);
+                        }
+                        //跳过本次执行，周期任务继续下一周期
+                        s.skip(rejectedException);
+                    }
+                }
+            } finally {
+                terminate();
+            }
+        }
+    }
+
+    /**
+     * 定时输出调度核心中的任务数，并上报各任务类的指标
+     */
+    @Trigger(mode = TriggerMode.FIXED_RATE, period = MONITOR_INTERVAL_SECONDS, timeUnit = TimeUnit.SECONDS)
+    private class Monitor implements Runnable {
+        @Override
+        public void run() {
+            logger.info("SchedulerExecutor monitor.name={} scheduleSize={}", name, engine.size());
+            MetricsReporter reporter = metricsReporter;
+            if (reporter == null) {
+                return;
+            }
+            for (JobMetrics metrics : jobMetrics.values()) {
                 try {
-                    Schedule s = timeLineDelayQueue.take();
-                    executorService.submit(s.getJob());
-                } catch (RejectedExecutionException rejectedException) {
-                    logger.error("Job is rejected.", rejectedException);
-                } catch (InterruptedException e) {
-                    logger.error("Scheduler scan thread interrupted.", e);
+                    reporter.report(name + "." + metrics.getJobClass(), metrics.snapshot());
+                } catch (RuntimeException e) {
+                    logger.error("Report scheduler metrics error.job={}", metrics.getJobClass(), e);
                 }
             }
         }
     }
 
+    /**
+     * 触发方式
+     */
+    public enum TriggerMode {
+        /**
+         * intervals 中的每个时间点执行一次
+         */
+        ONCE,
+        /**
+         * 固定频率，下次执行时间 = 上次计划执行时间 + period
+         */
+        FIXED_RATE,
+        /**
+         * 固定延迟，下次执行时间 = 上次执行完成时间 + period
+         */
+        FIXED_DELAY,
+        /**
+         * 按 cron 表达式执行，见 {@link CronExpression}
+         */
+        CRON
+    }
+
     /**
      * 定时任务触发器
      * Created by roy.ww on 2015/12/07.
+     * <p>
+     * 周期任务最多配置一个 intervals 作为首次执行的延迟，未配置时首次延迟为 period
+     * </p>
      */
     @Retention(RetentionPolicy.RUNTIME)
     @Target(ElementType.TYPE)
     public @interface Trigger {
         long[] intervals() default {};
         TimeUnit timeUnit() default TimeUnit.MINUTES;
+        TriggerMode mode() default TriggerMode.ONCE;
+        /**
+         * FIXED_RATE、FIXED_DELAY 模式的周期，单位同 timeUnit
+         */
+        long period() default 0;
+        /**
+         * CRON 模式的表达式
+         */
+        String cron() default "";
+        /**
+         * 设置了 {@link ShardAssigner} 时是否只在分配到的实例上执行，为 false 时每个实例都执行。
+         * 未实现 {@link ShardedJob} 的任务以类名分片，同一个类的任务都在一个实例执行
+         */
+        boolean sharded() default false;
     }
 }
@@ -0,0 +1,13 @@
+package com.royww.op.eve.schedule;
+
+/**
+ * 分片调度时任务的标识
+ * <p>
+ * 未实现该接口的任务以类名作为标识，同一个类的所有任务会分配给同一个实例。
+ * 同一个类注册多个任务时实现该接口，各实例上同一任务的标识需相同。
+ * </p>
+ */
+public interface ShardedJob extends Runnable {
+
+    String shardKey();
+}
@@ -0,0 +1,271 @@
+package com.royww.op.eve.schedule;
+
+import com.google.common.collect.Lists;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 分层时间轮调度核心
+ * <p>
+ * 每层 64 个槽位，第 L 层每个槽位跨度为 64^L 个 tick。任务按到期 tick 放入能容纳其剩余时间的最低一层，
+ * 高层槽位到期时把其中的任务重新分配到低层(cascade)，第 0 层槽位到期即执行。
+ * </p>
+ * <p>
+ * offer 只把任务放入无锁队列并在必要时唤醒扫描线程，插入为 O(1) 且没有全局锁；
+ * 时间轮本身只由调用 take 的扫描线程访问，不需要同步。执行时间精度为一个 tick。
+ * </p>
+ */
+public class TimingWheelEngine implements ScheduleEngine {
+
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final long DEFAULT_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int DEFAULT_LEVELS = 6;
+    private static final long PARK_FOREVER = Long.MAX_VALUE;
+
+    private final long tickNanos;
+    private final int levels;
+    private final long startTime = System.nanoTime();
+
+    //各层的槽位链表头及非空槽位的位图，只由扫描线程访问
+    private final Schedule[][] wheels;
+    private final long[] occupied;
+    private long currentTick = 0;
+    private int wheelCount = 0;
+    private final ArrayDeque<Schedule> expired = new ArrayDeque<Schedule>();
+
+    private final Queue<Schedule> pending = new ConcurrentLinkedQueue<Schedule>();
+    private final AtomicInteger size = new AtomicInteger();
+    private volatile Thread scanThread;
+    //扫描线程计划醒来的时间，新任务更早到期时需要唤醒它
+    private volatile long plannedWakeTime = PARK_FOREVER;
+
+    /**
+     * tick 为 1 毫秒，6 层时间轮
+     */
+    public TimingWheelEngine() {
+        this(DEFAULT_TICK_NANOS, TimeUnit.NANOSECONDS, DEFAULT_LEVELS);
+    }
+
+    /**
+     * @param tick   时间轮精度
+     * @param levels 层数，可容纳的最大延迟为 tick * 64^levels，更远的任务会在最高层轮转等待
+     */
+    public TimingWheelEngine(long tick, TimeUnit unit, int levels) {
+        this.tickNanos = unit.toNanos(tick);
+        if (tickNanos <= 0 || levels < 1 || levels * WHEEL_BITS > 62) {
+            throw new IllegalArgumentException("Illegal timing wheel.tickNanos=" + tickNanos + " levels=" + levels);
+        }
+        this.levels = levels;
+        this.wheels = new Schedule[levels][WHEEL_SIZE];
+        this.occupied = new long[levels];
+    }
+
+    @Override
+    public void offer(Schedule schedule) {
+        size.incrementAndGet();
+        pending.offer(schedule);
+        wakeUpIfEarlier(schedule.getExecuteTime());
+    }
+
+    @Override
+    public void offerAll(Collection<Schedule> schedules) {
+        if (schedules.isEmpty()) {
+            return;
+        }
+        long earliest = PARK_FOREVER;
+        for (Schedule schedule : schedules) {
+            if (earliest == PARK_FOREVER || schedule.getExecuteTime() - earliest < 0) {
+                earliest = schedule.getExecuteTime();
+            }
+        }
+        size.addAndGet(schedules.size());
+        pending.addAll(schedules);
+        wakeUpIfEarlier(earliest);
+    }
+
+    private void wakeUpIfEarlier(long executeTime) {
+        Thread thread = scanThread;
+        long wakeTime = plannedWakeTime;
+        //nanoTime 可能为负，不能与 PARK_FOREVER 做差比较
+        if (thread != null && (wakeTime == PARK_FOREVER || executeTime - wakeTime < 0)) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    @Override
+    public Schedule take() throws InterruptedException {
+        scanThread = Thread.currentThread();
+        while (true) {
+            Schedule schedule = expired.poll();
+            if (schedule != null) {
+                size.decrementAndGet();
+                return schedule;
+            }
+            long now = System.nanoTime();
+            drainPending();
+            advance(tickOf(now));
+            if (!expired.isEmpty()) {
+                continue;
+            }
+            long wakeTime = nextWakeTime();
+            plannedWakeTime = wakeTime;
+            //发布计划醒来时间后再检查一次，避免错过并发 offer 的唤醒
+            if (!pending.isEmpty()) {
+                plannedWakeTime = now;
+                continue;
+            }
+            if (wakeTime == PARK_FOREVER) {
+                LockSupport.park(this);
+            } else {
+                LockSupport.parkNanos(this, wakeTime - now);
+            }
+            plannedWakeTime = now;
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    @Override
+    public List<Schedule> drain() {
+        drainPending();
+        List<Schedule> schedules = Lists.newArrayList(expired);
+        expired.clear();
+        for (int level = 0; level < levels; level++) {
+            for (int slot = 0; slot < WHEEL_SIZE; slot++) {
+                for (Schedule s = wheels[level][slot]; s != null; ) {
+                    Schedule next = s.next;
+                    s.next = null;
+                    schedules.add(s);
+                    s = next;
+                }
+            }
+            Arrays.fill(wheels[level], null);
+            occupied[level] = 0;
+        }
+        wheelCount = 0;
+        size.addAndGet(-schedules.size());
+        return schedules;
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    private long tickOf(long nanoTime) {
+        long elapsed = nanoTime - startTime;
+        return elapsed <= 0 ? 0 : elapsed / tickNanos;
+    }
+
+    private void drainPending() {
+        Schedule schedule;
+        while ((schedule = pending.poll()) != null) {
+            place(schedule);
+        }
+    }
+
+    /**
+     * 把任务放入时间轮，已到期的直接放入到期队列
+     */
+    private void place(Schedule schedule) {
+        long delta = deadlineTick(schedule) - currentTick;
+        if (delta <= 0) {
+            expired.offer(schedule);
+            return;
+        }
+        int level = 0;
+        while (level < levels - 1 && delta >= 1L << (WHEEL_BITS * (level + 1))) {
+            level++;
+        }
+        int slot = (int) ((currentTick + delta) >>> (WHEEL_BITS * level)) & WHEEL_MASK;
+        schedule.next = wheels[level][slot];
+        wheels[level][slot] = schedule;
+        occupied[level] |= 1L << slot;
+        wheelCount++;
+    }
+
+    private long deadlineTick(Schedule schedule) {
+        long elapsed = schedule.getExecuteTime() - startTime;
+        //向上取整，保证不会提前执行
+        return elapsed <= 0 ? 0 : (elapsed + tickNanos - 1) / tickNanos;
+    }
+
+    /**
+     * 推进时间轮到 targetTick，沿途到期的任务放入到期队列
+     */
+    private void advance(long targetTick) {
+        if (wheelCount == 0) {
+            currentTick = Math.max(currentTick, targetTick);
+            return;
+        }
+        while (currentTick < targetTick) {
+            long tick = ++currentTick;
+            for (int level = levels - 1; level > 0; level--) {
+                if ((tick & ((1L << (WHEEL_BITS * level)) - 1)) == 0) {
+                    int slot = (int) (tick >>> (WHEEL_BITS * level)) & WHEEL_MASK;
+                    Schedule schedule = detach(level, slot);
+                    while (schedule != null) {
+                        Schedule next = schedule.next;
+                        schedule.next = null;
+                        place(schedule);
+                        schedule = next;
+                    }
+                }
+            }
+            Schedule schedule = detach(0, (int) tick & WHEEL_MASK);
+            while (schedule != null) {
+                Schedule next = schedule.next;
+                schedule.next = null;
+                //只有一层时第 0 层即最高层，槽位中可能有还要再转几圈的任务
+                if (levels == 1) {
+                    place(schedule);
+                } else {
+                    expired.offer(schedule);
+                }
+                schedule = next;
+            }
+            if (wheelCount == 0) {
+                currentTick = targetTick;
+                return;
+            }
+        }
+    }
+
+    private Schedule detach(int level, int slot) {
+        Schedule head = wheels[level][slot];
+        if (head != null) {
+            wheels[level][slot] = null;
+            occupied[level] &= ~(1L << slot);
+            for (Schedule s = head; s != null; s = s.next) {
+                wheelCount--;
+            }
+        }
+        return head;
+    }
+
+    /**
+     * 计算下次需要醒来的时间：第 0 层下一个非空槽位，或第 0 层转完一圈需要 cascade 的时刻
+     */
+    private long nextWakeTime() {
+        if (wheelCount == 0) {
+            return PARK_FOREVER;
+        }
+        int currentSlot = (int) currentTick & WHEEL_MASK;
+        long ahead = currentSlot == WHEEL_MASK ? 0 : occupied[0] & (-1L << (currentSlot + 1));
+        long wakeTick = ahead != 0
+                ? currentTick - currentSlot + Long.numberOfTrailingZeros(ahead)
+                : (currentTick | WHEEL_MASK) + 1;
+        return startTime + wakeTick * tickNanos;
+    }
+}
@@ -0,0 +1,158 @@
+package com.royww.op.eve.conf;
+
+import com.google.common.base.Charsets;
+import com.royww.op.eve.distrubuted.ZooKeeperTestServer;
+import junit.framework.TestCase;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ZkConfigSource 的全量同步、增量更新、失败重试和本地快照
+ * <p>
+ * PropertiesReader 的配置是进程内共享的，每个测试使用不同的 KEY。
+ * </p>
+ */
+public class ZkConfigSourceTest extends TestCase {
+
+    private static final int SESSION_TIMEOUT = 4000;
+
+    private final PropertiesReader reader = new PropertiesReader();
+    private ZooKeeperTestServer server;
+    private ZooKeeper admin;
+    private ZkConfigSource source;
+
+    @Override
+    protected void setUp() throws Exception {
+        server = new ZooKeeperTestServer().start();
+        admin = connect();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (source != null) {
+            source.close();
+        }
+        admin.close();
+        server.close();
+    }
+
+    public void testSyncAndIncrementalUpdates() throws Exception {
+        create("/conf", "");
+        create("/conf/sync", "");
+        create("/conf/sync/a", "1");
+        create("/conf/sync/b", "x");
+        source = new ZkConfigSource(server.getConnectString(), "/conf", null, SESSION_TIMEOUT).start();
+        assertTrue(source.awaitSynced(10, TimeUnit.SECONDS));
+        awaitValue("sync.a", "1");
+        awaitValue("sync.b", "x");
+
+        admin.setData("/conf/sync/a", bytes("2"), -1);
+        awaitValue("sync.a", "2");
+        create("/conf/sync/c", "new");
+        awaitValue("sync.c", "new");
+        admin.delete("/conf/sync/b", -1);
+        awaitValue("sync.b", null);
+    }
+
+    public void testResyncAfterServerRestart() throws Exception {
+        create("/conf", "");
+        create("/conf/restart", "1");
+        source = new ZkConfigSource(server.getConnectString(), "/conf", null, SESSION_TIMEOUT).start();
+        assertTrue(source.awaitSynced(10, TimeUnit.SECONDS));
+        awaitValue("restart", "1");
+
+        server.stop();
+        server.start();
+        admin.close();
+        admin = connect();
+        admin.setData("/conf/restart", bytes("2"), -1);
+        awaitValue("restart", "2");
+    }
+
+    public void testRetryAfterNoAuth() throws Exception {
+        create("/conf", "");
+        admin.addAuthInfo("digest", bytes("eve:secret"));
+        admin.create("/conf/noauth", bytes("1"), ZooDefs.Ids.CREATOR_ALL_ACL, CreateMode.PERSISTENT);
+        source = new ZkConfigSource(server.getConnectString(), "/conf", null, SESSION_TIMEOUT).start();
+        assertFalse(source.awaitSynced(500, TimeUnit.MILLISECONDS));
+
+        //权限恢复后退避重试的同步成功
+        admin.setACL("/conf/noauth", ZooDefs.Ids.OPEN_ACL_UNSAFE, -1);
+        assertTrue(source.awaitSynced(10, TimeUnit.SECONDS));
+        awaitValue("noauth", "1");
+    }
+
+    public void testLocalSnapshotWhenZooKeeperDown() throws Exception {
+        File snapshot = File.createTempFile("zk-config", ".snapshot");
+        try {
+            create("/conf", "");
+            create("/conf/local", "1");
+            source = new ZkConfigSource(server.getConnectString(), "/conf", snapshot, SESSION_TIMEOUT).start();
+            assertTrue(source.awaitSynced(10, TimeUnit.SECONDS));
+            awaitValue("local", "1");
+            source.close();
+            source = null;
+            //快照在后台线程写入
+            long deadline = System.currentTimeMillis() + 10000;
+            while (snapshot.length() == 0) {
+                assertTrue("snapshot not written", System.currentTimeMillis() < deadline);
+                Thread.sleep(20);
+            }
+
+            server.stop();
+            String sourceId = "zookeeper://" + server.getConnectString() + "/conf";
+            reader.publishSource(sourceId, Collections.<String, String>emptyMap());
+            awaitValue("local", null);
+            source = new ZkConfigSource(server.getConnectString(), "/conf", snapshot, SESSION_TIMEOUT).start();
+            awaitValue("local", "1");
+            assertFalse(source.awaitSynced(200, TimeUnit.MILLISECONDS));
+        } finally {
+            assertTrue(snapshot.delete());
+        }
+    }
+
+    private ZooKeeper connect() throws Exception {
+        final CountDownLatch connected = new CountDownLatch(1);
+        ZooKeeper zk = new ZooKeeper(server.getConnectString(), SESSION_TIMEOUT, new Watcher() {
+            @Override
+            public void process(WatchedEvent event) {
+                if (event.getState() == Event.KeeperState.SyncConnected) {
+                    connected.countDown();
+                }
+            }
+        });
+        assertTrue(connected.await(10, TimeUnit.SECONDS));
+        return zk;
+    }
+
+    private void create(String path, String data) throws Exception {
+        admin.create(path, bytes(data), ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(Charsets.UTF_8);
+    }
+
+    /**
+     * @param expected 为 null 时等待 KEY 被删除
+     */
+    private void awaitValue(String key, String expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            String actual = reader.exist(key) ? reader.get(key) : null;
+            if (expected == null ? actual == null : expected.equals(actual)) {
+                return;
+            }
+            assertTrue(key + " expected " + expected + " but " + actual, System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+}
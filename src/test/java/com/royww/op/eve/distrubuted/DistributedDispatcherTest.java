@@ -0,0 +1,311 @@
+package com.royww.op.eve.distrubuted;
+
+import junit.framework.TestCase;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DistributedDispatcher 的权限通知、关闭，以及服务重启和会话过期后的重新注册及 fencing token
+ */
+public class DistributedDispatcherTest extends TestCase {
+
+    private static final String TOPIC = "dispatcher";
+    private static final String NODE_PATH = "/locks/distributed_lock_" + TOPIC;
+    private static final int SESSION_TIMEOUT = 4000;
+
+    private ZooKeeperTestServer zk;
+    private ZooKeeper admin;
+
+    @Override
+    protected void setUp() throws Exception {
+        zk = new ZooKeeperTestServer().start();
+        admin = connect(zk.getConnectString(), 0, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        admin.close();
+        zk.close();
+    }
+
+    public void testFencingTokenIncreasesWithNextMaster() throws Exception {
+        DistributedDispatcher first = start(0);
+        DistributedDispatcher second = start(1);
+        try {
+            assertTrue(first.isMaster());
+            assertFalse(second.isMaster());
+            long token = first.getFencingToken();
+            assertTrue(token >= 0);
+            assertEquals(-1, second.getFencingToken());
+            for (String child : children()) {
+                assertTrue(child, child.startsWith("_c_"));
+            }
+
+            first.close();
+            assertTrue(second.waitMasterPerm(10, TimeUnit.SECONDS));
+            assertTrue(second.getFencingToken() > token);
+            assertEquals(-1, first.getFencingToken());
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    public void testLeadershipListener() throws Exception {
+        DistributedDispatcher first = start(0);
+        DistributedDispatcher second = start(1);
+        try {
+            BlockingQueue<String> firstEvents = new LinkedBlockingQueue<String>();
+            BlockingQueue<String> secondEvents = new LinkedBlockingQueue<String>();
+            //已是 MASTER 时注册立即回调
+            first.addLeadershipListener(recorder(firstEvents));
+            second.addLeadershipListener(recorder(secondEvents));
+            assertEquals("elected", firstEvents.poll());
+            assertNull(secondEvents.poll());
+
+            first.close();
+            assertEquals("revoked", firstEvents.poll());
+            assertEquals("elected", secondEvents.poll(10, TimeUnit.SECONDS));
+
+            //只剩一个实例，释放后重新注册到队尾仍当选
+            second.releaseMasterPerm();
+            assertEquals("revoked", secondEvents.poll(10, TimeUnit.SECONDS));
+            assertEquals("elected", secondEvents.poll(10, TimeUnit.SECONDS));
+            assertTrue(second.isMaster());
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    public void testCloseReleasesWaiters() throws Exception {
+        DistributedDispatcher first = start(0);
+        final DistributedDispatcher second = start(1);
+        try {
+            final BlockingQueue<Throwable> results = new LinkedBlockingQueue<Throwable>();
+            Thread waiter = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        second.waitMasterPerm();
+                        results.add(new AssertionError("became master"));
+                    } catch (Throwable e) {
+                        results.add(e);
+                    }
+                }
+            });
+            waiter.start();
+            assertNull(results.poll(200, TimeUnit.MILLISECONDS));
+
+            second.close();
+            assertTrue(results.poll(10, TimeUnit.SECONDS) instanceof IllegalStateException);
+            //关闭后调用不再阻塞
+            assertTrue(second.leadershipFuture().isDone());
+            try {
+                second.waitMasterPerm(10, TimeUnit.SECONDS);
+                fail("dispatcher closed");
+            } catch (IllegalStateException e) {
+                //expected
+            }
+            assertTrue(first.isMaster());
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    public void testKeepNodeAndTokenAcrossServerRestart() throws Exception {
+        DistributedDispatcher dispatcher = start(0);
+        try {
+            long token = dispatcher.getFencingToken();
+            zk.stop();
+            waitUntil(dispatcher, false);
+            zk.start();
+            assertTrue(dispatcher.waitMasterPerm(10, TimeUnit.SECONDS));
+            //重新连上原会话，节点和 token 都不变
+            assertEquals(token, dispatcher.getFencingToken());
+            reconnectAdmin();
+            assertEquals(1, children().size());
+        } finally {
+            dispatcher.close();
+        }
+    }
+
+    public void testReregisterAfterSessionExpired() throws Exception {
+        DistributedDispatcher first = start(0);
+        DistributedDispatcher second = start(1);
+        try {
+            long firstToken = first.getFencingToken();
+            expireSession(zk.getConnectString(0));
+            assertTrue(second.waitMasterPerm(10, TimeUnit.SECONDS));
+            long secondToken = second.getFencingToken();
+            assertTrue(secondToken > firstToken);
+
+            //新会话上重新注册到队尾
+            long deadline = System.currentTimeMillis() + 10000;
+            while (indexOf(first) != 1) {
+                assertTrue("not registered again", System.currentTimeMillis() < deadline);
+                Thread.sleep(20);
+            }
+            assertEquals(2, children().size());
+            second.close();
+            assertTrue(first.waitMasterPerm(10, TimeUnit.SECONDS));
+            assertTrue(first.getFencingToken() > secondToken);
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    public void testAdoptOwnNodeInsteadOfCreatingAnother() throws Exception {
+        DistributedDispatcher dispatcher = start(0);
+        try {
+            String registered = children().get(0);
+            String prefix = registered.substring(0, registered.lastIndexOf('-') + 1);
+            //模拟连接丢失时已在服务端创建、但回调没有收到的节点
+            admin.delete(NODE_PATH + "/" + registered, -1);
+            String orphan = admin.create(NODE_PATH + "/" + prefix, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT_SEQUENTIAL);
+            long orphanSequence = Long.parseLong(orphan.substring(orphan.lastIndexOf('-') + 1));
+
+            //重新连上后重新选举，发现节点不在，按标识找回
+            zk.stop();
+            waitUntil(dispatcher, false);
+            zk.start();
+            assertTrue(dispatcher.waitMasterPerm(10, TimeUnit.SECONDS));
+            assertEquals(orphanSequence, dispatcher.getFencingToken());
+            reconnectAdmin();
+            assertEquals(Collections.singletonList(orphan.substring(NODE_PATH.length() + 1)), children());
+        } finally {
+            dispatcher.close();
+        }
+    }
+
+    public void testNoOrphanNodeWhenServerRestartsDuringRegistration() throws Exception {
+        DistributedDispatcher[] dispatchers = new DistributedDispatcher[5];
+        try {
+            for (int i = 0; i < dispatchers.length; i++) {
+                dispatchers[i] = new DistributedDispatcher(TOPIC, zk.getConnectString(i), SESSION_TIMEOUT);
+                //在注册请求发出前后的不同时刻停止服务
+                Thread.sleep(i * 10);
+                zk.stop();
+                zk.start();
+                dispatchers[i].registration().get(20, TimeUnit.SECONDS);
+            }
+            reconnectAdmin();
+            //每个实例恰好一个节点，连接丢失时没有再创建一个
+            assertEquals(dispatchers.length, children().size());
+            //之前的实例在最后一次重启后重新选举
+            assertTrue(dispatchers[0].waitMasterPerm(10, TimeUnit.SECONDS));
+            boolean[] seen = new boolean[dispatchers.length];
+            int masters = 0;
+            for (DistributedDispatcher dispatcher : dispatchers) {
+                int index = indexOf(dispatcher);
+                assertTrue(index >= 0);
+                assertFalse(seen[index]);
+                seen[index] = true;
+                masters += dispatcher.isMaster() ? 1 : 0;
+            }
+            assertEquals(1, masters);
+            assertTrue(dispatchers[0].isMaster());
+        } finally {
+            for (DistributedDispatcher dispatcher : dispatchers) {
+                if (dispatcher != null) {
+                    dispatcher.close();
+                }
+            }
+        }
+    }
+
+    private static DistributedDispatcher.LeadershipListener recorder(final BlockingQueue<String> events) {
+        return new DistributedDispatcher.LeadershipListener() {
+            @Override
+            public void onElected() {
+                events.add("elected");
+            }
+
+            @Override
+            public void onRevoked() {
+                events.add("revoked");
+            }
+        };
+    }
+
+    private DistributedDispatcher start(int session) throws Exception {
+        DistributedDispatcher dispatcher = new DistributedDispatcher(TOPIC, zk.getConnectString(session), SESSION_TIMEOUT);
+        dispatcher.registration().get(10, TimeUnit.SECONDS);
+        return dispatcher;
+    }
+
+    /**
+     * 当前实例的排序，连接恢复或会话重建期间重试
+     */
+    private static int indexOf(DistributedDispatcher dispatcher) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            try {
+                return dispatcher.getState().getIndex();
+            } catch (KeeperException e) {
+                assertTrue("not connected", System.currentTimeMillis() < deadline);
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    private List<String> children() throws Exception {
+        return admin.getChildren(NODE_PATH, false);
+    }
+
+    private void reconnectAdmin() throws Exception {
+        admin.close();
+        admin = connect(zk.getConnectString(), 0, null);
+    }
+
+    /**
+     * 用同一会话 ID 建立另一个连接并关闭，服务端随即使该会话过期
+     */
+    private void expireSession(String address) throws Exception {
+        SharedZooKeeper shared = SharedZooKeeper.acquire(address, SESSION_TIMEOUT);
+        try {
+            ZooKeeper current = shared.get();
+            connect(address, current.getSessionId(), current.getSessionPasswd()).close();
+        } finally {
+            shared.release();
+        }
+    }
+
+    private static ZooKeeper connect(String address, long sessionId, byte[] password) throws Exception {
+        final CountDownLatch connected = new CountDownLatch(1);
+        Watcher watcher = new Watcher() {
+            @Override
+            public void process(WatchedEvent event) {
+                if (event.getState() == Event.KeeperState.SyncConnected) {
+                    connected.countDown();
+                }
+            }
+        };
+        ZooKeeper zooKeeper = password == null ? new ZooKeeper(address, SESSION_TIMEOUT, watcher)
+                : new ZooKeeper(address, SESSION_TIMEOUT, watcher, sessionId, password);
+        assertTrue(connected.await(10, TimeUnit.SECONDS));
+        return zooKeeper;
+    }
+
+    private static void waitUntil(DistributedDispatcher dispatcher, boolean master) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (dispatcher.isMaster() != master) {
+            assertTrue("master not " + master, System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+}
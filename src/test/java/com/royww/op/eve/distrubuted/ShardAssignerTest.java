@@ -0,0 +1,157 @@
+package com.royww.op.eve.distrubuted;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ShardAssigner 在实例退出和与 ZK 断开时的分配
+ */
+public class ShardAssignerTest extends TestCase {
+
+    private static final int KEYS = 3000;
+    private static final int SESSION_TIMEOUT = 4000;
+
+    private ZooKeeperTestServer zk;
+    private DistributedDispatcher[] dispatchers;
+    private ShardAssigner[] assigners;
+
+    @Override
+    protected void setUp() throws Exception {
+        zk = new ZooKeeperTestServer().start();
+        dispatchers = new DistributedDispatcher[3];
+        assigners = new ShardAssigner[3];
+        for (int i = 0; i < dispatchers.length; i++) {
+            dispatchers[i] = new DistributedDispatcher("shard", zk.getConnectString(i), SESSION_TIMEOUT);
+            dispatchers[i].registration().get(10, TimeUnit.SECONDS);
+            assigners[i] = new ShardAssigner(dispatchers[i]);
+        }
+        awaitOwnedBy(new boolean[]{true, true, true});
+    }
+
+    @Override
+    protected void tearDown() {
+        for (DistributedDispatcher dispatcher : dispatchers) {
+            dispatcher.close();
+        }
+        zk.close();
+    }
+
+    public void testEachKeyOwnedOnce() {
+        int[] owners = owners();
+        int[] counts = new int[assigners.length];
+        for (int owner : owners) {
+            counts[owner]++;
+        }
+        for (int count : counts) {
+            assertTrue("unbalanced " + count, count > KEYS / 6);
+        }
+    }
+
+    public void testOnlyLeavingMemberKeysMove() throws Exception {
+        int[] before = owners();
+        //关闭排在中间的实例，排在后面的实例 index 变化，但认领的 key 不应变化
+        dispatchers[1].close();
+        awaitOwnedBy(new boolean[]{true, false, true});
+        int[] after = owners();
+        for (int key = 0; key < KEYS; key++) {
+            if (before[key] != 1) {
+                assertEquals("key " + key + " moved", before[key], after[key]);
+            } else {
+                assertTrue(after[key] == 0 || after[key] == 2);
+            }
+        }
+    }
+
+    public void testDropOwnershipWhenDisconnected() throws Exception {
+        zk.stop();
+        waitUntilNothingOwned();
+        zk.start();
+        awaitOwnedBy(new boolean[]{true, true, true});
+    }
+
+    public void testListenerAddedBeforeRegistrationSeesOwnNode() throws Exception {
+        final BlockingQueue<DistributedDispatcher.DistributedState> states =
+                new LinkedBlockingQueue<DistributedDispatcher.DistributedState>();
+        //新会话上的注册尚未完成时添加监听
+        DistributedDispatcher joining = new DistributedDispatcher("shard", zk.getConnectString(3), SESSION_TIMEOUT);
+        try {
+            joining.addMembershipListener(new DistributedDispatcher.MembershipListener() {
+                @Override
+                public void membershipChanged(DistributedDispatcher.DistributedState state) {
+                    states.add(state);
+                }
+            });
+            DistributedDispatcher.DistributedState first = states.poll(10, TimeUnit.SECONDS);
+            assertNotNull(first);
+            assertEquals(4, first.getTotal());
+            assertEquals(3, first.getIndex());
+        } finally {
+            joining.close();
+        }
+    }
+
+    /**
+     * @return 每个 key 的认领实例，不是恰好一个实例认领时失败
+     */
+    private int[] owners() {
+        int[] owners = new int[KEYS];
+        for (int key = 0; key < KEYS; key++) {
+            owners[key] = -1;
+            for (int i = 0; i < assigners.length; i++) {
+                if (assigners[i].owns("job-" + key)) {
+                    assertEquals("key " + key + " owned twice", -1, owners[key]);
+                    owners[key] = i;
+                }
+            }
+            assertTrue("key " + key + " not owned", owners[key] >= 0);
+        }
+        return owners;
+    }
+
+    private void awaitOwnedBy(boolean[] expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            boolean done = true;
+            for (int i = 0; i < expected.length; i++) {
+                boolean owns = false;
+                for (int key = 0; key < KEYS && !owns; key++) {
+                    owns = assigners[i].owns("job-" + key);
+                }
+                done &= owns == expected[i];
+            }
+            int total = 0;
+            for (int key = 0; key < KEYS; key++) {
+                for (ShardAssigner assigner : assigners) {
+                    total += assigner.owns("job-" + key) ? 1 : 0;
+                }
+            }
+            if (done && total == KEYS) {
+                return;
+            }
+            assertTrue("membership not converged", System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    private void waitUntilNothingOwned() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        for (ShardAssigner assigner : assigners) {
+            while (ownsAny(assigner)) {
+                assertTrue("still owns keys after disconnect", System.currentTimeMillis() < deadline);
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    private static boolean ownsAny(ShardAssigner assigner) {
+        for (int key = 0; key < KEYS; key++) {
+            if (assigner.owns("job-" + key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,86 @@
+package com.royww.op.eve.distrubuted;
+
+import org.apache.zookeeper.server.ServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+
+/**
+ * 进程内的单机 ZooKeeper，可以停止后在同一端口和数据目录上重启，用于测试断开和会话恢复
+ */
+public class ZooKeeperTestServer {
+
+    private static final int TICK_TIME = 500;
+
+    private final File dataDir;
+    private final int port;
+    private ZooKeeperServer server;
+    private ServerCnxnFactory factory;
+
+    public ZooKeeperTestServer() throws IOException {
+        dataDir = File.createTempFile("zk-test", "");
+        if (!dataDir.delete() || !dataDir.mkdirs()) {
+            throw new IOException("Create zk data dir failed.dir=" + dataDir);
+        }
+        ServerSocket socket = new ServerSocket(0);
+        port = socket.getLocalPort();
+        socket.close();
+    }
+
+    public ZooKeeperTestServer start() throws IOException, InterruptedException {
+        server = new ZooKeeperServer(dataDir, dataDir, TICK_TIME);
+        factory = ServerCnxnFactory.createFactory(new InetSocketAddress("127.0.0.1", port), 100);
+        factory.startup(server);
+        return this;
+    }
+
+    /**
+     * 停止服务，数据和会话保留在数据目录中
+     */
+    public void stop() {
+        if (factory != null) {
+            factory.shutdown();
+            server.shutdown();
+            factory = null;
+        }
+    }
+
+    /**
+     * 停止服务并删除数据目录
+     */
+    public void close() {
+        stop();
+        delete(dataDir);
+    }
+
+    /**
+     * @return 127.0.0.1:port
+     */
+    public String getConnectString() {
+        return "127.0.0.1:" + port;
+    }
+
+    /**
+     * 同一服务的另一个连接串，{@link SharedZooKeeper} 按连接串共享会话，用它得到独立的会话
+     */
+    public String getConnectString(int session) {
+        StringBuilder address = new StringBuilder(getConnectString());
+        for (int i = 0; i < session; i++) {
+            address.append(",127.0.0.1:").append(port);
+        }
+        return address.toString();
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
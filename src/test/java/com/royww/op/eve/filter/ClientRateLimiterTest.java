@@ -0,0 +1,19 @@
+package com.royww.op.eve.filter;
+
+import junit.framework.TestCase;
+
+/**
+ * ClientRateLimiter 的分桶
+ */
+public class ClientRateLimiterTest extends TestCase {
+
+    public void testInvalidAddressesDoNotShareIPv6Bucket() {
+        ClientRateLimiter limiter = new ClientRateLimiter(0.001, 1, 1024);
+        assertTrue(limiter.tryAcquire("unknown"));
+        assertFalse(limiter.tryAcquire("not-an-ip"));
+        //::/64 与无法解析的地址各用一个桶
+        assertTrue(limiter.tryAcquire("::1"));
+        assertFalse(limiter.tryAcquire("::2"));
+        assertTrue(limiter.tryAcquire("10.0.0.1"));
+    }
+}
@@ -0,0 +1,36 @@
+package com.royww.op.eve.filter;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DecisionCache 按白名单 generation 区分结果
+ */
+public class DecisionCacheTest extends TestCase {
+
+    private static final long ADDRESS = IPAddresses.parseIPv4("192.168.1.1");
+
+    public void testStalePutAfterReloadIsMiss() {
+        DecisionCache cache = new DecisionCache(16, 1, TimeUnit.MINUTES);
+        IPWhiteList old = IPWhiteList.builder().addRule("192.168.1.1").build();
+        IPWhiteList reloaded = IPWhiteList.builder().build();
+        assertTrue(old.generation() != reloaded.generation());
+
+        cache.put(ADDRESS, reloaded.generation(), false);
+        //仍在使用旧白名单的线程在重新加载之后写入
+        cache.put(ADDRESS, old.generation(), old.permits(ADDRESS));
+        assertEquals(DecisionCache.MISS, cache.get(ADDRESS, reloaded.generation()));
+
+        cache.put(ADDRESS, reloaded.generation(), reloaded.permits(ADDRESS));
+        assertEquals(DecisionCache.DENY, cache.get(ADDRESS, reloaded.generation()));
+        assertEquals(DecisionCache.MISS, cache.get(ADDRESS, old.generation()));
+    }
+
+    public void testExpired() throws Exception {
+        DecisionCache cache = new DecisionCache(16, 1, TimeUnit.MILLISECONDS);
+        cache.put(ADDRESS, 1, true);
+        Thread.sleep(5);
+        assertEquals(DecisionCache.MISS, cache.get(ADDRESS, 1));
+    }
+}
@@ -0,0 +1,39 @@
+package com.royww.op.eve.filter;
+
+import com.royww.op.eve.metrics.MBeans;
+import junit.framework.TestCase;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * FilterMetrics 按引用计数注册和注销 MBean
+ */
+public class FilterMetricsTest extends TestCase {
+
+    public void testReleaseUnregistersAfterLastUser() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(MBeans.DOMAIN + ":type=IPFireWallFilter,name="
+                + ObjectName.quote("metrics-test"));
+
+        FilterMetrics first = FilterMetrics.forNamespace("metrics-test");
+        FilterMetrics second = FilterMetrics.forNamespace("metrics-test");
+        assertSame(first, second);
+        assertTrue(server.isRegistered(objectName));
+        first.recordAllowed();
+
+        FilterMetrics.release("metrics-test");
+        assertTrue(server.isRegistered(objectName));
+        FilterMetrics.release("metrics-test");
+        assertFalse(server.isRegistered(objectName));
+
+        //重新初始化时从零开始
+        FilterMetrics again = FilterMetrics.forNamespace("metrics-test");
+        assertNotSame(first, again);
+        assertEquals(0, again.getAllowedCount());
+        assertTrue(server.isRegistered(objectName));
+        FilterMetrics.release("metrics-test");
+        assertFalse(server.isRegistered(objectName));
+    }
+}
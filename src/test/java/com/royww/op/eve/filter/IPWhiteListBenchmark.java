@@ -0,0 +1,105 @@
+package com.royww.op.eve.filter;
+
+import java.util.Random;
+
+/**
+ * 10k 条规则下的编译耗时和匹配吞吐
+ * <p>
+ * 不是单元测试，手工运行：java com.royww.op.eve.filter.IPWhiteListBenchmark [规则数]。
+ * 规则混合单个地址、CIDR、段通配和段区间，查询地址一半命中一半不命中。
+ * 先预热再计时，每轮结果累加到 sink 防止被优化掉。
+ * </p>
+ */
+public class IPWhiteListBenchmark {
+
+    private static final int QUERIES = 1 << 16;
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int ROUNDS = 50;
+
+    public static void main(String[] args) {
+        int ruleCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        Random random = new Random(42);
+        String[] rules = new String[ruleCount];
+        for (int i = 0; i < ruleCount; i++) {
+            rules[i] = randomRule(random, i % 4);
+        }
+
+        long start = System.nanoTime();
+        IPWhiteList.Builder builder = IPWhiteList.builder();
+        for (String rule : rules) {
+            builder.addRule(rule);
+        }
+        IPWhiteList whiteList = builder.build();
+        System.out.printf("rules=%d build=%.1fms%n", ruleCount, (System.nanoTime() - start) / 1e6);
+
+        String[] queries = new String[QUERIES];
+        int hits = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = i % 2 == 0 ? addressIn(random, rules[random.nextInt(ruleCount)]) : randomAddress(random);
+            if (whiteList.permits(queries[i])) {
+                hits++;
+            }
+        }
+        System.out.printf("hit ratio=%.2f%n", hits / (double) QUERIES);
+
+        long sink = 0;
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            sink += run(whiteList, queries);
+        }
+        start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            sink += run(whiteList, queries);
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("permits: %.1f ns/op (sink=%d)%n", elapsed / (double) ROUNDS / QUERIES, sink);
+    }
+
+    private static int run(IPWhiteList whiteList, String[] queries) {
+        int permitted = 0;
+        for (String query : queries) {
+            if (whiteList.permits(query)) {
+                permitted++;
+            }
+        }
+        return permitted;
+    }
+
+    private static String randomRule(Random random, int kind) {
+        int a = random.nextInt(223) + 1;
+        int b = random.nextInt(256);
+        int c = random.nextInt(256);
+        switch (kind) {
+            case 0:
+                return a + "." + b + "." + c + "." + random.nextInt(256);
+            case 1:
+                return a + "." + b + "." + c + ".0/" + (20 + random.nextInt(13));
+            case 2:
+                return a + "." + b + ".*." + random.nextInt(256);
+            default:
+                int low = random.nextInt(200);
+                return a + "." + b + "." + c + ".[" + low + "-" + (low + random.nextInt(56)) + "]";
+        }
+    }
+
+    /**
+     * 规则覆盖范围内的一个地址，只取规则的前三段加一个随机的末段，不保证一定命中
+     */
+    private static String addressIn(Random random, String rule) {
+        String[] segments = rule.split("\\.");
+        StringBuilder address = new StringBuilder();
+        for (int i = 0; i < 3; i++) {
+            address.append("*".equals(segments[i]) ? String.valueOf(random.nextInt(256)) : segments[i]).append('.');
+        }
+        String last = segments[3];
+        if (last.startsWith("[")) {
+            last = last.substring(1, last.indexOf('-'));
+        } else if (last.contains("/")) {
+            last = "0";
+        }
+        return address.append(last).toString();
+    }
+
+    private static String randomAddress(Random random) {
+        return random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256);
+    }
+}
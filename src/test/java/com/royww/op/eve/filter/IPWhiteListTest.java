@@ -0,0 +1,172 @@
+package com.royww.op.eve.filter;
+
+import junit.framework.TestCase;
+
+/**
+ * IPWhiteList 规则展开和边界匹配
+ */
+public class IPWhiteListTest extends TestCase {
+
+    public void testSingleAddress() {
+        IPWhiteList whiteList = IPWhiteList.builder().addRule("192.168.1.1").build();
+        assertTrue(whiteList.permits("192.168.1.1"));
+        assertTrue(whiteList.permits(" 192.168.1.1 "));
+        assertFalse(whiteList.permits("192.168.1.0"));
+        assertFalse(whiteList.permits("192.168.1.2"));
+        assertFalse(whiteList.permits("192.168.1.1.1"));
+        assertFalse(whiteList.permits((String) null));
+    }
+
+    public void testBracketRangeBoundaries() {
+        IPWhiteList whiteList = IPWhiteList.builder().addRule("10.0.0.[10-20]").build();
+        assertFalse(whiteList.permits("10.0.0.9"));
+        assertTrue(whiteList.permits("10.0.0.10"));
+        assertTrue(whiteList.permits("10.0.0.20"));
+        assertFalse(whiteList.permits("10.0.0.21"));
+    }
+
+    public void testCidrBoundaries() {
+        IPWhiteList whiteList = IPWhiteList.builder().addRule("172.16.0.0/12").build();
+        assertFalse(whiteList.permits("172.15.255.255"));
+        assertTrue(whiteList.permits("172.16.0.0"));
+        assertTrue(whiteList.permits("172.31.255.255"));
+        assertFalse(whiteList.permits("172.32.0.0"));
+    }
+
+    public void testCidrFullAndHostPrefix() {
+        assertTrue(IPWhiteList.builder().addRule("0.0.0.0/0").build().permits("255.255.255.255"));
+        IPWhiteList host = IPWhiteList.builder().addRule("255.255.255.255/32").build();
+        assertTrue(host.permits("255.255.255.255"));
+        assertFalse(host.permits("255.255.255.254"));
+    }
+
+    public void testWildcardDoesNotMixSegmentsAcrossRules() {
+        IPWhiteList whiteList = IPWhiteList.builder().addRules("k", "10.0.*.1,192.168.1.*").build();
+        assertTrue(whiteList.permits("10.0.77.1"));
+        assertTrue(whiteList.permits("192.168.1.77"));
+        assertFalse(whiteList.permits("10.168.1.77"));
+        assertFalse(whiteList.permits("10.0.77.2"));
+    }
+
+    public void testAdjacentRangesMerged() {
+        IPv4RangeIndex index = IPv4RangeIndex.builder()
+                .add(IPAddresses.parseIPv4("10.0.0.0"), IPAddresses.parseIPv4("10.0.0.127"))
+                .add(IPAddresses.parseIPv4("10.0.0.128"), IPAddresses.parseIPv4("10.0.0.255"))
+                .add(IPAddresses.parseIPv4("10.0.0.64"), IPAddresses.parseIPv4("10.0.0.200"))
+                .build();
+        assertEquals(1, index.size());
+        assertTrue(index.contains(IPAddresses.parseIPv4("10.0.0.128")));
+        assertFalse(index.contains(IPAddresses.parseIPv4("10.0.1.0")));
+    }
+
+    public void testRangeIndexAcrossSignBit() {
+        IPv4RangeIndex index = IPv4RangeIndex.builder()
+                .add(IPAddresses.parseIPv4("127.255.255.255"), IPAddresses.parseIPv4("128.0.0.0"))
+                .add(IPAddresses.parseIPv4("255.255.255.255"), IPAddresses.parseIPv4("255.255.255.255"))
+                .build();
+        assertFalse(index.contains(IPAddresses.parseIPv4("127.255.255.254")));
+        assertTrue(index.contains(IPAddresses.parseIPv4("127.255.255.255")));
+        assertTrue(index.contains(IPAddresses.parseIPv4("128.0.0.0")));
+        assertFalse(index.contains(IPAddresses.parseIPv4("128.0.0.1")));
+        assertTrue(index.contains(0xFFFFFFFFL));
+        assertFalse(index.contains(0L));
+    }
+
+    public void testRuleExpandingPastLimitFallsBackToSegmentPatterns() {
+        //前三段 256*256*16 个组合，超过 MAX_EXPANDED_RANGES
+        IPWhiteList whiteList = IPWhiteList.builder().addRule("*.*.[0-15].1").build();
+        assertTrue(whiteList.permits("0.0.0.1"));
+        assertTrue(whiteList.permits("255.255.15.1"));
+        assertFalse(whiteList.permits("255.255.16.1"));
+        assertFalse(whiteList.permits("1.2.3.2"));
+    }
+
+    public void testSegmentPatternsIndexedByLastPartialSegment() {
+        IPWhiteList whiteList = IPWhiteList.builder()
+                .addRules("k", "*.*.*.1,10.*.*.[5-6],[0-100].[0-100].5.*,*.*.[0-15].200").build();
+        assertTrue(whiteList.permits("8.8.8.1"));
+        assertTrue(whiteList.permits("10.1.2.5"));
+        assertTrue(whiteList.permits("10.1.2.6"));
+        assertFalse(whiteList.permits("11.1.2.5"));
+        assertTrue(whiteList.permits("100.0.5.77"));
+        assertFalse(whiteList.permits("101.0.5.77"));
+        assertFalse(whiteList.permits("100.0.6.77"));
+        assertTrue(whiteList.permits("1.2.15.200"));
+        assertFalse(whiteList.permits("1.2.16.200"));
+        assertFalse(whiteList.permits("1.2.3.4"));
+    }
+
+    public void testRuleExpandingToLimitStaysInIndex() {
+        //16*256 = 4096 个区间，正好不超过上限
+        IPWhiteList whiteList = IPWhiteList.builder().addRule("[0-15].*.7.*").build();
+        assertTrue(whiteList.permits("0.0.7.0"));
+        assertTrue(whiteList.permits("15.255.7.255"));
+        assertFalse(whiteList.permits("16.0.7.0"));
+        assertFalse(whiteList.permits("15.255.8.0"));
+    }
+
+    public void testIllegalRulesSkipped() {
+        IPWhiteList whiteList = IPWhiteList.builder()
+                .addRules("k", "1.2.3,10.0.0.[5-300],10.0.0.0/33,zz::1/200,10.0.0.1").build();
+        assertTrue(whiteList.permits("10.0.0.1"));
+        assertFalse(whiteList.permits("10.0.0.5"));
+        assertFalse(whiteList.permits("1.2.3.0"));
+    }
+
+    public void testIPv6PrefixBoundaries() {
+        IPWhiteList whiteList = IPWhiteList.builder().addRule("2001:db8::/32").build();
+        assertTrue(whiteList.permits("2001:db8::"));
+        assertTrue(whiteList.permits("2001:db8:ffff:ffff:ffff:ffff:ffff:ffff"));
+        assertFalse(whiteList.permits("2001:db9::"));
+        assertFalse(whiteList.permits("2001:db7:ffff:ffff:ffff:ffff:ffff:ffff"));
+        assertTrue(whiteList.permits("[2001:db8::1]"));
+    }
+
+    public void testIPv6PrefixAcrossHalves() {
+        //前缀长度跨过高低64位的分界
+        IPWhiteList whiteList = IPWhiteList.builder().addRules("k", "2001:db8:0:0:8000::/65,::1").build();
+        assertTrue(whiteList.permits("2001:db8::8000:0:0:0"));
+        assertTrue(whiteList.permits("2001:db8::ffff:ffff:ffff:ffff"));
+        assertFalse(whiteList.permits("2001:db8::7fff:ffff:ffff:ffff"));
+        assertTrue(whiteList.permits("::1"));
+        assertFalse(whiteList.permits("::2"));
+    }
+
+    public void testIPv4MappedAddressUsesIPv4Rules() {
+        IPWhiteList whiteList = IPWhiteList.builder().addRules("k", "192.168.0.0/16,::ffff:10.0.0.0/104").build();
+        assertTrue(whiteList.permits("::ffff:192.168.3.4"));
+        assertFalse(whiteList.permits("::ffff:192.169.0.0"));
+        assertTrue(whiteList.permits("10.255.0.1"));
+        assertFalse(whiteList.permits("11.0.0.0"));
+    }
+
+    public void testPrefixTrieMergesLongerPrefixes() {
+        long[] a = new long[2];
+        IPAddresses.parseIPv6("2001:db8:1::", a);
+        long[] b = new long[2];
+        IPAddresses.parseIPv6("2001:db8::", b);
+        IPv6PrefixTrie trie = IPv6PrefixTrie.builder().add(a[0], a[1], 48).add(b[0], b[1], 32).build();
+        long[] c = new long[2];
+        IPAddresses.parseIPv6("2001:db8:2::1", c);
+        assertTrue(trie.contains(c[0], c[1]));
+        assertTrue(trie.contains(a[0], a[1]));
+        assertFalse(IPv6PrefixTrie.builder().build().contains(a[0], a[1]));
+    }
+
+    public void testPrefixTrieBranches() {
+        long[] a = new long[2];
+        IPAddresses.parseIPv6("fe80::", a);
+        long[] b = new long[2];
+        IPAddresses.parseIPv6("fec0::", b);
+        IPv6PrefixTrie trie = IPv6PrefixTrie.builder().add(a[0], a[1], 10).add(b[0], b[1], 10).build();
+        long[] c = new long[2];
+        IPAddresses.parseIPv6("febf:ffff::", c);
+        assertTrue(trie.contains(c[0], c[1]));
+        IPAddresses.parseIPv6("feff:ffff::", c);
+        assertTrue(trie.contains(c[0], c[1]));
+        IPAddresses.parseIPv6("ff00::", c);
+        assertFalse(trie.contains(c[0], c[1]));
+        IPAddresses.parseIPv6("fe7f:ffff::", c);
+        assertFalse(trie.contains(c[0], c[1]));
+    }
+}
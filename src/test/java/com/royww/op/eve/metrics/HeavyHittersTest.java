@@ -0,0 +1,49 @@
+package com.royww.op.eve.metrics;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+
+/**
+ * HeavyHitters 分段最小堆的计数和替换
+ */
+public class HeavyHittersTest extends TestCase {
+
+    public void testTopOrderedByCount() {
+        HeavyHitters hitters = new HeavyHitters(128);
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j <= i; j++) {
+                hitters.offer("ip-" + i);
+            }
+        }
+        List<HeavyHitters.Counter> top = hitters.top(3);
+        assertEquals(3, top.size());
+        assertEquals("ip-9", top.get(0).getItem());
+        assertEquals(10, top.get(0).getCount());
+        assertEquals("ip-8", top.get(1).getItem());
+        assertEquals("ip-7", top.get(2).getItem());
+    }
+
+    public void testFrequentItemSurvivesFlood() {
+        HeavyHitters hitters = new HeavyHitters(32);
+        for (int i = 0; i < 100000; i++) {
+            hitters.offer("scan-" + i);
+            if (i % 10 == 0) {
+                hitters.offer("attacker");
+            }
+        }
+        HeavyHitters.Counter top = hitters.top(1).get(0);
+        assertEquals("attacker", top.getItem());
+        assertTrue(top.getCount() >= 10000);
+        assertTrue(top.getCount() - top.getError() <= 10000);
+    }
+
+    public void testClear() {
+        HeavyHitters hitters = new HeavyHitters(64);
+        hitters.offer("a");
+        hitters.clear();
+        assertTrue(hitters.top(10).isEmpty());
+        hitters.offer("b");
+        assertEquals("b", hitters.top(10).get(0).getItem());
+    }
+}
@@ -0,0 +1,34 @@
+package com.royww.op.eve.metrics;
+
+import junit.framework.TestCase;
+
+/**
+ * LatencyHistogram 多线程记录后各分段的合并
+ */
+public class LatencyHistogramTest extends TestCase {
+
+    public void testHistogramSumsStripes() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 1; i <= 1000; i++) {
+                        histogram.record(i);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(4000, snapshot.getCount());
+        assertEquals(500.5, snapshot.getMean(), 0.001);
+        long p50 = snapshot.getPercentile(50);
+        assertTrue(p50 >= 500 && p50 <= 500 * 1.125);
+        assertEquals(LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(1000)), snapshot.getMax());
+    }
+}
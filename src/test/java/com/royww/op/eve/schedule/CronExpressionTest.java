@@ -0,0 +1,109 @@
+package com.royww.op.eve.schedule;
+
+import junit.framework.TestCase;
+
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * CronExpression 下一触发时间的计算
+ */
+public class CronExpressionTest extends TestCase {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    public void testFiveAndSixFields() {
+        //2024-01-01 为周一
+        long after = utc(2024, 1, 1, 10, 0, 0);
+        assertEquals(utc(2024, 1, 2, 9, 30, 0), cron("30 9 * * *").next(after));
+        assertEquals(utc(2024, 1, 2, 9, 30, 15), cron("15 30 9 * * *").next(after));
+        assertEquals(utc(2024, 1, 1, 10, 0, 1), cron("* * * * * ?").next(after));
+    }
+
+    public void testSundayAsZeroOrSeven() {
+        long after = utc(2024, 1, 1, 0, 0, 0);
+        long sunday = utc(2024, 1, 7, 12, 0, 0);
+        assertEquals(sunday, cron("0 0 12 * * 0").next(after));
+        assertEquals(sunday, cron("0 0 12 * * 7").next(after));
+        assertEquals(sunday, cron("0 0 12 * * SUN").next(after));
+        assertEquals(utc(2024, 1, 5, 12, 0, 0), cron("0 0 12 * * 5-7").next(after));
+    }
+
+    public void testMonthAndDayNames() {
+        long after = utc(2024, 1, 1, 0, 0, 0);
+        //2024-03-02 为三月第一个周六
+        assertEquals(utc(2024, 3, 2, 0, 0, 0), cron("0 0 0 * MAR SAT").next(after));
+        assertEquals(utc(2024, 3, 2, 0, 0, 0), cron("0 0 0 * mar sat").next(after));
+        assertEquals(utc(2024, 2, 1, 0, 0, 0), cron("0 0 0 1 FEB-APR *").next(after));
+    }
+
+    public void testSteps() {
+        assertEquals(utc(2024, 1, 1, 10, 0, 20), cron("*/20 * * * * *").next(utc(2024, 1, 1, 10, 0, 5)));
+        assertEquals(utc(2024, 1, 1, 0, 0, 50), cron("5/15 * * * * *").next(utc(2024, 1, 1, 0, 0, 36)));
+        assertEquals(utc(2024, 1, 1, 7, 0, 0), cron("0 0 1-10/3 * * *").next(utc(2024, 1, 1, 5, 0, 0)));
+        assertEquals(utc(2024, 1, 2, 1, 0, 0), cron("0 0 1-10/3 * * *").next(utc(2024, 1, 1, 10, 0, 0)));
+    }
+
+    public void testMonthEnd() {
+        //二月没有 31 日
+        assertEquals(utc(2024, 3, 31, 0, 0, 0), cron("0 0 0 31 * *").next(utc(2024, 1, 31, 0, 0, 0)));
+        //下一个闰年
+        assertEquals(utc(2028, 2, 29, 0, 0, 0), cron("0 0 0 29 2 *").next(utc(2024, 3, 1, 0, 0, 0)));
+        assertEquals(-1, cron("0 0 0 30 2 *").next(utc(2024, 1, 1, 0, 0, 0)));
+        //跨年
+        assertEquals(utc(2025, 1, 1, 0, 0, 0), cron("0 0 1 * *").next(utc(2024, 12, 31, 23, 59, 59)));
+    }
+
+    public void testDayOfMonthOrDayOfWeek() {
+        CronExpression cron = cron("0 0 1 * MON");
+        //2024-01-29 周一，2024-02-01 周四，2024-02-05 周一
+        long t = cron.next(utc(2024, 1, 28, 0, 0, 0));
+        assertEquals(utc(2024, 1, 29, 0, 0, 0), t);
+        t = cron.next(t);
+        assertEquals(utc(2024, 2, 1, 0, 0, 0), t);
+        t = cron.next(t);
+        assertEquals(utc(2024, 2, 5, 0, 0, 0), t);
+
+        //只限定其一时按该字段匹配
+        assertEquals(utc(2024, 2, 1, 0, 0, 0), cron("0 0 1 * ?").next(utc(2024, 1, 28, 0, 0, 0)));
+        assertEquals(utc(2024, 1, 29, 0, 0, 0), cron("0 0 * * MON").next(utc(2024, 1, 28, 0, 0, 0)));
+    }
+
+    public void testDaylightSavingFallBack() {
+        TimeZone newYork = TimeZone.getTimeZone("America/New_York");
+        //2024-11-03 02:00 EDT 回拨到 01:00 EST，01:00-02:00 出现两次
+        CronExpression daily = new CronExpression("0 30 1 * * *", newYork);
+        long first = daily.next(utc(2024, 11, 3, 4, 0, 0));
+        assertEquals(utc(2024, 11, 3, 5, 30, 0), first);
+        assertEquals(utc(2024, 11, 4, 6, 30, 0), daily.next(first));
+
+        //小时为 * 时在重复的一小时内照常触发
+        CronExpression quarter = new CronExpression("0 */15 * * * *", newYork);
+        assertEquals(utc(2024, 11, 3, 6, 0, 0), quarter.next(utc(2024, 11, 3, 5, 45, 0)));
+    }
+
+    public void testIllegalExpressions() {
+        String[] illegal = {"* * * *", "* * * * * * *", "60 * * * * *", "* * * 0 * *", "*/0 * * * * *",
+                "* * * * 13 *", "* * * * * 8", "5-1 * * * * *"};
+        for (String expression : illegal) {
+            try {
+                cron(expression);
+                fail(expression);
+            } catch (IllegalArgumentException expected) {
+                //ok
+            }
+        }
+    }
+
+    private static CronExpression cron(String expression) {
+        return new CronExpression(expression, UTC);
+    }
+
+    private static long utc(int year, int month, int day, int hour, int minute, int second) {
+        Calendar c = Calendar.getInstance(UTC, Locale.ROOT);
+        c.clear();
+        c.set(year, month - 1, day, hour, minute, second);
+        return c.getTimeInMillis();
+    }
+}
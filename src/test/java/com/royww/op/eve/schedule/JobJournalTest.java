@@ -0,0 +1,115 @@
+package com.royww.op.eve.schedule;
+
+import com.google.common.collect.Maps;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JobJournal 的回放和后台压缩
+ */
+public class JobJournalTest extends TestCase {
+
+    private static final int CAPACITY = 64 << 10;
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("job-journal", ".bin");
+        file.delete();
+    }
+
+    @Override
+    protected void tearDown() {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    public void testReplayRegisterUpdateRemove() throws Exception {
+        JobJournal journal = new JobJournal(file, CAPACITY, 1, TimeUnit.MILLISECONDS);
+        assertTrue(journal.open().isEmpty());
+        long a = journal.register("com.example.A", 1000, 0);
+        long b = journal.register("com.example.B", 500, 0);
+        journal.update(a, 2000, 1);
+        journal.remove(b);
+        journal.close();
+
+        journal = new JobJournal(file, CAPACITY, 1, TimeUnit.MILLISECONDS);
+        List<JobJournal.Entry> entries = journal.open();
+        assertEquals(1, entries.size());
+        assertEquals(a, entries.get(0).getId());
+        assertEquals("com.example.A", entries.get(0).getClassName());
+        assertEquals(2000, entries.get(0).getNextFireTime());
+        assertEquals(1, entries.get(0).getOffsetIndex());
+        //ID 不与已使用的重复
+        assertTrue(journal.register("com.example.C", 0, 0) > b);
+        journal.close();
+    }
+
+    public void testCorruptLengthStopsReplay() throws Exception {
+        JobJournal journal = new JobJournal(file, CAPACITY, 1, TimeUnit.MILLISECONDS);
+        journal.open();
+        long a = journal.register("com.example.A", 1000, 0);
+        long b = journal.register("com.example.B", 2000, 0);
+        journal.register("com.example.C", 3000, 0);
+        journal.close();
+
+        //第三条记录的长度改为接近 Integer.MAX_VALUE，头 4 字节，每条记录 4 + 23 + 13 + 4 字节
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(4 + 2 * 44);
+            raf.writeInt(0x7FFFFFFC);
+        } finally {
+            raf.close();
+        }
+
+        journal = new JobJournal(file, CAPACITY, 1, TimeUnit.MILLISECONDS);
+        List<JobJournal.Entry> entries = journal.open();
+        assertEquals(2, entries.size());
+        assertEquals(a, entries.get(0).getId());
+        assertEquals(b, entries.get(1).getId());
+        //损坏的记录之后继续追加
+        long d = journal.register("com.example.D", 4000, 0);
+        journal.close();
+
+        journal = new JobJournal(file, CAPACITY, 1, TimeUnit.MILLISECONDS);
+        entries = journal.open();
+        journal.close();
+        assertEquals(3, entries.size());
+        assertEquals(d, entries.get(2).getId());
+    }
+
+    public void testCompactionKeepsRecordsAppendedMeanwhile() throws Exception {
+        JobJournal journal = new JobJournal(file, CAPACITY, 1, TimeUnit.MILLISECONDS);
+        journal.open();
+        Map<Long, Long> expected = Maps.newHashMap();
+        //每条记录约 60 字节，远超容量的 3/4，会触发多次压缩
+        for (int i = 0; i < 20000; i++) {
+            long id = journal.register("com.example.Job" + (i % 7), i, 0);
+            expected.put(id, (long) i);
+            if (i % 3 != 0) {
+                journal.update(id, i + 1, 0);
+                expected.put(id, (long) i + 1);
+            }
+            if (i % 2 == 0) {
+                journal.remove(id);
+                expected.remove(id);
+            }
+        }
+        journal.close();
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        journal = new JobJournal(file, CAPACITY, 1, TimeUnit.MILLISECONDS);
+        List<JobJournal.Entry> entries = journal.open();
+        journal.close();
+        assertEquals(expected.size(), entries.size());
+        for (JobJournal.Entry entry : entries) {
+            assertEquals(expected.get(entry.getId()), Long.valueOf(entry.getNextFireTime()));
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.royww.op.eve.schedule;
+
+import com.google.common.collect.Lists;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 调度核心在 1k/100k/1M 个定时任务下的对比
+ * <p>
+ * 不是单元测试，手工运行：java com.royww.op.eve.schedule.ScheduleEngineBenchmark [任务数...]。
+ * 参照实现为直接包装 JDK {@link DelayQueue} 的 {@link DelayQueueReference}，与 {@link DelayQueueEngine}、
+ * {@link TimingWheelEngine} 对比两项：
+ * </p>
+ * <ul>
+ * <li>offer：单线程及 PRODUCERS 个线程并发加入 1 ~ 60 秒后到期的任务，平均每个任务的耗时</li>
+ * <li>fire：加入在 FIRE_WINDOW_MILLIS 内均匀到期的任务，单个扫描线程全部取出的总耗时及最大延迟</li>
+ * </ul>
+ * <p>
+ * 项目不依赖 JMH，这里用预热加多轮取最好成绩的方式测量，结果只用于相对比较。
+ * 时间轮的任务在 take 时才放入槽位，这部分开销计入 fire。
+ * </p>
+ */
+public class ScheduleEngineBenchmark {
+
+    private static final long FIRE_WINDOW_MILLIS = 500;
+    private static final int ROUNDS = 3;
+    private static final int PRODUCERS = 4;
+
+    private static final Runnable NOOP = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = {1000, 100000, 1000000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        //预热
+        for (int i = 0; i < 3; i++) {
+            for (String engine : Arrays.asList("DelayQueue", "DelayQueueEngine", "TimingWheelEngine")) {
+                offer(newEngine(engine), 100000, 1);
+                offer(newEngine(engine), 100000, PRODUCERS);
+                fire(newEngine(engine), 10000);
+            }
+        }
+        System.out.printf("%-18s %9s %12s %14s %12s %14s%n", "engine", "timers", "offer ns/op",
+                "offer " + PRODUCERS + "T ns/op", "fire ms", "max late ms");
+        for (int size : sizes) {
+            for (String engine : Arrays.asList("DelayQueue", "DelayQueueEngine", "TimingWheelEngine")) {
+                double offerNanos = Double.MAX_VALUE;
+                double concurrentOfferNanos = Double.MAX_VALUE;
+                long[] best = {Long.MAX_VALUE, Long.MAX_VALUE};
+                for (int round = 0; round < ROUNDS; round++) {
+                    offerNanos = Math.min(offerNanos, offer(newEngine(engine), size, 1));
+                    concurrentOfferNanos = Math.min(concurrentOfferNanos,
+                            offer(newEngine(engine), size, PRODUCERS));
+                    long[] result = fire(newEngine(engine), size);
+                    if (result[0] < best[0]) {
+                        best = result;
+                    }
+                }
+                System.out.printf("%-18s %9d %12.1f %14.1f %12d %14.1f%n", engine, size, offerNanos,
+                        concurrentOfferNanos, best[0] / 1000000, best[1] / 1e6);
+            }
+        }
+    }
+
+    private static ScheduleEngine newEngine(String name) {
+        if ("DelayQueue".equals(name)) {
+            return new DelayQueueReference();
+        }
+        return "DelayQueueEngine".equals(name) ? new DelayQueueEngine() : new TimingWheelEngine();
+    }
+
+    /**
+     * producers 个线程各自加入 size / producers 个任务
+     * @return 全部加入的总耗时除以任务数(纳秒)
+     */
+    private static double offer(final ScheduleEngine engine, int size, int producers) throws InterruptedException {
+        Random random = new Random(size);
+        final Schedule[] schedules = new Schedule[size];
+        for (int i = 0; i < size; i++) {
+            schedules[i] = Schedule.periodic(NOOP, SchedulerExecutor.TriggerMode.FIXED_RATE,
+                    1000 + random.nextInt(59000), 1, TimeUnit.MILLISECONDS, null);
+        }
+        final CountDownLatch ready = new CountDownLatch(producers);
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int from = (int) ((long) size * p / producers);
+            final int to = (int) ((long) size * (p + 1) / producers);
+            threads[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ready.countDown();
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = from; i < to; i++) {
+                        engine.offer(schedules[i]);
+                    }
+                }
+            });
+            threads[p].start();
+        }
+        ready.await();
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        engine.drain();
+        return elapsed / (double) size;
+    }
+
+    /**
+     * @return [全部取出的耗时, 最大延迟]，单位纳秒
+     */
+    private static long[] fire(ScheduleEngine engine, int size) throws InterruptedException {
+        Random random = new Random(size);
+        long windowNanos = TimeUnit.MILLISECONDS.toNanos(FIRE_WINDOW_MILLIS);
+        List<Schedule> schedules = Lists.newArrayListWithCapacity(size);
+        for (int i = 0; i < size; i++) {
+            schedules.add(Schedule.periodic(NOOP, SchedulerExecutor.TriggerMode.FIXED_RATE,
+                    (long) (random.nextDouble() * windowNanos), 1, TimeUnit.NANOSECONDS, null));
+        }
+        long start = System.nanoTime();
+        for (Schedule schedule : schedules) {
+            engine.offer(schedule);
+        }
+        long maxLate = 0;
+        for (int i = 0; i < size; i++) {
+            Schedule schedule = engine.take();
+            long late = System.nanoTime() - schedule.getExecuteTime();
+            if (late < 0) {
+                throw new IllegalStateException("Fired early.early=" + -late);
+            }
+            maxLate = Math.max(maxLate, late);
+        }
+        return new long[]{System.nanoTime() - start, maxLate};
+    }
+
+    /**
+     * 直接包装 JDK {@link DelayQueue} 的参照实现
+     */
+    static final class DelayQueueReference implements ScheduleEngine {
+        private final DelayQueue<Schedule> queue = new DelayQueue<Schedule>();
+
+        @Override
+        public void offer(Schedule schedule) {
+            queue.offer(schedule);
+        }
+
+        @Override
+        public void offerAll(Collection<Schedule> schedules) {
+            queue.addAll(schedules);
+        }
+
+        @Override
+        public Schedule take() throws InterruptedException {
+            return queue.take();
+        }
+
+        @Override
+        public List<Schedule> drain() {
+            List<Schedule> schedules = Lists.newArrayList(queue);
+            queue.clear();
+            return schedules;
+        }
+
+        @Override
+        public int size() {
+            return queue.size();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.royww.op.eve.schedule;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SchedulerExecutor 的任务执行结果和排队满时的处理
+ */
+public class SchedulerExecutorTest extends TestCase {
+
+    private SchedulerExecutor executor;
+
+    @Override
+    protected void setUp() {
+        executor = new SchedulerExecutor(2);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    public void testErrorFailsOnceJob() throws Exception {
+        JobHandle handle = executor.register(new ErrorJob());
+        try {
+            handle.getFuture().get(10, TimeUnit.SECONDS);
+            fail("job threw an Error");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AssertionError);
+        }
+        assertEquals(1, executor.getJobMetrics().get(ErrorJob.class).getFailedCount());
+    }
+
+    public void testFullQueueRejectsWithoutStallingScan() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        SchedulerExecutor bounded = new SchedulerExecutor(
+                JobExecutors.boundedPool(1, 1, JobExecutors.BackPressure.REJECT), new DelayQueueEngine());
+        try {
+            //一个占住线程，一个占住排队位置
+            bounded.register(new BlockingJob(release));
+            bounded.register(new BlockingJob(release));
+            TickJob tick = new TickJob();
+            JobHandle handle = bounded.register(tick);
+            //扫描线程没有被阻塞，周期任务被反复拒绝并继续下一周期
+            long deadline = System.currentTimeMillis() + 10000;
+            while (bounded.getJobMetrics().get(TickJob.class).getRejectedCount() < 3) {
+                assertTrue("not rejected", System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+            assertFalse(handle.isDone());
+
+            release.countDown();
+            while (tick.runs.get() == 0) {
+                assertTrue("not run after queue drained", System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+        } finally {
+            release.countDown();
+            bounded.shutdownNow();
+            bounded.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @SchedulerExecutor.Trigger(intervals = 10, timeUnit = TimeUnit.MILLISECONDS)
+    public static class ErrorJob implements Runnable {
+        @Override
+        public void run() {
+            throw new AssertionError("job died");
+        }
+    }
+
+    @SchedulerExecutor.Trigger(intervals = 1, timeUnit = TimeUnit.MILLISECONDS)
+    static class BlockingJob implements Runnable {
+        private final CountDownLatch release;
+
+        BlockingJob(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void run() {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @SchedulerExecutor.Trigger(mode = SchedulerExecutor.TriggerMode.FIXED_RATE, period = 5,
+            timeUnit = TimeUnit.MILLISECONDS)
+    static class TickJob implements Runnable {
+        final AtomicInteger runs = new AtomicInteger();
+
+        @Override
+        public void run() {
+            runs.incrementAndGet();
+        }
+    }
+}
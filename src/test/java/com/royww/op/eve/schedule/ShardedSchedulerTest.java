@@ -0,0 +1,148 @@
+package com.royww.op.eve.schedule;
+
+import com.royww.op.eve.distrubuted.DistributedDispatcher;
+import com.royww.op.eve.distrubuted.ShardAssigner;
+import com.royww.op.eve.distrubuted.ZooKeeperTestServer;
+import junit.framework.TestCase;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 两个实例的 SchedulerExecutor 按 ShardAssigner 分片执行
+ */
+public class ShardedSchedulerTest extends TestCase {
+
+    private static final int JOBS = 20;
+    private static final int SESSION_TIMEOUT = 4000;
+
+    private ZooKeeperTestServer zk;
+    private DistributedDispatcher[] dispatchers = new DistributedDispatcher[2];
+    private ShardAssigner[] assigners = new ShardAssigner[2];
+    private SchedulerExecutor[] executors = new SchedulerExecutor[2];
+
+    @Override
+    protected void setUp() throws Exception {
+        zk = new ZooKeeperTestServer().start();
+        for (int i = 0; i < dispatchers.length; i++) {
+            dispatchers[i] = new DistributedDispatcher("sharded-scheduler", zk.getConnectString(i), SESSION_TIMEOUT);
+            dispatchers[i].registration().get(10, TimeUnit.SECONDS);
+            assigners[i] = new ShardAssigner(dispatchers[i]);
+            executors[i] = new SchedulerExecutor(2);
+            executors[i].setShardAssigner(assigners[i]);
+        }
+        awaitBothOwnKeys();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (int i = 0; i < executors.length; i++) {
+            executors[i].shutdownNow();
+            executors[i].awaitTermination(10, TimeUnit.SECONDS);
+            dispatchers[i].close();
+        }
+        zk.close();
+    }
+
+    public void testEachShardedJobRunsOnlyOnOwner() throws Exception {
+        KeyedJob[][] jobs = new KeyedJob[executors.length][JOBS];
+        for (int i = 0; i < executors.length; i++) {
+            for (int key = 0; key < JOBS; key++) {
+                jobs[i][key] = new KeyedJob("job-" + key);
+                executors[i].register(jobs[i][key]);
+            }
+        }
+        awaitRuns(jobs);
+
+        for (int key = 0; key < JOBS; key++) {
+            for (int i = 0; i < executors.length; i++) {
+                boolean owns = assigners[i].owns("job-" + key);
+                assertEquals("job-" + key + " on executor " + i, owns, jobs[i][key].runs.get() > 0);
+            }
+        }
+        for (SchedulerExecutor executor : executors) {
+            assertTrue(executor.getJobMetrics().get(KeyedJob.class).getSkippedCount() > 0);
+        }
+    }
+
+    public void testUnshardedJobRunsEverywhere() throws Exception {
+        UnshardedJob[] jobs = new UnshardedJob[executors.length];
+        for (int i = 0; i < executors.length; i++) {
+            jobs[i] = new UnshardedJob();
+            executors[i].register(jobs[i]);
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        for (UnshardedJob job : jobs) {
+            while (job.runs.get() == 0) {
+                assertTrue("unsharded job not run", System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    /**
+     * 等到每个任务都在某个实例上执行过几次
+     */
+    private static void awaitRuns(KeyedJob[][] jobs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        for (int key = 0; key < JOBS; key++) {
+            while (jobs[0][key].runs.get() + jobs[1][key].runs.get() < 3) {
+                assertTrue("job-" + key + " not run", System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    private void awaitBothOwnKeys() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            int[] owned = new int[assigners.length];
+            int total = 0;
+            for (int key = 0; key < JOBS; key++) {
+                for (int i = 0; i < assigners.length; i++) {
+                    if (assigners[i].owns("job-" + key)) {
+                        owned[i]++;
+                        total++;
+                    }
+                }
+            }
+            if (owned[0] > 0 && owned[1] > 0 && total == JOBS) {
+                return;
+            }
+            assertTrue("membership not converged", System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    @SchedulerExecutor.Trigger(mode = SchedulerExecutor.TriggerMode.FIXED_RATE, period = 10,
+            timeUnit = TimeUnit.MILLISECONDS, sharded = true)
+    static class KeyedJob implements ShardedJob {
+        private final String key;
+        final AtomicInteger runs = new AtomicInteger();
+
+        KeyedJob(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public String shardKey() {
+            return key;
+        }
+
+        @Override
+        public void run() {
+            runs.incrementAndGet();
+        }
+    }
+
+    @SchedulerExecutor.Trigger(mode = SchedulerExecutor.TriggerMode.FIXED_RATE, period = 10,
+            timeUnit = TimeUnit.MILLISECONDS)
+    static class UnshardedJob implements Runnable {
+        final AtomicInteger runs = new AtomicInteger();
+
+        @Override
+        public void run() {
+            runs.incrementAndGet();
+        }
+    }
+}
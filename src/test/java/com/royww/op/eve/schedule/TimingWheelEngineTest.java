@@ -0,0 +1,248 @@
+package com.royww.op.eve.schedule;
+
+import com.google.common.collect.Lists;
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TimingWheelEngine 与参照实现 DelayQueueEngine 的执行顺序和延迟对比
+ */
+public class TimingWheelEngineTest extends TestCase {
+
+    private static final int PRODUCERS = 4;
+    //允许的调度延迟，包含线程调度的抖动
+    private static final long MAX_LATE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final Runnable NOOP = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    private final List<Thread> threads = Lists.newArrayList();
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (Thread thread : threads) {
+            thread.interrupt();
+            thread.join(10000);
+        }
+    }
+
+    /**
+     * 两层时间轮覆盖 409.6ms，任务分布到两层并经过 cascade，超过 409.6ms 的在最高层轮转
+     */
+    public void testCascadeMatchesDelayQueue() throws Exception {
+        long tick = TimeUnit.MICROSECONDS.toNanos(100);
+        compareWithDelayQueue(new TimingWheelEngine(tick, TimeUnit.NANOSECONDS, 2), tick, 2000, 50, 1000);
+    }
+
+    /**
+     * 一层时间轮只覆盖 64ms，所有任务都超过最高层
+     */
+    public void testBeyondTopLevelMatchesDelayQueue() throws Exception {
+        long tick = TimeUnit.MILLISECONDS.toNanos(1);
+        compareWithDelayQueue(new TimingWheelEngine(tick, TimeUnit.NANOSECONDS, 1), tick, 500, 50, 300);
+    }
+
+    public void testCancelledScheduleIsStillTaken() throws Exception {
+        TimingWheelEngine engine = new TimingWheelEngine();
+        Schedule first = schedule(20);
+        Schedule cancelled = schedule(40);
+        Schedule last = schedule(60);
+        engine.offerAll(Lists.newArrayList(last, cancelled, first));
+        cancelled.cancel();
+        assertEquals(3, engine.size());
+
+        assertSame(first, engine.take());
+        Schedule taken = engine.take();
+        assertSame(cancelled, taken);
+        assertTrue(taken.isCancelled());
+        assertTrue("fired early", System.nanoTime() - taken.getExecuteTime() >= 0);
+        assertSame(last, engine.take());
+        assertEquals(0, engine.size());
+    }
+
+    public void testEarlierDeadlineWakesScanThread() throws Exception {
+        TimingWheelEngine engine = new TimingWheelEngine();
+        BlockingQueue<Schedule> fired = startScanThread(engine);
+        //空的时间轮上无限期等待
+        Thread.sleep(50);
+        Schedule first = schedule(20);
+        engine.offer(first);
+        assertSame(first, fired.poll(5, TimeUnit.SECONDS));
+
+        //已计划在 10 秒后醒来
+        Schedule far = schedule(10000);
+        engine.offer(far);
+        Thread.sleep(50);
+        Schedule near = schedule(20);
+        engine.offer(near);
+        assertSame(near, fired.poll(5, TimeUnit.SECONDS));
+        assertTrue("late", System.nanoTime() - near.getExecuteTime() < MAX_LATE_NANOS);
+
+        Schedule batch = schedule(20);
+        engine.offerAll(Lists.newArrayList(schedule(20000), batch));
+        assertSame(batch, fired.poll(5, TimeUnit.SECONDS));
+        assertEquals(2, engine.size());
+    }
+
+    public void testDrainReturnsPendingAndWheel() throws Exception {
+        TimingWheelEngine engine = new TimingWheelEngine();
+        engine.offer(schedule(10000));
+        engine.offer(schedule(10));
+        //让扫描线程把任务放入时间轮
+        assertNotNull(engine.take());
+        engine.offer(schedule(1000000));
+        engine.offer(schedule(0));
+        assertEquals(3, engine.size());
+        assertEquals(3, engine.drain().size());
+        assertEquals(0, engine.size());
+        assertTrue(engine.drain().isEmpty());
+    }
+
+    /**
+     * 多个线程并发加入同一批任务，分别由两个调度核心的扫描线程取出，
+     * 时间轮只能在同一 tick 内调换顺序，且不能提前执行
+     */
+    private void compareWithDelayQueue(final TimingWheelEngine wheel, long tickNanos, int size,
+                                       int minDelayMillis, int maxDelayMillis) throws Exception {
+        final DelayQueueEngine reference = new DelayQueueEngine();
+        Random random = new Random(size);
+        final List<Schedule> schedules = Lists.newArrayListWithCapacity(size);
+        for (int i = 0; i < size; i++) {
+            long delay = TimeUnit.MILLISECONDS.toNanos(minDelayMillis)
+                    + (long) (random.nextDouble() * TimeUnit.MILLISECONDS.toNanos(maxDelayMillis - minDelayMillis));
+            schedules.add(Schedule.periodic(NOOP, SchedulerExecutor.TriggerMode.FIXED_RATE, delay, 1,
+                    TimeUnit.NANOSECONDS, null));
+        }
+
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producers = Lists.newArrayList();
+        for (int p = 0; p < PRODUCERS; p++) {
+            final List<Schedule> slice = schedules.subList(size * p / PRODUCERS, size * (p + 1) / PRODUCERS);
+            final boolean batch = p % 2 == 0;
+            Thread producer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (batch) {
+                        wheel.offerAll(slice);
+                        reference.offerAll(slice);
+                        return;
+                    }
+                    for (Schedule schedule : slice) {
+                        wheel.offer(schedule);
+                        reference.offer(schedule);
+                    }
+                }
+            });
+            producer.start();
+            producers.add(producer);
+        }
+        start.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertEquals(size, wheel.size());
+
+        TakeResult wheelResult = new TakeResult(wheel, size);
+        TakeResult referenceResult = new TakeResult(reference, size);
+        Thread wheelThread = new Thread(wheelResult);
+        Thread referenceThread = new Thread(referenceResult);
+        wheelThread.start();
+        referenceThread.start();
+        wheelThread.join(30000);
+        referenceThread.join(30000);
+        assertNull(wheelResult.error);
+        assertNull(referenceResult.error);
+        assertEquals(size, wheelResult.taken.size());
+        assertEquals(0, wheel.size());
+
+        Map<Schedule, Boolean> distinct = new IdentityHashMap<Schedule, Boolean>();
+        for (int i = 0; i < size; i++) {
+            Schedule expected = referenceResult.taken.get(i);
+            Schedule actual = wheelResult.taken.get(i);
+            assertNull("taken twice", distinct.put(actual, Boolean.TRUE));
+            assertTrue("out of order at " + i,
+                    Math.abs(actual.getExecuteTime() - expected.getExecuteTime()) < tickNanos);
+            assertTrue("fired early at " + i, wheelResult.lateNanos[i] >= 0);
+        }
+        assertTrue("wheel late " + wheelResult.maxLate() + " reference late " + referenceResult.maxLate(),
+                wheelResult.maxLate() <= referenceResult.maxLate() + tickNanos + MAX_LATE_NANOS);
+    }
+
+    private BlockingQueue<Schedule> startScanThread(final ScheduleEngine engine) {
+        final BlockingQueue<Schedule> fired = new LinkedBlockingQueue<Schedule>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        fired.add(engine.take());
+                    }
+                } catch (InterruptedException e) {
+                    //结束
+                }
+            }
+        });
+        thread.start();
+        threads.add(thread);
+        return fired;
+    }
+
+    private static Schedule schedule(long delayMillis) {
+        return Schedule.periodic(NOOP, SchedulerExecutor.TriggerMode.FIXED_RATE, delayMillis, 1,
+                TimeUnit.MILLISECONDS, null);
+    }
+
+    /**
+     * 在单独的扫描线程中取出全部任务并记录延迟
+     */
+    private static final class TakeResult implements Runnable {
+        private final ScheduleEngine engine;
+        private final List<Schedule> taken;
+        private final long[] lateNanos;
+        private volatile Throwable error;
+
+        TakeResult(ScheduleEngine engine, int size) {
+            this.engine = engine;
+            this.taken = Collections.synchronizedList(Lists.<Schedule>newArrayListWithCapacity(size));
+            this.lateNanos = new long[size];
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int i = 0; i < lateNanos.length; i++) {
+                    Schedule schedule = engine.take();
+                    lateNanos[i] = System.nanoTime() - schedule.getExecuteTime();
+                    taken.add(schedule);
+                }
+            } catch (Throwable e) {
+                error = e;
+            }
+        }
+
+        long maxLate() {
+            long max = 0;
+            for (long late : lateNanos) {
+                max = Math.max(max, late);
+            }
+            return max;
+        }
+    }
+}